@@ -980,12 +980,9 @@ export default class TerminalComponent {
 						finishConnecting(event);
 						break;
 
-					case "data": {
-						const binary = atob(event.data || "");
-						const bytes = Uint8Array.from(binary, (char) => char.charCodeAt(0));
-						this.terminal.write(bytes);
+					case "data":
+						if (event.data) this.terminal.write(new Uint8Array(event.data));
 						break;
-					}
 
 					case "exit":
 						this.isConnected = false;
@@ -6,8 +6,8 @@ import Path from "utils/Path";
 import Url from "utils/Url";
 import internalFs from "./internalFs";
 
-let pendingConnection = null;
-let pendingConnectionID = null;
+/** In-flight connection attempts keyed by connection ID. */
+const pendingConnections = new Map();
 
 class SftpClient {
 	#MAX_TRY = 3;
@@ -74,9 +74,10 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -107,9 +108,10 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			});
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -139,9 +141,10 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			});
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -163,12 +166,18 @@ class SftpClient {
 
 						await internalFs.writeFile(localFilename, content, true, false);
 						const remoteFile = this.#safeName(filename);
-						sftp.putFile(remoteFile, localFilename, resolve, reject);
+						sftp.putFile(
+							remoteFile,
+							localFilename,
+							resolve,
+							reject,
+							this.#connectionID,
+						);
 					} catch (err) {
 						reject(err);
 					}
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -204,9 +213,41 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			});
+			}, reject, this.#connectionID);
+		});
+	}
+
+	/**
+	 * Read part of the file from server, without downloading the rest
+	 * @param {number} offset negative to count back from the end
+	 * @param {number} length
+	 */
+	readRange(offset, length) {
+		return new Promise((resolve, reject) => {
+			sftp.isConnected((connectionID) => {
+				(async () => {
+					if (this.#notConnected(connectionID)) {
+						try {
+							await this.connect();
+						} catch (error) {
+							reject(error);
+							return;
+						}
+					}
+
+					sftp.readRange(
+						this.#safeName(this.#path),
+						offset,
+						length,
+						resolve,
+						reject,
+						this.#connectionID,
+					);
+				})();
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -234,7 +275,7 @@ class SftpClient {
 						reject(error);
 					}
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -244,12 +285,24 @@ class SftpClient {
 
 		// Download source file
 		await new Promise((resolve, reject) => {
-			sftp.getFile(this.#safeName(src), tempFile, resolve, reject);
+			sftp.getFile(
+				this.#safeName(src),
+				tempFile,
+				resolve,
+				reject,
+				this.#connectionID,
+			);
 		});
 
 		// Upload
 		await new Promise((resolve, reject) => {
-			sftp.putFile(this.#safeName(destPath), tempFile, resolve, reject);
+			sftp.putFile(
+				this.#safeName(destPath),
+				tempFile,
+				resolve,
+				reject,
+				this.#connectionID,
+			);
 		});
 
 		// Clean up temp file
@@ -264,7 +317,12 @@ class SftpClient {
 		// Create destination directory
 		const destDir = Path.join(dest, Path.basename(src));
 		await new Promise((resolve, reject) => {
-			sftp.mkdir(this.#safeName(destDir), resolve, reject);
+			sftp.mkdir(
+				this.#safeName(destDir),
+				resolve,
+				reject,
+				this.#connectionID,
+			);
 		});
 
 		// Get contents of source directory
@@ -315,9 +373,10 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -349,9 +408,10 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -375,34 +435,80 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
+					);
+				})();
+			}, reject, this.#connectionID);
+		});
+	}
+
+	/**
+	 * Searches the contents of files below the current path on the server.
+	 * Results use the event shape of the native workspace search.
+	 * @param {object} options Search options, see SftpSearchOptions
+	 * @param {(event: object) => void} onEvent
+	 * @returns {Promise<void>} Resolves when the search is done or cancelled
+	 */
+	search(options, onEvent) {
+		return new Promise((resolve, reject) => {
+			sftp.isConnected((connectionID) => {
+				(async () => {
+					if (this.#notConnected(connectionID)) {
+						try {
+							await this.connect();
+						} catch (error) {
+							reject(error);
+							return;
+						}
+					}
+
+					sftp.search(
+						{
+							...options,
+							root: this.#path,
+							rootUrl: Url.join(this.#base, this.#path),
+						},
+						(event) => {
+							onEvent(event);
+							switch (event?.type) {
+								case "done-searching":
+								case "cancelled":
+									resolve();
+									break;
+								case "error":
+									reject(new Error(event.error || "Remote search failed"));
+									break;
+							}
+						},
+						reject,
+						this.#connectionID,
 					);
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
+		});
+	}
+
+	/** Cancel a search started with the given id. */
+	cancelSearch(id) {
+		return new Promise((resolve) => {
+			sftp.cancelSearch(id, resolve, resolve);
 		});
 	}
 
 	async connect() {
-		if (pendingConnection) {
-			if (pendingConnectionID === this.#connectionID) {
-				return pendingConnection;
-			}
-			try {
-				await pendingConnection;
-			} catch {
-				// The next profile should still get its own connection attempt.
-			}
-			return this.connect();
-		}
+		// Each profile keeps its own native session, so only attempts for the
+		// same profile are shared.
+		const pending = pendingConnections.get(this.#connectionID);
+		if (pending) return pending;
 
-		pendingConnectionID = this.#connectionID;
-		pendingConnection = this.#connectWithRetry();
+		const connection = this.#connectWithRetry();
+		pendingConnections.set(this.#connectionID, connection);
 
 		try {
-			return await pendingConnection;
+			return await connection;
 		} finally {
-			if (pendingConnectionID === this.#connectionID) {
-				pendingConnection = null;
-				pendingConnectionID = null;
+			if (pendingConnections.get(this.#connectionID) === connection) {
+				pendingConnections.delete(this.#connectionID);
 			}
 		}
 	}
@@ -496,9 +602,10 @@ class SftpClient {
 						(err) => {
 							reject(err);
 						},
+						this.#connectionID,
 					);
 				})();
-			}, reject);
+			}, reject, this.#connectionID);
 		});
 	}
 
@@ -635,6 +742,9 @@ function createFs(sftp) {
 
 			return data;
 		},
+		readRange(offset, length) {
+			return sftp.readRange(offset, length);
+		},
 		async writeFile(content, encoding) {
 			if (typeof content === "string" && encoding) {
 				content = await encode(content, encoding);
@@ -668,6 +778,12 @@ function createFs(sftp) {
 		stat() {
 			return sftp.stat();
 		},
+		search(options, onEvent) {
+			return sftp.search(options, onEvent);
+		},
+		cancelSearch(id) {
+			return sftp.cancelSearch(id);
+		},
 		get localName() {
 			return sftp.localName;
 		},
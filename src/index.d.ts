@@ -40,12 +40,28 @@ type ExecutorCallback = (
   data: string,
 ) => void;
 
+interface ExecutorStreamOptions {
+  /** Deliver decoded output batches instead of single lines */
+  raw?: boolean;
+  /** Bytes of output retained for slow or detached clients (default 1 MB) */
+  bufferSize?: number;
+  /** What to do when the buffer is full (default "drop") */
+  overflow?: "drop" | "pause";
+}
+
 interface Executor {
   execute: (command: string, alpine: boolean) => Promise<string>;
   start: (
     command: string,
     callback: ExecutorCallback,
     alpine: boolean,
+    options?: ExecutorStreamOptions,
+  ) => Promise<string>;
+  /** Re-attach to a running process; retained output is replayed first */
+  attach: (
+    uuid: string,
+    callback: ExecutorCallback,
+    options?: Pick<ExecutorStreamOptions, "raw">,
   ) => Promise<string>;
   write: (uuid: string, input: string) => Promise<void>;
   stop: (uuid: string) => Promise<void>;
@@ -1260,13 +1260,17 @@ function FileBrowserInclude(mode, info, doesOpenLast = true) {
 					const { username, hostname, port = 22 } = Url.decodeUrl(storageUrl);
 					const connectionID = profileId || `${username}@${hostname}:${port}`;
 					await new Promise((resolve) => {
-						sftp.isConnected((activeConnectionID) => {
-							if (activeConnectionID !== connectionID) {
-								resolve();
-								return;
-							}
-							sftp.close(resolve, resolve);
-						}, resolve);
+						sftp.isConnected(
+							(activeConnectionID) => {
+								if (activeConnectionID !== connectionID) {
+									resolve();
+									return;
+								}
+								sftp.close(resolve, resolve, connectionID);
+							},
+							resolve,
+							connectionID,
+						);
 					});
 					const profileStillUsed = storageList.some(
 						(storage) =>
@@ -4,6 +4,36 @@ interface FtpOptions {
   encoding: 'utf8' | 'binary';
 }
 
+interface FtpTransferEvent {
+  id: string;
+  type: 'progress' | 'done';
+  action: FtpTransferEvent['type'];
+  /** Percentage, on progress events. */
+  data?: number;
+  bytes: number;
+  totalBytes: number;
+}
+
+interface FtpDirectoryOptions {
+  /** Glob patterns relative to the directory; only matching files are sent. */
+  include?: string[];
+  exclude?: string[];
+  /** Files in flight at once, capped by the profile's pooled connections. */
+  concurrency?: number;
+}
+
+interface FtpDirectoryEvent {
+  id: string;
+  type: 'progress' | 'done';
+  action: FtpDirectoryEvent['type'];
+  data?: number;
+  bytes: number;
+  totalBytes?: number;
+  files: number;
+  totalFiles?: number;
+  skipped: number;
+}
+
 type SuccessCallback = (res: any) => void;
 type ErrorCallback = (err: any) => void;
 
@@ -40,17 +70,57 @@ interface Ftp{
     onSuccess: SuccessCallback,
     onError: ErrorCallback,
   ): void;
+  /**
+   * localPath may be a file:// or a content:// (SAF) uri; data streams
+   * straight to or from it. With a transferId, onSuccess receives progress
+   * events and a final done event, and the transfer can be cancelled with
+   * cancelTransfer.
+   */
   downloadFile(
     id: string, // connection id
     remotePath: string,
     localPath: string,
-    onSuccess: SuccessCallback,
+    onSuccess: SuccessCallback | ((event: FtpTransferEvent) => void),
     onError: ErrorCallback,
+    transferId?: string,
   ): void;
   uploadFile(
     id: string, // connection id
     localPath: string,
     remotePath: string,
+    onSuccess: SuccessCallback | ((event: FtpTransferEvent) => void),
+    onError: ErrorCallback,
+    transferId?: string,
+  ): void;
+  /**
+   * Recursively downloads a remote directory into a local file:// directory,
+   * skipping files whose size and modification time already match.
+   */
+  downloadDirectory(
+    id: string, // connection id
+    remoteDir: string,
+    localDir: string,
+    options: FtpDirectoryOptions | null,
+    onEvent: (event: FtpDirectoryEvent) => void,
+    onError: ErrorCallback,
+    transferId?: string,
+  ): void;
+  /**
+   * Recursively uploads a local file:// directory, creating remote folders
+   * first and skipping files the server already has at the same size and a
+   * newer time.
+   */
+  uploadDirectory(
+    id: string, // connection id
+    remoteDir: string,
+    localDir: string,
+    options: FtpDirectoryOptions | null,
+    onEvent: (event: FtpDirectoryEvent) => void,
+    onError: ErrorCallback,
+    transferId?: string,
+  ): void;
+  cancelTransfer(
+    transferId: string,
     onSuccess: SuccessCallback,
     onError: ErrorCallback,
   ): void;
@@ -118,6 +188,17 @@ interface Ftp{
     onSuccess: SuccessCallback,
     onError: ErrorCallback,
   ): void;
+  /**
+   * Idle connections of every profile get a NOOP this often (default 30 s,
+   * minimum 5 s, 0 turns it off); dropped ones are logged back in with the
+   * stored credentials. Listings, stats and downloads caught by a drop are
+   * replayed on a fresh connection.
+   */
+  configureKeepalive(
+    intervalMs: number,
+    onSuccess: SuccessCallback,
+    onError: ErrorCallback,
+  ): void;
 }
 
 declare var ftp: Ftp;
\ No newline at end of file
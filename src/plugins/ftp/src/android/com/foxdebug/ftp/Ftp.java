@@ -2,6 +2,7 @@ package com.foxdebug.ftp;
 
 import android.app.Activity;
 import android.content.Context;
+import android.net.Uri;
 import android.util.Log;
 import java.io.File;
 import java.io.FileInputStream;
@@ -25,6 +26,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.net.ftp.*;
 import org.apache.commons.net.ftp.parser.ParserInitializationException;
 import org.apache.cordova.CallbackContext;
@@ -37,15 +44,74 @@ import org.json.JSONObject;
 
 public class Ftp extends CordovaPlugin {
 
-  HashMap<String, FTPClient> ftpProfiles = new HashMap<String, FTPClient>();
+  ConcurrentHashMap<String, FtpConnection> connections =
+    new ConcurrentHashMap<String, FtpConnection>();
+  ConcurrentHashMap<String, FtpTransfer> transfers =
+    new ConcurrentHashMap<String, FtpTransfer>();
+  ConcurrentHashMap<String, FtpDirectoryTransfer> directoryTransfers =
+    new ConcurrentHashMap<String, FtpDirectoryTransfer>();
   Context context;
   Activity activity;
   String connectionID;
 
+  private static final long DEFAULT_KEEPALIVE_MS = 30000L;
+  private static final long MIN_KEEPALIVE_MS = 5000L;
+  private final ScheduledExecutorService supervisor =
+    Executors.newSingleThreadScheduledExecutor();
+  private ScheduledFuture<?> keepalive;
+  private long keepaliveIntervalMs = DEFAULT_KEEPALIVE_MS;
+
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
     context = cordova.getContext();
     activity = cordova.getActivity();
+    scheduleKeepalive();
+  }
+
+  /**
+   * Every interval, NOOPs the idle clients of every profile on the thread
+   * pool, so a slow server holds up only its own profile.
+   */
+  private synchronized void scheduleKeepalive() {
+    if (keepalive != null) keepalive.cancel(false);
+    keepalive = null;
+    if (keepaliveIntervalMs <= 0) return;
+    long interval = keepaliveIntervalMs;
+    keepalive = supervisor.scheduleWithFixedDelay(
+      () -> {
+        for (FtpConnection connection : connections.values()) {
+          cordova.getThreadPool().execute(() -> connection.keepalive(interval));
+        }
+      },
+      interval,
+      interval,
+      TimeUnit.MILLISECONDS
+    );
+  }
+
+  public void configureKeepalive(JSONArray args, CallbackContext callback) {
+    long intervalMs = args.optLong(0, DEFAULT_KEEPALIVE_MS);
+    synchronized (this) {
+      keepaliveIntervalMs = intervalMs <= 0
+        ? 0
+        : Math.max(MIN_KEEPALIVE_MS, intervalMs);
+    }
+    scheduleKeepalive();
+    callback.success();
+  }
+
+  @Override
+  public void onDestroy() {
+    supervisor.shutdownNow();
+    List<FtpConnection> open = new ArrayList<>(connections.values());
+    connections.clear();
+    // QUIT is network I/O, which is not allowed on the main thread.
+    cordova
+      .getThreadPool()
+      .execute(() -> {
+        for (FtpConnection connection : open) connection.close();
+      });
+    super.onDestroy();
   }
 
   public boolean execute(
@@ -88,7 +154,6 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
-            int reply;
             int port = args.optInt(1);
             String host = args.optString(0);
             String username = args.optString(2);
@@ -99,79 +164,43 @@ public class Ftp extends CordovaPlugin {
             String encryption = args.optString(7);
             String encoding = args.optString(8);
             String ftpId = getFtpId(host, port, username);
-            FTPClient ftp = null;
+            FtpConnection connection = connections.get(ftpId);
 
             try {
-              if (ftpProfiles.containsKey(ftpId)) {
-                ftp = ftpProfiles.get(ftpId);
-                reply = ftp.getReplyCode();
-                if (ftp.isConnected() && FTPReply.isPositiveCompletion(reply)) {
-                  ftp.setControlEncoding("UTF-8");
-                  ftp.setAutodetectUTF8(true);
-                  System.setProperty("ftp.client.encoding", "UTF-8");
+              if (connection != null) {
+                try {
                   // test if connection is still valid
-                  ftp.sendNoOp();
+                  connection.open();
                   Log.d("FTP", "FTPClient (" + ftpId + ") is connected");
                   callback.success(ftpId);
                   return;
+                } catch (IOException e) {
+                  Log.d("FTP", "FTPClient (" + ftpId + ") is not connected");
+                  connections.remove(ftpId, connection);
+                  connection.close();
                 }
-                Log.d("FTP", "FTPClient (" + ftpId + ") is not connected");
-                ftp.disconnect();
-                Log.d("FTP", "FTPClient (" + ftpId + ") disconnecting...");
-              } else {
-                Log.d("FTP", "Creating new FTPClient (" + ftpId + ")");
-                ftp = new FTPClient();
-                ftpProfiles.put(ftpId, ftp);
-              }
-
-              Log.d("FTP", "FTPClient (" + ftpId + ") connecting...");
-              ftp.connect(host, port);
-              ftp.setControlKeepAliveTimeout(300);
-              if (connectionMode.equals("active")) {
-                Log.d("FTP", "Entering Local Active mode");
-                ftp.enterLocalActiveMode();
-              } else {
-                Log.d("FTP", "Entering Passive Active mode");
-                ftp.enterLocalPassiveMode();
               }
 
-              Log.d("FTP", "FTPClient (" + ftpId + ") logging in...");
-              ftp.login(username, password);
-
-              reply = ftp.getReplyCode();
-              if (!FTPReply.isPositiveCompletion(reply)) {
-                ftp.disconnect();
-                Log.d(
-                  "FTP",
-                  "FTPClient (" + ftpId + ") server refused connection."
-                );
-                callback.error("FTP server refused connection.");
-                return;
+              Log.d("FTP", "Creating new FTPClient (" + ftpId + ")");
+              connection = new FtpConnection(
+                ftpId,
+                host,
+                port,
+                username,
+                password,
+                connectionMode.equals("active")
+              );
+              connection.open();
+              FtpConnection existing = connections.putIfAbsent(ftpId, connection);
+              if (existing != null) {
+                // Another connect call for the same profile won the race.
+                connection.close();
               }
-
-              ftp.setListHiddenFiles(true);
-              ftpProfiles.put(ftpId, ftp);
               Log.d("FTP", "FTPClient (" + ftpId + ") connected");
               callback.success(ftpId);
-            } catch (IOException e) {
-              Log.e("FTP", "FTPClient (" + ftpId + ")", e);
-              if (ftp != null) {
-                ftpProfiles.remove(ftpId);
-              }
-
-              if (!isRetry) {
-                connect(args, callback, true);
-                return;
-              }
-
-              callback.error(e.getMessage());
             } catch (Exception e) {
               Log.e("FTP", "FTPClient (" + ftpId + ")", e);
 
-              if (ftp != null) {
-                ftpProfiles.remove(ftpId);
-              }
-
               if (!isRetry) {
                 connect(args, callback, true);
                 return;
@@ -184,15 +213,6 @@ public class Ftp extends CordovaPlugin {
       );
   }
 
-  private static String getBaseName(String path) {
-    int lastSepIndex = path.lastIndexOf('/');
-    if (lastSepIndex == path.length() - 1) {
-      return getBaseName(path.substring(0, lastSepIndex));
-    }
-
-    return path.substring(lastSepIndex + 1);
-  }
-
   private static String getParentPath(String path) {
     int lastSepIndex = path.lastIndexOf('/');
     if (lastSepIndex == path.length() - 1) {
@@ -221,85 +241,17 @@ public class Ftp extends CordovaPlugin {
                 path = "/";
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              FTPFile[] files = ftp.listFiles(path);
-              Log.d(
-                "FTP",
-                "FTPClient (" + ftpId + ") Listing files in " + path
-              );
+              JSONArray jsonFiles = connection.metadata.list(path);
               Log.d(
                 "FTP",
-                "FTPClient (" + ftpId + ") Found " + files.length + " files."
+                "FTPClient (" + ftpId + ") Found " + jsonFiles.length() + " files in " + path
               );
-
-              JSONArray jsonFiles = new JSONArray();
-
-              for (FTPFile file : files) {
-                String filename = file.getName();
-                if (filename.equals(".") || filename.equals("..")) {
-                  continue;
-                }
-
-                JSONObject jsonFile = new JSONObject();
-                jsonFile.put("name", filename);
-                jsonFile.put("length", file.getSize());
-                jsonFile.put("url", joinPath(path, filename));
-
-                if (file.isSymbolicLink()) {
-                  jsonFile.put("isLink", true);
-                  String linkTarget = file.getLink();
-                  jsonFile.put("link", linkTarget);
-                  String linkPath = linkTarget.startsWith("/")
-                    ? linkTarget
-                    : joinPath(path, linkTarget);
-                  try {
-                    FTPFile[] targetFiles = ftp.listFiles(linkPath);
-                    if (targetFiles.length > 0) {
-                      FTPFile targetFile = targetFiles[0];
-                      jsonFile.put("isFile", targetFile.isFile());
-                      jsonFile.put("isDirectory", targetFile.isDirectory());
-                      jsonFile.put("url", linkPath);
-                    } else {
-                      jsonFile.put("isFile", false);
-                      jsonFile.put("isDirectory", false);
-                    }
-                  } catch (Exception e) {
-                    // Handle broken symlink
-                    jsonFile.put("isFile", false);
-                    jsonFile.put("isDirectory", false);
-                  }
-                } else {
-                  jsonFile.put("isLink", false);
-                  jsonFile.put("isDirectory", file.isDirectory());
-                  jsonFile.put("isFile", file.isFile());
-                  jsonFile.put("link", null);
-                }
-
-                jsonFile.put(
-                  "lastModified",
-                  file.getTimestamp().getTimeInMillis()
-                );
-                jsonFile.put(
-                  "canWrite",
-                  file.hasPermission(
-                    FTPFile.USER_ACCESS,
-                    FTPFile.WRITE_PERMISSION
-                  )
-                );
-                jsonFile.put(
-                  "canRead",
-                  file.hasPermission(
-                    FTPFile.USER_ACCESS,
-                    FTPFile.READ_PERMISSION
-                  )
-                );
-                jsonFiles.put(jsonFile);
-              }
               callback.success(jsonFiles);
             } catch (ParserInitializationException e) {
               callback.error(e.getMessage());
@@ -333,15 +285,14 @@ public class Ftp extends CordovaPlugin {
                 path = "/";
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
               // check if file or directory exists
-              FTPFile[] ftpFiles = ftp.listFiles(path);
-              if (ftpFiles.length > 0) {
+              if (connection.metadata.stat(path) != null) {
                 callback.success(1);
               } else {
                 callback.success(0);
@@ -373,13 +324,19 @@ public class Ftp extends CordovaPlugin {
           public void run() {
             try {
               String ftpId = args.optString(0);
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
-              ftp.sendNoOp();
-              callback.success();
+
+              FTPClient ftp = connection.acquire();
+              try {
+                ftp.sendNoOp();
+                callback.success();
+              } finally {
+                connection.release(ftp);
+              }
             } catch (Exception e) {
               callback.error(e.getMessage());
             }
@@ -408,14 +365,20 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              ftp.deleteFile(path);
-              callback.success();
+              FTPClient ftp = connection.acquire();
+              try {
+                ftp.deleteFile(path);
+                callback.success();
+              } finally {
+                connection.metadata.invalidate(path);
+                connection.release(ftp);
+              }
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (IOException e) {
@@ -448,17 +411,23 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              Log.d("FTP", "Deleting directory " + path);
-              // delete all files in the directory
-              emptyDirectory(path, ftp);
+              FTPClient ftp = connection.acquire();
+              try {
+                Log.d("FTP", "Deleting directory " + path);
+                // delete all files in the directory
+                emptyDirectory(path, ftp);
 
-              callback.success();
+                callback.success();
+              } finally {
+                connection.metadata.invalidate(path);
+                connection.release(ftp);
+              }
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (IOException e) {
@@ -497,55 +466,61 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              // get list of files in the parent directory
-              String parentPath = getParentPath(oldPath);
-              FTPFile[] ftpFiles = ftp.listFiles(parentPath);
+              FTPClient ftp = connection.acquire();
+              try {
+                // get list of files in the parent directory
+                String parentPath = getParentPath(oldPath);
+                FTPFile[] ftpFiles = ftp.listFiles(parentPath);
 
-              Log.d("FTP", "Renaming " + oldPath + " to " + newPath);
-              ftp.rename(oldPath, newPath);
+                Log.d("FTP", "Renaming " + oldPath + " to " + newPath);
+                ftp.rename(oldPath, newPath);
 
-              // check if file is renamed successfully
-              FTPFile[] newFile = ftp.listFiles(newPath);
-              if (newFile.length > 0) {
-                callback.success(newPath);
-              } else {
-                // get latest list of files in the parent directory
-                FTPFile[] latestFtpFiles = ftp.listFiles(parentPath);
-                // some time src file is renamed and not moved to destination
-                // check if for changed file and rename it original name
-                FTPFile changedFile = null;
-                for (FTPFile file : latestFtpFiles) {
-                  boolean found = false;
-                  for (FTPFile oldFile : ftpFiles) {
-                    if (oldFile.getName().equals(file.getName())) {
-                      found = true;
+                // check if file is renamed successfully
+                FTPFile[] newFile = ftp.listFiles(newPath);
+                if (newFile.length > 0) {
+                  callback.success(newPath);
+                } else {
+                  // get latest list of files in the parent directory
+                  FTPFile[] latestFtpFiles = ftp.listFiles(parentPath);
+                  // some time src file is renamed and not moved to destination
+                  // check if for changed file and rename it original name
+                  FTPFile changedFile = null;
+                  for (FTPFile file : latestFtpFiles) {
+                    boolean found = false;
+                    for (FTPFile oldFile : ftpFiles) {
+                      if (oldFile.getName().equals(file.getName())) {
+                        found = true;
+                        break;
+                      }
+                    }
+                    if (!found) {
+                      changedFile = file;
                       break;
                     }
                   }
-                  if (!found) {
-                    changedFile = file;
-                    break;
+
+                  if (changedFile != null) {
+                    String changedFilePath = joinPath(
+                      parentPath,
+                      changedFile.getName()
+                    );
+                    ftp.rename(changedFilePath, oldPath);
                   }
+                  callback.error("Failed to rename file");
                 }
 
-                if (changedFile != null) {
-                  String changedFilePath = joinPath(
-                    parentPath,
-                    changedFile.getName()
-                  );
-                  ftp.rename(changedFilePath, oldPath);
-                }
-                callback.error("Failed to rename file");
+                callback.success();
+              } finally {
+                connection.metadata.invalidate(oldPath);
+                connection.metadata.invalidate(newPath);
+                connection.release(ftp);
               }
-
-              callback.success();
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (IOException e) {
@@ -584,59 +559,22 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              URI uri = new URI(localFilePath);
-              File localFile = new File(uri);
-              FTPClient ftp = ftpProfiles.get(ftpId);
-
-              if (ftp == null) {
-                callback.error("FTP client not found.");
-                return;
-              }
-
-              ftp.setFileType(FTP.BINARY_FILE_TYPE);
-
-              // Delete existing cache file to prevent stale content
-              if (localFile.exists()) {
-                localFile.delete();
-              }
-
-              try (
-                InputStream inputStream = ftp.retrieveFileStream(path)
-              ) {
-                if (inputStream == null) {
-                  Log.d(
-                    "FTP",
-                    "FTPClient (" + ftpId + ") path: " + path + " - not found"
-                  );
-                  callback.error("File not found.");
-                  return;
-                }
-
-                try (
-                  FileOutputStream outputStream = new FileOutputStream(localFile)
-                ) {
-                  byte[] buffer = new byte[1024];
-                  int bytesRead = -1;
-                  while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                  }
-                }
-              }
-
-              if (!ftp.completePendingCommand()) {
-                ftp.logout();
-                ftp.disconnect();
-                callback.error("File transfer failed.");
-                return;
-              }
-
-              callback.success();
-            } catch (FTPConnectionClosedException e) {
-              callback.error(e.getMessage());
+              Uri localUri = localUri(localFilePath);
+              String transferId = nullableString(args, 3);
+              runTransfer(
+                ftpId,
+                new FtpTransfer(
+                  transferId,
+                  false,
+                  path,
+                  localUri,
+                  context.getContentResolver(),
+                  transferId == null ? null : callback
+                ),
+                callback
+              );
             } catch (URISyntaxException e) {
               callback.error(e.getMessage());
-            } catch (IOException e) {
-              callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
             }
@@ -672,57 +610,156 @@ public class Ftp extends CordovaPlugin {
               }
 
               Log.d("FTPUpload", "uploadFile: " + localFilePath);
-              URI uri = new URI(localFilePath);
-              File localFile = new File(uri);
-              FTPClient ftp = ftpProfiles.get(ftpId);
+              Uri localUri = localUri(localFilePath);
+              Log.d("FTPUpload", "Destination " + remoteFilePath);
+              String transferId = nullableString(args, 3);
+              runTransfer(
+                ftpId,
+                new FtpTransfer(
+                  transferId,
+                  true,
+                  remoteFilePath,
+                  localUri,
+                  context.getContentResolver(),
+                  transferId == null ? null : callback
+                ),
+                callback
+              );
+            } catch (URISyntaxException e) {
+              callback.error(e.getMessage());
+            } catch (Exception e) {
+              callback.error(e.getMessage());
+            }
+          }
+        }
+      );
+  }
 
-              if (ftp == null) {
-                callback.error("FTP client not found.");
-                return;
-              }
+  public void cancelTransfer(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            // abort() waits for the server's reply, so keep it off the
+            // plugin thread.
+            FtpTransfer transfer = transfers.get(args.optString(0));
+            if (transfer != null) transfer.cancel();
+            FtpDirectoryTransfer directory = directoryTransfers.get(
+              args.optString(0)
+            );
+            if (directory != null) directory.cancel();
+            callback.success();
+          }
+        }
+      );
+  }
 
-              ftp.setFileType(FTP.BINARY_FILE_TYPE);
+  public void downloadDirectory(JSONArray args, CallbackContext callback) {
+    startDirectoryTransfer(args, callback, false);
+  }
 
-              Log.d("FTPUpload", "Destination " + remoteFilePath);
+  public void uploadDirectory(JSONArray args, CallbackContext callback) {
+    startDirectoryTransfer(args, callback, true);
+  }
 
-              try (
-                InputStream inputStream = new FileInputStream(localFile);
-                OutputStream outputStream = ftp.storeFileStream(remoteFilePath)
-              ) {
-                if (outputStream == null) {
-                  callback.error("File not found.");
-                  return;
-                }
+  private void startDirectoryTransfer(
+    JSONArray args,
+    CallbackContext callback,
+    boolean upload
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            String ftpId = args.optString(0);
+            String remoteDir = args.optString(1);
+            String localDir = args.optString(2);
+            String suppliedId = nullableString(args, 3);
+            String transferId = suppliedId == null
+              ? UUID.randomUUID().toString()
+              : suppliedId;
+            JSONObject options = args.optJSONObject(4);
+            if (options == null) options = new JSONObject();
+
+            FtpConnection connection = connections.get(ftpId);
+            if (connection == null) {
+              callback.error("FTP client not found.");
+              return;
+            }
+            if (remoteDir.isEmpty()) {
+              callback.error("Remote directory is required.");
+              return;
+            }
 
-                byte[] buffer = new byte[1024];
-                int bytesRead = -1;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                  outputStream.write(buffer, 0, bytesRead);
-                }
-              }
+            File localRoot;
+            try {
+              localRoot = new File(new URI(localDir));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+              callback.error("Invalid local URI: " + errMessage(e));
+              return;
+            }
 
-              if (!ftp.completePendingCommand()) {
-                ftp.logout();
-                ftp.disconnect();
-                callback.error("File transfer failed.");
-                return;
-              }
+            FtpDirectoryTransfer transfer = new FtpDirectoryTransfer(
+              transferId,
+              upload,
+              remoteDir,
+              localRoot,
+              options,
+              context.getContentResolver(),
+              callback
+            );
+            if (directoryTransfers.putIfAbsent(transferId, transfer) != null) {
+              callback.error("An FTP transfer with this ID is already running.");
+              return;
+            }
 
-              callback.success();
-            } catch (FTPConnectionClosedException e) {
-              callback.error(e.getMessage());
-            } catch (URISyntaxException e) {
-              callback.error(e.getMessage());
-            } catch (IOException e) {
-              callback.error(e.getMessage());
+            try {
+              transfer.run(connection);
             } catch (Exception e) {
-              callback.error(e.getMessage());
+              Log.e("FTP", "FTPClient (" + ftpId + ") directory transfer", e);
+              callback.error(errMessage(e));
+            } finally {
+              directoryTransfers.remove(transferId, transfer);
             }
           }
         }
       );
   }
 
+  private void runTransfer(
+    String ftpId,
+    FtpTransfer transfer,
+    CallbackContext callback
+  ) throws JSONException {
+    FtpConnection connection = connections.get(ftpId);
+    if (connection == null) {
+      callback.error("FTP client not found.");
+      return;
+    }
+
+    String transferId = transfer.id;
+    if (transferId != null && transfers.putIfAbsent(transferId, transfer) != null) {
+      callback.error("An FTP transfer with this ID is already running.");
+      return;
+    }
+    try {
+      transfer.run(connection);
+      if (transferId == null) {
+        callback.success();
+      } else {
+        transfer.sendDone();
+      }
+    } catch (IOException e) {
+      Log.e("FTP", "FTPClient (" + ftpId + ") transfer", e);
+      callback.error(errMessage(e));
+    } finally {
+      if (transfer.upload) connection.metadata.invalidate(transfer.remotePath);
+      if (transferId != null) transfers.remove(transferId, transfer);
+    }
+  }
+
   public void getKeepAlive(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
@@ -737,13 +774,12 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              if (!connections.containsKey(ftpId)) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              callback.success((int) ftp.getControlKeepAliveTimeout());
+              callback.success(FtpConnection.KEEP_ALIVE_TIMEOUT_S);
             } catch (Exception e) {
               callback.error(e.getMessage());
             }
@@ -772,15 +808,22 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              ftp.sendCommand(command);
-              String reply = ftp.getReplyString();
-              callback.success(reply);
+              FTPClient ftp = connection.acquire();
+              try {
+                ftp.sendCommand(command);
+                String reply = ftp.getReplyString();
+                callback.success(reply);
+              } finally {
+                // Arbitrary commands may change anything.
+                connection.metadata.clear();
+                connection.release(ftp);
+              }
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
@@ -805,13 +848,13 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              boolean connected = ftp.isConnected();
+              boolean connected = connection.isConnected();
               callback.success(connected ? 1 : 0);
             } catch (Exception e) {
               Log.e("FTP", "FTPClient", e);
@@ -830,14 +873,11 @@ public class Ftp extends CordovaPlugin {
           public void run() {
             try {
               String ftpId = args.optString(0);
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp != null) {
-                ftp.disconnect();
-                ftpProfiles.remove(ftpId);
+              FtpConnection connection = connections.remove(ftpId);
+              if (connection != null) {
+                connection.close();
               }
               callback.success();
-            } catch (IOException e) {
-              callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
             }
@@ -866,14 +906,20 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              ftp.makeDirectory(path);
-              callback.success();
+              FTPClient ftp = connection.acquire();
+              try {
+                ftp.makeDirectory(path);
+                callback.success();
+              } finally {
+                connection.metadata.invalidate(path);
+                connection.release(ftp);
+              }
             } catch (IOException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
@@ -904,14 +950,23 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              ftp.changeWorkingDirectory(path);
-              callback.success();
+              FTPClient ftp = connection.acquire();
+              try {
+                if (ftp.changeWorkingDirectory(path)) {
+                  connection.workingDirectoryChanged(ftp);
+                  // Cached relative paths now point elsewhere.
+                  connection.metadata.clear();
+                }
+                callback.success();
+              } finally {
+                connection.release(ftp);
+              }
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
@@ -939,14 +994,23 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              ftp.changeToParentDirectory();
-              callback.success();
+              FTPClient ftp = connection.acquire();
+              try {
+                if (ftp.changeToParentDirectory()) {
+                  connection.workingDirectoryChanged(ftp);
+                  // Cached relative paths now point elsewhere.
+                  connection.metadata.clear();
+                }
+                callback.success();
+              } finally {
+                connection.release(ftp);
+              }
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
@@ -971,13 +1035,15 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              String workingDirectory = ftp.printWorkingDirectory();
+              String workingDirectory = connection.replay(
+                ftp -> ftp.printWorkingDirectory()
+              );
               callback.success(workingDirectory);
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
@@ -1009,44 +1075,18 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnection connection = connections.get(ftpId);
+              if (connection == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              FTPFile[] files = ftp.listFiles(path);
-              if (files == null || files.length == 0) {
+              JSONObject stat = connection.metadata.stat(path);
+              if (stat == null) {
                 callback.error("File not found.");
                 return;
               }
 
-              FTPFile file = files[0];
-              JSONObject stat = new JSONObject();
-              stat.put("isFile", file.isFile());
-              stat.put("isValid", file.isValid());
-              stat.put("isUnknown", file.isUnknown());
-              stat.put("isDirectory", file.isDirectory());
-              stat.put("isLink", file.isSymbolicLink());
-              stat.put("linkCount", file.getHardLinkCount());
-              stat.put("length", file.getSize());
-              stat.put("name", getBaseName(file.getName()));
-              stat.put("lastModified", file.getTimestamp().getTimeInMillis());
-              stat.put("link", file.getLink());
-              stat.put("group", file.getGroup());
-              stat.put("user", file.getUser());
-              stat.put(
-                "canWrite",
-                file.hasPermission(
-                  FTPFile.USER_ACCESS,
-                  FTPFile.WRITE_PERMISSION
-                )
-              );
-              stat.put(
-                "canRead",
-                file.hasPermission(FTPFile.USER_ACCESS, FTPFile.READ_PERMISSION)
-              );
-
               callback.success(stat);
             } catch (ParserInitializationException e) {
               callback.error(e.getMessage());
@@ -1062,6 +1102,29 @@ public class Ftp extends CordovaPlugin {
       );
   }
 
+  /** file:// and content:// uris both open through the ContentResolver. */
+  private static Uri localUri(String path) throws URISyntaxException {
+    Uri uri = Uri.parse(path);
+    String scheme = uri.getScheme();
+    if (!"file".equals(scheme) && !"content".equals(scheme)) {
+      throw new URISyntaxException(path, "Expected a file:// or content:// uri");
+    }
+    return uri;
+  }
+
+  private static String nullableString(JSONArray args, int index) {
+    if (args.length() <= index || args.isNull(index)) return null;
+    String value = args.optString(index, null);
+    if (value == null) return null;
+    value = value.trim();
+    if (
+      value.isEmpty() ||
+      "null".equalsIgnoreCase(value) ||
+      "undefined".equalsIgnoreCase(value)
+    ) return null;
+    return value;
+  }
+
   private String getFtpId(String host, int port, String username) {
     return username + "@" + host + ":" + port;
   }
@@ -0,0 +1,316 @@
+package com.foxdebug.ftp;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPReply;
+import org.json.JSONException;
+
+/**
+ * The logged-in control connections of one FTP profile. FTPClient is not
+ * thread-safe, so every operation borrows a client for itself and hands it
+ * back when done; concurrent calls on one profile get their own connection up
+ * to MAX_CLIENTS and wait beyond that. A client that sat idle is checked with
+ * NOOP before it is lent out again.
+ */
+final class FtpConnection {
+
+  interface ClientCall<T> {
+    T call(FTPClient ftp) throws IOException, JSONException;
+  }
+
+  private static final String TAG = "FTP";
+  private static final int MAX_CLIENTS = 3;
+  private static final long ACQUIRE_TIMEOUT_MS = 30000L;
+  private static final long NOOP_AFTER_IDLE_MS = 15000L;
+  static final int KEEP_ALIVE_TIMEOUT_S = 300;
+
+  final String id;
+  final FtpMetadata metadata;
+  private final String host;
+  private final int port;
+  private final String username;
+  private final String password;
+  private final boolean activeMode;
+  private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+  // Each client has its own working directory; they follow the last change.
+  private final Map<FTPClient, String> directories = new IdentityHashMap<>();
+  private String workingDirectory;
+  private int open;
+  private boolean closed;
+  private final AtomicBoolean sweeping = new AtomicBoolean(false);
+
+  FtpConnection(
+    String id,
+    String host,
+    int port,
+    String username,
+    String password,
+    boolean activeMode
+  ) {
+    this.id = id;
+    this.host = host;
+    this.port = port;
+    this.username = username;
+    this.password = password;
+    this.activeMode = activeMode;
+    this.metadata = new FtpMetadata(this);
+  }
+
+  /** Logs in the first client, so bad credentials fail the connect call. */
+  void open() throws IOException {
+    release(acquire());
+  }
+
+  /** Borrows a client for the caller's exclusive use until release. */
+  FTPClient acquire() throws IOException {
+    long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT_MS;
+    while (true) {
+      Idle candidate = null;
+      synchronized (this) {
+        while (true) {
+          if (closed) throw new IOException("FTP connection is closed.");
+          if (!idle.isEmpty()) {
+            candidate = idle.pop();
+            break;
+          }
+          if (open < MAX_CLIENTS) {
+            open++;
+            break;
+          }
+          long wait = deadline - System.currentTimeMillis();
+          if (wait <= 0) {
+            throw new IOException("Timed out waiting for an FTP connection.");
+          }
+          try {
+            wait(wait);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+
+      FTPClient ftp = candidate == null ? null : candidate.client;
+      try {
+        if (ftp == null) {
+          ftp = login();
+        } else if (
+          System.currentTimeMillis() - candidate.since >= NOOP_AFTER_IDLE_MS &&
+          !ftp.sendNoOp()
+        ) {
+          throw new IOException("NOOP failed");
+        }
+        followWorkingDirectory(ftp);
+        return ftp;
+      } catch (IOException e) {
+        discard(ftp);
+        // A fresh login that fails is the caller's error; a stale idle
+        // client is just replaced.
+        if (candidate == null) throw e;
+        Log.d(TAG, "FTPClient (" + id + ") dropped an idle connection", e);
+      }
+    }
+  }
+
+  /**
+   * Runs an idempotent call on a borrowed client. When the control connection
+   * turns out to have been dropped, the call is replayed once on a fresh
+   * login instead of failing.
+   */
+  <T> T replay(ClientCall<T> call) throws IOException, JSONException {
+    for (int attempt = 0;; attempt++) {
+      FTPClient ftp = acquire();
+      try {
+        return call.call(ftp);
+      } catch (IOException e) {
+        if (attempt > 0 || !dropped(ftp, e)) throw e;
+        Log.d(TAG, "FTPClient (" + id + ") dropped, replaying", e);
+        disconnectQuietly(ftp);
+      } finally {
+        release(ftp);
+      }
+    }
+  }
+
+  /**
+   * Sends NOOP on every client idle for at least idleMs so the server's idle
+   * timer never fires, drops the ones that don't answer, and logs back in
+   * when none are left so the next call doesn't wait for it.
+   */
+  void keepalive(long idleMs) {
+    if (!sweeping.compareAndSet(false, true)) return;
+    try {
+      List<FTPClient> due = new ArrayList<>();
+      synchronized (this) {
+        if (closed) return;
+        long now = System.currentTimeMillis();
+        Iterator<Idle> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+          Idle client = iterator.next();
+          if (now - client.since < idleMs) continue;
+          iterator.remove();
+          due.add(client.client);
+        }
+      }
+
+      for (FTPClient ftp : due) {
+        boolean alive;
+        try {
+          alive = ftp.sendNoOp();
+        } catch (IOException e) {
+          alive = false;
+        }
+        if (alive) {
+          release(ftp);
+        } else {
+          Log.d(TAG, "FTPClient (" + id + ") keepalive failed");
+          discard(ftp);
+        }
+      }
+
+      boolean reconnect;
+      synchronized (this) {
+        reconnect = !closed && open == 0;
+      }
+      if (reconnect) {
+        try {
+          open();
+          Log.d(TAG, "FTPClient (" + id + ") reconnected");
+        } catch (IOException e) {
+          Log.d(TAG, "FTPClient (" + id + ") reconnect failed", e);
+        }
+      }
+    } finally {
+      sweeping.set(false);
+    }
+  }
+
+  void release(FTPClient ftp) {
+    synchronized (this) {
+      if (!closed && ftp.isConnected()) {
+        idle.push(new Idle(ftp));
+        notifyAll();
+        return;
+      }
+    }
+    discard(ftp);
+  }
+
+  /**
+   * Records the borrowed client's directory after a cd, so clients lent out
+   * later start there too.
+   */
+  void workingDirectoryChanged(FTPClient ftp) throws IOException {
+    String dir = ftp.printWorkingDirectory();
+    if (dir == null) return;
+    synchronized (this) {
+      workingDirectory = dir;
+      directories.put(ftp, dir);
+    }
+  }
+
+  /**
+   * Number of clients bulk transfers should hold at the same time, leaving one
+   * free so browsing does not wait on them.
+   */
+  int bulkCapacity() {
+    return Math.max(1, MAX_CLIENTS - 1);
+  }
+
+  synchronized boolean isConnected() {
+    return !closed && open > 0;
+  }
+
+  void close() {
+    ArrayDeque<Idle> clients;
+    synchronized (this) {
+      closed = true;
+      clients = new ArrayDeque<>(idle);
+      idle.clear();
+      notifyAll();
+    }
+    for (Idle client : clients) discard(client.client);
+  }
+
+  private FTPClient login() throws IOException {
+    FTPClient ftp = new FTPClient();
+    ftp.setControlEncoding("UTF-8");
+    ftp.setAutodetectUTF8(true);
+    try {
+      Log.d(TAG, "FTPClient (" + id + ") connecting...");
+      ftp.connect(host, port);
+      ftp.setControlKeepAliveTimeout(KEEP_ALIVE_TIMEOUT_S);
+      if (activeMode) {
+        ftp.enterLocalActiveMode();
+      } else {
+        ftp.enterLocalPassiveMode();
+      }
+
+      Log.d(TAG, "FTPClient (" + id + ") logging in...");
+      ftp.login(username, password);
+      if (!FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+        throw new IOException("FTP server refused connection.");
+      }
+      ftp.setListHiddenFiles(true);
+      return ftp;
+    } catch (IOException e) {
+      disconnectQuietly(ftp);
+      throw e;
+    }
+  }
+
+  private void followWorkingDirectory(FTPClient ftp) throws IOException {
+    String dir;
+    synchronized (this) {
+      dir = workingDirectory;
+      if (dir == null || dir.equals(directories.get(ftp))) return;
+    }
+    if (ftp.changeWorkingDirectory(dir)) {
+      synchronized (this) {
+        directories.put(ftp, dir);
+      }
+    }
+  }
+
+  private void discard(FTPClient ftp) {
+    synchronized (this) {
+      open--;
+      if (ftp != null) directories.remove(ftp);
+      notifyAll();
+    }
+    if (ftp != null) disconnectQuietly(ftp);
+  }
+
+  private static boolean dropped(FTPClient ftp, IOException e) {
+    return e instanceof FTPConnectionClosedException ||
+      e instanceof SocketException ||
+      !ftp.isConnected();
+  }
+
+  static void disconnectQuietly(FTPClient ftp) {
+    try {
+      if (ftp.isConnected()) ftp.disconnect();
+    } catch (IOException ignored) {}
+  }
+
+  private static final class Idle {
+
+    final FTPClient client;
+    final long since = System.currentTimeMillis();
+
+    Idle(FTPClient client) {
+      this.client = client;
+    }
+  }
+}
@@ -0,0 +1,384 @@
+package com.foxdebug.ftp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Recursive download or upload of a directory. The tree is planned first,
+ * creating remote folders as it goes; files whose size and MDTM time already
+ * match are skipped, and the rest are transferred concurrently over the
+ * profile's pooled clients with one aggregate progress stream. Symlinks are
+ * not followed.
+ */
+final class FtpDirectoryTransfer {
+
+  private static final long PROGRESS_INTERVAL_MS = 200L;
+  // Servers report whole seconds at best, LIST often only minutes.
+  private static final long MTIME_TOLERANCE_MS = 2000L;
+
+  private final String id;
+  private final boolean upload;
+  private final String remoteRoot;
+  private final File localRoot;
+  private final ContentResolver resolver;
+  private final CallbackContext callback;
+  private final int concurrency;
+  private final List<PathMatcher> include = new ArrayList<>();
+  private final List<PathMatcher> exclude = new ArrayList<>();
+  private final List<FileTask> tasks = new ArrayList<>();
+  private final Set<FtpTransfer> active = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean cancelled = new AtomicBoolean(false);
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicInteger files = new AtomicInteger();
+  private final AtomicLong lastProgressAt = new AtomicLong();
+  private long totalBytes;
+  private int skipped;
+
+  FtpDirectoryTransfer(
+    String id,
+    boolean upload,
+    String remoteRoot,
+    File localRoot,
+    JSONObject options,
+    ContentResolver resolver,
+    CallbackContext callback
+  ) {
+    this.id = id;
+    this.upload = upload;
+    this.remoteRoot = trimTrailingSlash(remoteRoot);
+    this.localRoot = localRoot;
+    this.resolver = resolver;
+    this.callback = callback;
+    this.concurrency = Math.max(1, options.optInt("concurrency", Integer.MAX_VALUE));
+    addMatchers(options.optJSONArray("include"), include);
+    addMatchers(options.optJSONArray("exclude"), exclude);
+  }
+
+  void cancel() {
+    cancelled.set(true);
+    for (FtpTransfer transfer : active) transfer.cancel();
+  }
+
+  void run(FtpConnection connection) throws IOException, JSONException {
+    try {
+      if (upload) {
+        planUpload(connection);
+      } else {
+        planDownload(connection);
+      }
+    } finally {
+      if (upload) connection.metadata.invalidate(remote(""));
+    }
+    sendProgress();
+
+    int workers = Math.max(
+      1,
+      Math.min(Math.min(concurrency, connection.bulkCapacity()), tasks.size())
+    );
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<Void>> pending = new ArrayList<>(tasks.size());
+    try {
+      for (FileTask task : tasks) {
+        pending.add(executor.submit(() -> {
+          transfer(task, connection);
+          return null;
+        }));
+      }
+      for (Future<Void> future : pending) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          cancel();
+          throw new FtpTransfer.CancelledException();
+        } catch (ExecutionException e) {
+          cancel();
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) throw (IOException) cause;
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          throw new IOException(cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      if (upload) connection.metadata.invalidate(remote(""));
+    }
+    if (cancelled.get()) throw new FtpTransfer.CancelledException();
+
+    JSONObject done = event("done");
+    done.put("files", files.get());
+    done.put("skipped", skipped);
+    done.put("bytes", bytes.get());
+    send(done, false);
+  }
+
+  private void planDownload(FtpConnection connection)
+    throws IOException, JSONException {
+    ArrayDeque<String> dirs = new ArrayDeque<>();
+    dirs.add("");
+    while (!dirs.isEmpty()) {
+      if (cancelled.get()) throw new FtpTransfer.CancelledException();
+      String dir = dirs.poll();
+      File localDir = local(dir);
+      if (!localDir.isDirectory() && !localDir.mkdirs()) {
+        throw new IOException("Unable to create " + localDir);
+      }
+
+      JSONArray listing = connection.metadata.list(remote(dir));
+      for (int i = 0; i < listing.length(); i++) {
+        JSONObject entry = listing.getJSONObject(i);
+        if (entry.optBoolean("isLink")) continue;
+        String name = entry.getString("name");
+        String path = join(dir, name);
+        if (matches(exclude, path, name)) continue;
+
+        if (entry.optBoolean("isDirectory")) {
+          dirs.add(path);
+        } else if (entry.optBoolean("isFile") && included(path, name)) {
+          long size = entry.optLong("length");
+          File target = local(path);
+          long modified = entry.optLong("lastModified");
+          if (target.isFile() && target.length() == size) {
+            modified = modificationTime(connection, remote(path), modified);
+            if (Math.abs(target.lastModified() - modified) < MTIME_TOLERANCE_MS) {
+              skipped++;
+              continue;
+            }
+          }
+          tasks.add(new FileTask(remote(path), target, modified));
+          totalBytes += size;
+        }
+      }
+    }
+  }
+
+  private void planUpload(FtpConnection connection)
+    throws IOException, JSONException {
+    if (!localRoot.isDirectory()) {
+      throw new IOException("Local directory does not exist: " + localRoot);
+    }
+    if (connection.metadata.stat(remote("")) == null) {
+      makeDirectory(connection, remote(""));
+    }
+
+    ArrayDeque<String> dirs = new ArrayDeque<>();
+    dirs.add("");
+    while (!dirs.isEmpty()) {
+      if (cancelled.get()) throw new FtpTransfer.CancelledException();
+      String dir = dirs.poll();
+      Map<String, JSONObject> existing = new HashMap<>();
+      JSONArray listing = connection.metadata.list(remote(dir));
+      for (int i = 0; i < listing.length(); i++) {
+        JSONObject entry = listing.getJSONObject(i);
+        existing.put(entry.getString("name"), entry);
+      }
+      File[] children = local(dir).listFiles();
+      if (children == null) continue;
+
+      for (File child : children) {
+        String name = child.getName();
+        String path = join(dir, name);
+        if (matches(exclude, path, name)) continue;
+        JSONObject entry = existing.get(name);
+
+        if (child.isDirectory()) {
+          // Created up front so the workers only ever transfer files.
+          if (entry == null || !entry.optBoolean("isDirectory")) {
+            makeDirectory(connection, remote(path));
+          }
+          dirs.add(path);
+        } else if (child.isFile() && included(path, name)) {
+          if (
+            entry != null &&
+            entry.optBoolean("isFile") &&
+            entry.optLong("length") == child.length() &&
+            modificationTime(connection, remote(path), entry.optLong("lastModified")) >=
+            child.lastModified() - MTIME_TOLERANCE_MS
+          ) {
+            skipped++;
+            continue;
+          }
+          tasks.add(new FileTask(remote(path), child, child.lastModified()));
+          totalBytes += child.length();
+        }
+      }
+    }
+  }
+
+  /** The server's MDTM time, or the listed one when MDTM is not available. */
+  private static long modificationTime(
+    FtpConnection connection,
+    String path,
+    long listed
+  ) throws IOException {
+    FTPClient ftp = connection.acquire();
+    try {
+      Calendar modified = ftp.mdtmCalendar(path);
+      return modified == null ? listed : modified.getTimeInMillis();
+    } finally {
+      connection.release(ftp);
+    }
+  }
+
+  private static void makeDirectory(FtpConnection connection, String path)
+    throws IOException {
+    FTPClient ftp = connection.acquire();
+    try {
+      if (!ftp.makeDirectory(path)) {
+        throw new IOException("Unable to create " + path + ": " + ftp.getReplyString());
+      }
+    } finally {
+      connection.metadata.invalidate(path);
+      connection.release(ftp);
+    }
+  }
+
+  private void transfer(FileTask task, FtpConnection connection) throws Exception {
+    if (cancelled.get()) throw new FtpTransfer.CancelledException();
+
+    FtpTransfer transfer = new FtpTransfer(
+      id,
+      upload,
+      task.remotePath,
+      Uri.fromFile(task.local),
+      resolver,
+      null,
+      this::progressed
+    );
+    active.add(transfer);
+    try {
+      if (cancelled.get()) transfer.cancel();
+      transfer.run(connection);
+    } finally {
+      active.remove(transfer);
+    }
+
+    // Stamping the remote time is what lets the next run skip this file.
+    if (!upload) task.local.setLastModified(task.modified);
+    files.incrementAndGet();
+    maybeSendProgress();
+  }
+
+  private void progressed(long count) {
+    bytes.addAndGet(count);
+    try {
+      maybeSendProgress();
+    } catch (JSONException ignored) {}
+  }
+
+  private void maybeSendProgress() throws JSONException {
+    long now = System.currentTimeMillis();
+    long last = lastProgressAt.get();
+    if (now - last < PROGRESS_INTERVAL_MS) return;
+    if (!lastProgressAt.compareAndSet(last, now)) return;
+    sendProgress();
+  }
+
+  private void sendProgress() throws JSONException {
+    long done = Math.min(bytes.get(), totalBytes);
+    JSONObject event = event("progress");
+    event.put("data", totalBytes == 0 ? 100 : (int) ((done * 100) / totalBytes));
+    event.put("bytes", done);
+    event.put("totalBytes", totalBytes);
+    event.put("files", files.get());
+    event.put("totalFiles", tasks.size());
+    event.put("skipped", skipped);
+    send(event, true);
+  }
+
+  private JSONObject event(String type) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("id", id);
+    event.put("type", type);
+    event.put("action", type);
+    return event;
+  }
+
+  private void send(JSONObject event, boolean keep) {
+    PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+    result.setKeepCallback(keep);
+    callback.sendPluginResult(result);
+  }
+
+  private boolean included(String path, String name) {
+    return include.isEmpty() || matches(include, path, name);
+  }
+
+  private static boolean matches(List<PathMatcher> matchers, String path, String name) {
+    for (PathMatcher matcher : matchers) {
+      if (matcher.matches(Paths.get(path)) || matcher.matches(Paths.get(name))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void addMatchers(JSONArray patterns, List<PathMatcher> into) {
+    if (patterns == null) return;
+    for (int i = 0; i < patterns.length(); i++) {
+      String pattern = patterns.optString(i, "");
+      if (pattern.length() > 0) {
+        into.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+      }
+    }
+  }
+
+  private File local(String path) {
+    return path.length() == 0 ? localRoot : new File(localRoot, path);
+  }
+
+  private String remote(String path) {
+    if (path.length() == 0) return remoteRoot.isEmpty() ? "/" : remoteRoot;
+    return remoteRoot + "/" + path;
+  }
+
+  private static String join(String parent, String name) {
+    return parent.length() == 0 ? name : parent + "/" + name;
+  }
+
+  private static String trimTrailingSlash(String path) {
+    while (path.length() > 1 && path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return path.equals("/") ? "" : path;
+  }
+
+  private static final class FileTask {
+
+    final String remotePath;
+    final File local;
+    final long modified;
+
+    FileTask(String remotePath, File local, long modified) {
+      this.remotePath = remotePath;
+      this.local = local;
+      this.modified = modified;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.foxdebug.ftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remote metadata for one FTP profile. Listings use MLSD and single entries
+ * MLST when the server advertises them, so names, sizes and times come back in
+ * a defined format instead of parsed LIST output. Listings and their entries
+ * are cached for a short time so that expanding a folder and then stat-ing
+ * its children costs one round trip; our own mutations invalidate the
+ * affected paths.
+ */
+final class FtpMetadata {
+
+  private static final long TTL_MS = 5000L;
+  private static final int MAX_ENTRIES = 4096;
+  private static final int MAX_LISTINGS = 256;
+
+  private final FtpConnection connection;
+  private volatile Boolean machineListing;
+  private final LinkedHashMap<String, Cached<JSONObject>> entries =
+    new LinkedHashMap<String, Cached<JSONObject>>(64, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, Cached<JSONObject>> eldest
+      ) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+  private final LinkedHashMap<String, Cached<List<JSONObject>>> listings =
+    new LinkedHashMap<String, Cached<List<JSONObject>>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, Cached<List<JSONObject>>> eldest
+      ) {
+        return size() > MAX_LISTINGS;
+      }
+    };
+
+  FtpMetadata(FtpConnection connection) {
+    this.connection = connection;
+  }
+
+  JSONArray list(String path) throws IOException, JSONException {
+    String key = normalize(path);
+    List<JSONObject> cached = fresh(listings, key);
+    if (cached != null) return copy(cached);
+
+    List<JSONObject> result = connection.replay(ftp -> {
+      List<JSONObject> found = new ArrayList<>();
+      boolean mlsd = machineListing(ftp);
+      FTPFile[] files = mlsd ? ftp.mlistDir(path) : ftp.listFiles(path);
+      for (FTPFile file : files) {
+        if (file == null || isSelfOrParent(file)) continue;
+        String name = getBaseName(file.getName());
+        JSONObject fileInfo = describe(file, joinPath(path, name));
+        if (file.isSymbolicLink()) resolveLink(ftp, mlsd, path, fileInfo);
+        found.add(fileInfo);
+      }
+      return found;
+    });
+
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (JSONObject fileInfo : result) {
+        // Keyed by where the entry was listed; a link's url is its target.
+        String url = joinPath(key, fileInfo.getString("name"));
+        entries.put(url, new Cached<>(fileInfo, now));
+      }
+      listings.put(key, new Cached<>(result, now));
+    }
+    return copy(result);
+  }
+
+  /** Returns null when nothing exists at the path. */
+  JSONObject stat(String path) throws IOException, JSONException {
+    String key = normalize(path);
+    JSONObject cached = fresh(entries, key);
+    if (cached != null) return new JSONObject(cached.toString());
+
+    JSONObject fileInfo = connection.replay(ftp -> {
+      if (!machineListing(ftp)) return null;
+      FTPFile file = ftp.mlistFile(path);
+      if (file == null) return null;
+      JSONObject info = describe(file, path);
+      info.put("name", getBaseName(path));
+      if (file.isSymbolicLink()) {
+        resolveLink(ftp, true, getParentPath(path), info);
+      }
+      return info;
+    });
+
+    if (fileInfo == null && !machineListing) {
+      // Without MLST, the parent's listing is the only reliable source for a
+      // single entry; it is cached for the siblings that follow.
+      String name = getBaseName(key);
+      if (name.isEmpty()) {
+        fileInfo = root();
+      } else {
+        JSONArray siblings = list(getParentPath(key));
+        for (int i = 0; i < siblings.length(); i++) {
+          JSONObject sibling = siblings.getJSONObject(i);
+          if (name.equals(sibling.optString("name"))) {
+            fileInfo = sibling;
+            break;
+          }
+        }
+      }
+    }
+    if (fileInfo == null) return null;
+
+    synchronized (this) {
+      entries.put(key, new Cached<>(fileInfo, System.currentTimeMillis()));
+    }
+    return new JSONObject(fileInfo.toString());
+  }
+
+  /**
+   * Forgets the path, everything below it and the listing of its parent.
+   */
+  synchronized void invalidate(String path) {
+    if (path == null || path.isEmpty()) return;
+    String key = normalize(path);
+    String prefix = key.equals("/") ? "/" : key + "/";
+    removeTree(entries, key, prefix);
+    removeTree(listings, key, prefix);
+
+    int slash = key.lastIndexOf('/');
+    if (slash >= 0) listings.remove(slash == 0 ? "/" : key.substring(0, slash));
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    listings.clear();
+  }
+
+  private boolean machineListing(FTPClient ftp) throws IOException {
+    Boolean supported = machineListing;
+    if (supported == null) {
+      // MLST in FEAT covers MLSD as well (RFC 3659).
+      supported = ftp.hasFeature("MLST");
+      machineListing = supported;
+    }
+    return supported;
+  }
+
+  private void resolveLink(
+    FTPClient ftp,
+    boolean mlsd,
+    String parent,
+    JSONObject fileInfo
+  ) throws JSONException {
+    String linkTarget = fileInfo.optString("link", "");
+    if (linkTarget.isEmpty()) {
+      fileInfo.put("isFile", false);
+      fileInfo.put("isDirectory", false);
+      return;
+    }
+    String linkPath = linkTarget.startsWith("/")
+      ? linkTarget
+      : joinPath(parent, linkTarget);
+
+    JSONObject target = fresh(entries, normalize(linkPath));
+    if (target != null && !target.optBoolean("isLink")) {
+      fileInfo.put("isFile", target.optBoolean("isFile"));
+      fileInfo.put("isDirectory", target.optBoolean("isDirectory"));
+      fileInfo.put("url", linkPath);
+      return;
+    }
+
+    try {
+      FTPFile targetFile = null;
+      if (mlsd) {
+        targetFile = ftp.mlistFile(linkPath);
+      } else {
+        FTPFile[] targetFiles = ftp.listFiles(linkPath);
+        if (targetFiles.length > 0) targetFile = targetFiles[0];
+      }
+      if (targetFile != null) {
+        fileInfo.put("isFile", targetFile.isFile());
+        fileInfo.put("isDirectory", targetFile.isDirectory());
+        fileInfo.put("url", linkPath);
+      } else {
+        fileInfo.put("isFile", false);
+        fileInfo.put("isDirectory", false);
+      }
+    } catch (Exception e) {
+      // Handle broken symlink
+      fileInfo.put("isFile", false);
+      fileInfo.put("isDirectory", false);
+    }
+  }
+
+  private static JSONObject describe(FTPFile file, String url)
+    throws JSONException {
+    JSONObject fileInfo = new JSONObject();
+    Calendar timestamp = file.getTimestamp();
+    fileInfo.put("name", getBaseName(file.getName()));
+    fileInfo.put("length", file.getSize());
+    fileInfo.put("url", url);
+    fileInfo.put("isValid", file.isValid());
+    fileInfo.put("isUnknown", file.isUnknown());
+    fileInfo.put("isLink", file.isSymbolicLink());
+    fileInfo.put("link", file.isSymbolicLink() ? file.getLink() : null);
+    fileInfo.put("isDirectory", file.isDirectory());
+    fileInfo.put("isFile", file.isFile());
+    fileInfo.put("linkCount", file.getHardLinkCount());
+    fileInfo.put("lastModified", timestamp == null ? 0 : timestamp.getTimeInMillis());
+    fileInfo.put("group", file.getGroup());
+    fileInfo.put("user", file.getUser());
+    fileInfo.put(
+      "canWrite",
+      file.hasPermission(FTPFile.USER_ACCESS, FTPFile.WRITE_PERMISSION)
+    );
+    fileInfo.put(
+      "canRead",
+      file.hasPermission(FTPFile.USER_ACCESS, FTPFile.READ_PERMISSION)
+    );
+    return fileInfo;
+  }
+
+  private static JSONObject root() throws JSONException {
+    JSONObject fileInfo = new JSONObject();
+    fileInfo.put("name", "");
+    fileInfo.put("url", "/");
+    fileInfo.put("length", 0);
+    fileInfo.put("isValid", true);
+    fileInfo.put("isUnknown", false);
+    fileInfo.put("isLink", false);
+    fileInfo.put("link", null);
+    fileInfo.put("isDirectory", true);
+    fileInfo.put("isFile", false);
+    fileInfo.put("lastModified", 0);
+    fileInfo.put("canRead", true);
+    fileInfo.put("canWrite", true);
+    return fileInfo;
+  }
+
+  private static boolean isSelfOrParent(FTPFile file) {
+    String name = file.getName();
+    if (name == null || name.equals(".") || name.equals("..")) return true;
+    // MLSD lists the directory itself and its parent as cdir and pdir.
+    String raw = file.getRawListing();
+    if (raw == null) return false;
+    raw = raw.toLowerCase(Locale.ROOT);
+    return raw.startsWith("type=cdir;") ||
+      raw.startsWith("type=pdir;") ||
+      raw.contains(";type=cdir;") ||
+      raw.contains(";type=pdir;");
+  }
+
+  private synchronized <T> T fresh(Map<String, Cached<T>> cache, String key) {
+    Cached<T> cached = cache.get(key);
+    if (cached == null) return null;
+    if (System.currentTimeMillis() - cached.at > TTL_MS) {
+      cache.remove(key);
+      return null;
+    }
+    return cached.value;
+  }
+
+  private static JSONArray copy(List<JSONObject> entries) throws JSONException {
+    JSONArray result = new JSONArray();
+    for (JSONObject entry : entries) result.put(new JSONObject(entry.toString()));
+    return result;
+  }
+
+  private static <T> void removeTree(
+    Map<String, T> cache,
+    String key,
+    String prefix
+  ) {
+    Iterator<String> iterator = cache.keySet().iterator();
+    while (iterator.hasNext()) {
+      String path = iterator.next();
+      if (path.equals(key) || path.startsWith(prefix)) iterator.remove();
+    }
+  }
+
+  static String getBaseName(String path) {
+    int lastSepIndex = path.lastIndexOf('/');
+    if (lastSepIndex > 0 && lastSepIndex == path.length() - 1) {
+      return getBaseName(path.substring(0, lastSepIndex));
+    }
+
+    return path.substring(lastSepIndex + 1);
+  }
+
+  static String getParentPath(String path) {
+    int lastSepIndex = path.lastIndexOf('/');
+    if (lastSepIndex > 0 && lastSepIndex == path.length() - 1) {
+      lastSepIndex = path.substring(0, lastSepIndex).lastIndexOf('/');
+    }
+
+    return lastSepIndex <= 0 ? "/" : path.substring(0, lastSepIndex);
+  }
+
+  static String joinPath(String p1, String p2) {
+    if (!p1.endsWith("/")) {
+      p1 += "/";
+    }
+    return p1 + p2;
+  }
+
+  private static String normalize(String path) {
+    if (path.length() > 1 && path.endsWith("/")) {
+      return path.substring(0, path.length() - 1);
+    }
+    return path;
+  }
+
+  private static final class Cached<T> {
+
+    final T value;
+    final long at;
+
+    Cached(T value, long at) {
+      this.value = value;
+      this.at = at;
+    }
+  }
+}
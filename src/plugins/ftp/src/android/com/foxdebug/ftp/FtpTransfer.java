@@ -0,0 +1,290 @@
+package com.foxdebug.ftp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One binary file transfer between a remote path and a local uri, file:// or
+ * any content:// a ContentResolver can open, so a file lands directly in a
+ * SAF folder without a copy through the cache. Data goes
+ * through large socket and stream buffers, progress is reported while it
+ * moves, cancel aborts the transfer on the server, and a transfer cut off
+ * mid-way resumes with REST from the bytes that already made it across when
+ * the server supports it.
+ */
+final class FtpTransfer {
+
+  /** The server refused the transfer; retrying on a new connection won't help. */
+  static final class RefusedException extends IOException {
+
+    RefusedException(String message) {
+      super(message);
+    }
+  }
+
+  static final class CancelledException extends IOException {
+
+    CancelledException() {
+      super("Transfer cancelled.");
+    }
+  }
+
+  private static final String TAG = "FTP";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int SOCKET_BUFFER_SIZE = 256 * 1024;
+  private static final int MAX_RESUMES = 3;
+  private static final long PROGRESS_INTERVAL_MS = 200L;
+
+  final String id;
+  final boolean upload;
+  final String remotePath;
+  private final Uri localUri;
+  private final ContentResolver resolver;
+  private final CallbackContext events;
+  private final LongConsumer listener;
+  private final AtomicLong transferred = new AtomicLong();
+  private volatile boolean cancelled;
+  private volatile FTPClient active;
+  private long total = -1;
+  private long lastProgressAt;
+
+  /**
+   * @param events receives progress and done events, or null when the caller
+   * only wants the final result
+   */
+  FtpTransfer(
+    String id,
+    boolean upload,
+    String remotePath,
+    Uri localUri,
+    ContentResolver resolver,
+    CallbackContext events
+  ) {
+    this(id, upload, remotePath, localUri, resolver, events, null);
+  }
+
+  /**
+   * @param listener receives the size of every chunk moved, for callers that
+   * aggregate progress over several transfers
+   */
+  FtpTransfer(
+    String id,
+    boolean upload,
+    String remotePath,
+    Uri localUri,
+    ContentResolver resolver,
+    CallbackContext events,
+    LongConsumer listener
+  ) {
+    this.id = id;
+    this.upload = upload;
+    this.remotePath = remotePath;
+    this.localUri = localUri;
+    this.resolver = resolver;
+    this.events = events;
+    this.listener = listener;
+  }
+
+  /** Stops the copy loop and sends ABOR so the server stops sending too. */
+  void cancel() {
+    cancelled = true;
+    FTPClient ftp = active;
+    if (ftp == null) return;
+    try {
+      ftp.abort();
+    } catch (IOException e) {
+      Log.d(TAG, "Transfer " + id + " abort", e);
+    }
+  }
+
+  long run(FtpConnection connection) throws IOException {
+    long offset = 0;
+    for (int resumes = 0;; resumes++) {
+      FTPClient ftp = connection.acquire();
+      try {
+        if (cancelled) throw new CancelledException();
+        active = ftp;
+        ftp.setFileType(FTP.BINARY_FILE_TYPE);
+        ftp.setBufferSize(BUFFER_SIZE);
+        ftp.setSendDataSocketBufferSize(SOCKET_BUFFER_SIZE);
+        ftp.setReceieveDataSocketBufferSize(SOCKET_BUFFER_SIZE);
+        if (upload) {
+          upload(ftp, offset);
+        } else {
+          download(ftp, offset);
+        }
+        return transferred.get();
+      } catch (RefusedException e) {
+        if (!cancelled) throw e;
+        FtpConnection.disconnectQuietly(ftp);
+        throw new CancelledException();
+      } catch (IOException e) {
+        // The control connection is out of step after an abort or a broken
+        // data connection; don't hand it to anyone else.
+        FtpConnection.disconnectQuietly(ftp);
+        if (cancelled) throw new CancelledException();
+        if (resumes >= MAX_RESUMES) throw e;
+        Log.w(TAG, "Transfer " + id + " interrupted at " + transferred.get(), e);
+      } finally {
+        active = null;
+        ftp.setRestartOffset(0);
+        connection.release(ftp);
+      }
+
+      offset = upload ? uploadResumeOffset(connection) : transferred.get();
+    }
+  }
+
+  void sendDone() throws JSONException {
+    JSONObject event = event("done");
+    event.put("bytes", transferred.get());
+    event.put("totalBytes", Math.max(total, transferred.get()));
+    events.sendPluginResult(new PluginResult(PluginResult.Status.OK, event));
+  }
+
+  private void download(FTPClient ftp, long offset) throws IOException {
+    if (total < 0) total = remoteSize(ftp);
+
+    if (offset > 0 && !ftp.hasFeature("REST")) offset = 0;
+    ftp.setRestartOffset(offset);
+    InputStream input = ftp.retrieveFileStream(remotePath);
+    if (input == null && offset > 0) {
+      // REST was refused after all; start over.
+      offset = 0;
+      ftp.setRestartOffset(0);
+      input = ftp.retrieveFileStream(remotePath);
+    }
+    if (input == null) {
+      Log.d(TAG, "FTPClient path: " + remotePath + " - not found");
+      throw new RefusedException("File not found.");
+    }
+
+    try (
+      InputStream in = input;
+      ParcelFileDescriptor descriptor = open("rw");
+      FileOutputStream out = new FileOutputStream(descriptor.getFileDescriptor())
+    ) {
+      // "rw" does not truncate; drop whatever lies past the resume point.
+      out.getChannel().truncate(offset);
+      out.getChannel().position(offset);
+      transferred.set(offset);
+      copy(in, out);
+    }
+    if (!ftp.completePendingCommand()) {
+      throw new RefusedException("File transfer failed.");
+    }
+  }
+
+  private void upload(FTPClient ftp, long offset) throws IOException {
+    ftp.setRestartOffset(offset);
+    OutputStream output = ftp.storeFileStream(remotePath);
+    if (output == null && offset > 0) {
+      offset = 0;
+      ftp.setRestartOffset(0);
+      output = ftp.storeFileStream(remotePath);
+    }
+    if (output == null) throw new RefusedException("File not found.");
+
+    try (
+      OutputStream out = output;
+      ParcelFileDescriptor descriptor = open("r");
+      FileInputStream in = new FileInputStream(descriptor.getFileDescriptor())
+    ) {
+      if (total < 0) total = descriptor.getStatSize();
+      in.getChannel().position(offset);
+      transferred.set(offset);
+      copy(in, out);
+    }
+    if (!ftp.completePendingCommand()) {
+      throw new RefusedException("File transfer failed.");
+    }
+  }
+
+  private long uploadResumeOffset(FtpConnection connection) {
+    FTPClient ftp = null;
+    try {
+      ftp = connection.acquire();
+      if (!ftp.hasFeature("REST")) return 0;
+      ftp.setFileType(FTP.BINARY_FILE_TYPE);
+      // Bytes read locally may not all have reached the server.
+      return Math.max(0, Math.min(remoteSize(ftp), transferred.get()));
+    } catch (IOException e) {
+      return 0;
+    } finally {
+      if (ftp != null) connection.release(ftp);
+    }
+  }
+
+  private ParcelFileDescriptor open(String mode) throws FileNotFoundException {
+    ParcelFileDescriptor descriptor = resolver.openFileDescriptor(localUri, mode);
+    if (descriptor == null) throw new FileNotFoundException(localUri.toString());
+    return descriptor;
+  }
+
+  private long remoteSize(FTPClient ftp) throws IOException {
+    String size = ftp.getSize(remotePath);
+    if (size == null) return -1;
+    try {
+      return Long.parseLong(size.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      if (cancelled) throw new CancelledException();
+      out.write(buffer, 0, read);
+      counted(read);
+    }
+    if (cancelled) throw new CancelledException();
+    out.flush();
+  }
+
+  private void counted(int bytes) {
+    long done = transferred.addAndGet(bytes);
+    if (listener != null) listener.accept(bytes);
+    if (events == null) return;
+
+    long now = System.currentTimeMillis();
+    if (now - lastProgressAt < PROGRESS_INTERVAL_MS) return;
+    lastProgressAt = now;
+    try {
+      JSONObject event = event("progress");
+      event.put("data", total <= 0 ? 100 : (int) ((done * 100) / total));
+      event.put("bytes", done);
+      event.put("totalBytes", total);
+      PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+      result.setKeepCallback(true);
+      events.sendPluginResult(result);
+    } catch (JSONException e) {
+      Log.w(TAG, "Unable to report transfer progress", e);
+    }
+  }
+
+  private JSONObject event(String type) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("id", id);
+    event.put("type", type);
+    event.put("action", type);
+    return event;
+  }
+}
@@ -49,11 +49,20 @@ module.exports = {
   disconnect: function (id, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'disconnect', [id]);
   },
-  downloadFile: function (id, remotePath, localPath, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Ftp', 'downloadFile', [id, remotePath, localPath]);
+  downloadFile: function (id, remotePath, localPath, onSuccess, onFail, transferId) {
+    cordova.exec(onSuccess, onFail, 'Ftp', 'downloadFile', [id, remotePath, localPath, transferId]);
   },
-  uploadFile: function (id, localPath, remotePath, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Ftp', 'uploadFile', [id, localPath, remotePath]);
+  uploadFile: function (id, localPath, remotePath, onSuccess, onFail, transferId) {
+    cordova.exec(onSuccess, onFail, 'Ftp', 'uploadFile', [id, localPath, remotePath, transferId]);
+  },
+  downloadDirectory: function (id, remoteDir, localDir, options, onEvent, onFail, transferId) {
+    cordova.exec(onEvent, onFail, 'Ftp', 'downloadDirectory', [id, remoteDir, localDir, transferId, options || {}]);
+  },
+  uploadDirectory: function (id, remoteDir, localDir, options, onEvent, onFail, transferId) {
+    cordova.exec(onEvent, onFail, 'Ftp', 'uploadDirectory', [id, remoteDir, localDir, transferId, options || {}]);
+  },
+  cancelTransfer: function (transferId, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Ftp', 'cancelTransfer', [transferId]);
   },
   deleteFile: function (id, path, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'deleteFile', [id, path]);
@@ -88,6 +97,9 @@ module.exports = {
   getKeepAlive: function (id, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'getKeepAlive', [id]);
   },
+  configureKeepalive: function (intervalMs, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Ftp', 'configureKeepalive', [intervalMs]);
+  },
   sendNoOp: function (id, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'sendNoOp', [id]);
   }
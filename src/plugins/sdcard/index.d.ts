@@ -64,6 +64,43 @@ type WorkspaceEvent =
   | { id: string; type: 'progress'; action: 'progress'; data: number }
   | { id: string; type: 'done' | 'done-searching' | 'done-replacing' | 'error'; action: string; [key: string]: any };
 
+interface DirectoryWatchEvent {
+  type: 'create' | 'modify' | 'delete' | 'move' | 'overflow';
+  /** Path relative to the watched directory, '' for the directory itself */
+  path: string;
+  /** Previous relative path of a moved entry */
+  from?: string;
+  isDirectory?: boolean;
+}
+
+interface TransferOptions {
+  /** Job id, used to cancel the transfer. Generated when omitted. */
+  id?: string;
+  /** Source file/directory url */
+  src: string;
+  /** Destination directory url */
+  dest: string;
+  mode?: 'copy' | 'move';
+  /** Number of files copied concurrently (1-8, default 4) */
+  parallel?: number;
+}
+
+type TransferEvent =
+  | { id: string; type: 'status'; action: 'status'; state: string; message: string }
+  | {
+      id: string;
+      type: 'progress';
+      action: 'progress';
+      data: number;
+      bytes: number;
+      totalBytes: number;
+      files: number;
+      totalFiles: number;
+    }
+  | { id: string; type: 'done'; action: 'done'; url: string; files: number; bytes: number }
+  | { id: string; type: 'cancelled'; action: 'cancelled' }
+  | { id: string; type: 'error'; action: 'error'; error: string };
+
 interface SDcard {
   /**
    * Copy file/directory to given destination
@@ -219,6 +256,19 @@ interface SDcard {
     onFail: (err: any) => void,
     mimeType: string,
   ): void;
+  /**
+   * Gets a cached, downsampled thumbnail of an image
+   * @param src Image url
+   * @param size Longest side of the thumbnail in pixels (default 144)
+   * @param onSuccess Callback function on success returns file url of the thumbnail
+   * @param onFail Callback function on error returns error object
+   */
+  thumbnail(
+    src: string,
+    size: number,
+    onSuccess: (url: string) => void,
+    onFail: (err: any) => void,
+  ): void;
   /**
    * Renames the given file/directory to given new name
    * @param src Url of file/directory
@@ -260,6 +310,43 @@ interface SDcard {
     onSuccess: (res: 'OK') => void,
     onFail: (err: any) => void,
   ): void;
+  /**
+   * Encodes and saves text to the given file. file:// targets are replaced
+   * atomically, the write is skipped when the content on disk is identical.
+   * @param src file url
+   * @param content new file content
+   * @param encoding charset name, defaults to UTF-8
+   * @param onSuccess Callback function on success returns "OK"
+   * @param onFail Callback function on error returns error object
+   * @param options sync: flush the file to the storage device before returning
+   */
+  writeText(
+    src: string,
+    content: string,
+    encoding: string,
+    onSuccess: (res: 'OK') => void,
+    onFail: (err: any) => void,
+    options?: { sync?: boolean },
+  ): void;
+  /**
+   * Converts a file between charsets on disk without loading it into memory
+   * @param src Source file url
+   * @param dest Destination file url, empty to convert in place
+   * @param fromEncoding Charset of the source
+   * @param toEncoding Charset to write
+   * @param options strict: fail on malformed/unmappable input instead of replacing it
+   * @param onSuccess Callback function on success returns byte counts
+   * @param onFail Callback function on error returns error object
+   */
+  transcode(
+    src: string,
+    dest: string | null,
+    fromEncoding: string,
+    toEncoding: string,
+    options: { strict?: boolean } | null,
+    onSuccess: (res: { bytesRead: number; bytesWritten: number }) => void,
+    onFail: (err: any) => void,
+  ): void;
   /**
    * Gets stats of given file
    * @param src file/directory url
@@ -282,6 +369,28 @@ interface SDcard {
   ): {
     unwatch: () => void;
   };
+  /**
+   * Recursively watches a file:// directory. Changes are coalesced per path
+   * and delivered in batches; an 'overflow' event means the tree should be rescanned.
+   * @param src Directory url
+   * @param options delay: coalescing window in ms (default 100),
+   * excludeFolders: folder names that are not watched
+   * @param listener Callback function receiving batches of changes
+   * @param onFail Callback function on error returns error object
+   */
+  watchDirectory(
+    src: string,
+    options: { delay?: number; excludeFolders?: string[] },
+    listener: (batch: {
+      id: string;
+      type: 'batch';
+      action: 'batch';
+      events: DirectoryWatchEvent[];
+    }) => void,
+    onFail?: (err: any) => void,
+  ): {
+    unwatch: () => void;
+  };
   workspaceScan(
     options: any,
     onEvent: (event: WorkspaceEvent) => void,
@@ -324,6 +433,27 @@ interface SDcard {
     onSuccess?: (res: 'OK') => void,
     onFail?: (err: any) => void,
   ): void;
+  /**
+   * Copies or moves a file/directory tree, copying files concurrently.
+   * Emits status and progress events until 'done', 'cancelled' or 'error'.
+   * @param options Transfer options
+   * @param onEvent Callback function for transfer events
+   * @param onFail Callback function on error returns error object
+   */
+  transfer(
+    options: TransferOptions,
+    onEvent: (event: TransferEvent) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Cancels a running transfer, partially copied files are removed
+   * @param id Transfer id
+   */
+  transferCancel(
+    id: string,
+    onSuccess?: (res: 'OK') => void,
+    onFail?: (err: any) => void,
+  ): void;
 }
 
 declare var sdcard: SDcard;
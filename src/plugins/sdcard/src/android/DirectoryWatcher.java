@@ -0,0 +1,303 @@
+package com.foxdebug.sdcard;
+
+import android.os.Build;
+import android.os.FileObserver;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Watches a directory tree and reports typed changes relative to the root.
+ * Raw inotify events are coalesced per path and delivered in batches once the
+ * tree has been quiet for the configured window.
+ */
+class DirectoryWatcher {
+  private static final String TAG = "DirectoryWatcher";
+  private static final int DEFAULT_DELAY_MS = 100;
+  private static final int MAX_DELAY_MS = 5000;
+  private static final int MAX_PENDING_EVENTS = 1000;
+  // A tree that never goes quiet is still flushed after this many windows.
+  private static final int MAX_WAIT_WINDOWS = 4;
+  private static final int MASK =
+    FileObserver.CREATE |
+    FileObserver.MODIFY |
+    FileObserver.CLOSE_WRITE |
+    FileObserver.DELETE |
+    FileObserver.MOVED_FROM |
+    FileObserver.MOVED_TO |
+    FileObserver.DELETE_SELF |
+    FileObserver.MOVE_SELF;
+
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  private final String id;
+  private final File root;
+  private final CallbackContext listener;
+  private final int delay;
+  private final Set<String> excludeFolders = new HashSet<>();
+  private final Map<String, DirObserver> observers = new HashMap<>();
+  private final Map<String, Change> pending = new LinkedHashMap<>();
+  private String movedFrom;
+  private boolean overflowed = false;
+  private boolean flushScheduled = false;
+  private long firstEventAt = 0;
+  private long lastEventAt = 0;
+  private boolean started = false;
+  private boolean stopped = false;
+
+  DirectoryWatcher(String id, File root, JSONObject options, CallbackContext listener) {
+    this.id = id;
+    this.root = root;
+    this.listener = listener;
+    this.delay = Math.max(0, Math.min(MAX_DELAY_MS, options.optInt("delay", DEFAULT_DELAY_MS)));
+
+    JSONArray exclude = options.optJSONArray("excludeFolders");
+    if (exclude != null) {
+      for (int i = 0; i < exclude.length(); i++) {
+        String name = exclude.optString(i, "");
+        if (name.length() > 0) excludeFolders.add(name);
+      }
+    }
+  }
+
+  /** Does nothing once started, or when stop() came first. */
+  synchronized void start() {
+    if (started || stopped) return;
+    started = true;
+    watchTree("");
+  }
+
+  synchronized void stop() {
+    stopped = true;
+    for (DirObserver observer : observers.values()) observer.stopWatching();
+    observers.clear();
+    pending.clear();
+  }
+
+  private void watchTree(String relativeDir) {
+    ArrayDeque<String> queue = new ArrayDeque<>();
+    queue.add(relativeDir);
+
+    while (!queue.isEmpty()) {
+      String dirPath = queue.poll();
+      File dir = resolve(dirPath);
+      if (observers.containsKey(dirPath)) continue;
+
+      DirObserver observer = Build.VERSION.SDK_INT >= 29
+        ? new DirObserver(dir, dirPath)
+        : new DirObserver(dir.getAbsolutePath(), dirPath);
+      observer.startWatching();
+      observers.put(dirPath, observer);
+
+      File[] children = dir.listFiles();
+      if (children == null) continue;
+      for (File child : children) {
+        if (child.isDirectory() && !excludeFolders.contains(child.getName())) {
+          queue.add(join(dirPath, child.getName()));
+        }
+      }
+    }
+  }
+
+  private void unwatchTree(String relativeDir) {
+    String prefix = relativeDir + "/";
+    Iterator<Map.Entry<String, DirObserver>> iterator = observers.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, DirObserver> entry = iterator.next();
+      String path = entry.getKey();
+      if (path.equals(relativeDir) || path.startsWith(prefix)) {
+        entry.getValue().stopWatching();
+        iterator.remove();
+      }
+    }
+  }
+
+  private synchronized void onEvent(String dirPath, int event, String name) {
+    if (stopped) return;
+    event &= FileObserver.ALL_EVENTS;
+
+    if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+      if (dirPath.length() == 0) {
+        record("", "delete", true);
+      } else {
+        unwatchTree(dirPath);
+      }
+      return;
+    }
+    if (name == null) return;
+
+    String path = join(dirPath, name);
+    File file = resolve(path);
+    boolean isDirectory = file.isDirectory();
+
+    if ((event & FileObserver.CREATE) != 0) {
+      if (isDirectory && !excludeFolders.contains(name)) watchTree(path);
+      record(path, "create", isDirectory);
+    } else if ((event & (FileObserver.MODIFY | FileObserver.CLOSE_WRITE)) != 0) {
+      record(path, "modify", false);
+    } else if ((event & FileObserver.DELETE) != 0) {
+      unwatchTree(path);
+      record(path, "delete", false);
+    } else if ((event & FileObserver.MOVED_FROM) != 0) {
+      unwatchTree(path);
+      if (movedFrom != null) record(movedFrom, "delete", false);
+      movedFrom = path;
+    } else if ((event & FileObserver.MOVED_TO) != 0) {
+      if (isDirectory && !excludeFolders.contains(name)) watchTree(path);
+      if (movedFrom != null) {
+        Change change = record(path, "move", isDirectory);
+        if (change != null) change.from = movedFrom;
+        movedFrom = null;
+      } else {
+        record(path, "create", isDirectory);
+      }
+    }
+  }
+
+  private Change record(String path, String type, boolean isDirectory) {
+    lastEventAt = System.currentTimeMillis();
+    if (!flushScheduled) firstEventAt = lastEventAt;
+    scheduleFlush(delay);
+    return coalesce(path, type, isDirectory);
+  }
+
+  private Change coalesce(String path, String type, boolean isDirectory) {
+    if (overflowed) return null;
+
+    Change change = pending.get(path);
+    if (change == null) {
+      if (pending.size() >= MAX_PENDING_EVENTS) {
+        overflowed = true;
+        pending.clear();
+        return null;
+      }
+      change = new Change(type, isDirectory);
+      pending.put(path, change);
+      return change;
+    }
+
+    change.isDirectory |= isDirectory;
+    if ("create".equals(change.type)) {
+      // Created and removed within one window: nothing the client needs to see.
+      if ("delete".equals(type)) pending.remove(path);
+      return change;
+    }
+    if ("delete".equals(change.type) && "create".equals(type)) {
+      change.type = "modify";
+      return change;
+    }
+    change.type = type;
+    return change;
+  }
+
+  private void scheduleFlush(long wait) {
+    if (flushScheduled) return;
+    flushScheduled = true;
+    scheduler.schedule(this::flush, wait, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void flush() {
+    flushScheduled = false;
+    if (stopped) return;
+
+    long now = System.currentTimeMillis();
+    long quiet = now - lastEventAt;
+    if (quiet < delay && now - firstEventAt < (long) delay * MAX_WAIT_WINDOWS) {
+      scheduleFlush(delay - quiet);
+      return;
+    }
+
+    if (movedFrom != null) {
+      coalesce(movedFrom, "delete", false);
+      movedFrom = null;
+    }
+
+    try {
+      JSONArray events = new JSONArray();
+      if (overflowed) {
+        JSONObject overflow = new JSONObject();
+        overflow.put("type", "overflow");
+        overflow.put("path", "");
+        events.put(overflow);
+      } else {
+        for (Map.Entry<String, Change> entry : pending.entrySet()) {
+          Change change = entry.getValue();
+          JSONObject event = new JSONObject();
+          event.put("type", change.type);
+          event.put("path", entry.getKey());
+          event.put("isDirectory", change.isDirectory);
+          if (change.from != null) event.put("from", change.from);
+          events.put(event);
+        }
+      }
+      pending.clear();
+      overflowed = false;
+      if (events.length() == 0) return;
+
+      JSONObject batch = new JSONObject();
+      batch.put("id", id);
+      batch.put("type", "batch");
+      batch.put("action", "batch");
+      batch.put("events", events);
+      PluginResult result = new PluginResult(PluginResult.Status.OK, batch);
+      result.setKeepCallback(true);
+      listener.sendPluginResult(result);
+    } catch (JSONException error) {
+      Log.e(TAG, "Unable to deliver watch events", error);
+    }
+  }
+
+  private File resolve(String relativePath) {
+    return relativePath.length() == 0 ? root : new File(root, relativePath);
+  }
+
+  private String join(String parent, String name) {
+    return parent.length() == 0 ? name : parent + "/" + name;
+  }
+
+  private static class Change {
+    String type;
+    String from;
+    boolean isDirectory;
+
+    Change(String type, boolean isDirectory) {
+      this.type = type;
+      this.isDirectory = isDirectory;
+    }
+  }
+
+  private class DirObserver extends FileObserver {
+    private final String dirPath;
+
+    DirObserver(File dir, String dirPath) {
+      super(dir, MASK);
+      this.dirPath = dirPath;
+    }
+
+    // The File constructor only exists from API 29.
+    @SuppressWarnings("deprecation")
+    DirObserver(String path, String dirPath) {
+      super(path, MASK);
+      this.dirPath = dirPath;
+    }
+
+    @Override
+    public void onEvent(int event, String path) {
+      DirectoryWatcher.this.onEvent(dirPath, event, path);
+    }
+  }
+}
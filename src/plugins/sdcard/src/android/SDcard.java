@@ -61,7 +61,12 @@ public class SDcard extends CordovaPlugin {
   private DocumentFile originalRootFile;
   private CallbackContext activityResultCallback;
   private HashMap<String, MyFileObserver> fileObservers = new HashMap();
+  private HashMap<String, DirectoryWatcher> directoryWatchers = new HashMap<>();
   private WorkspaceIndex workspaceIndex;
+  private TransferEngine transferEngine;
+  private SaveEngine saveEngine;
+  private ThumbnailCache thumbnailCache;
+  private Transcoder transcoder;
 
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
@@ -70,6 +75,10 @@ public class SDcard extends CordovaPlugin {
     this.activity = cordova.getActivity();
     this.contentResolver = this.context.getContentResolver();
     this.workspaceIndex = new WorkspaceIndex(this.context);
+    this.transferEngine = new TransferEngine(this.context);
+    this.saveEngine = new SaveEngine(this.contentResolver);
+    this.thumbnailCache = new ThumbnailCache(this.context);
+    this.transcoder = new Transcoder(this.context);
     this.storageManager = (StorageManager) this.activity.getSystemService(
         Context.STORAGE_SERVICE
       );
@@ -102,6 +111,9 @@ public class SDcard extends CordovaPlugin {
       case "get image":
         getImage(arg1, callback);
         break;
+      case "thumbnail":
+        getThumbnail(formatUri(arg1), args.optInt(1), callback);
+        break;
       case "list volumes":
         getStorageVolumes(callback);
         break;
@@ -123,7 +135,23 @@ public class SDcard extends CordovaPlugin {
         );
         break;
       case "writeText":
-        writeText(arg1, arg2, arg3, callback);
+        writeText(
+          arg1,
+          arg2,
+          arg3,
+          args.optJSONObject(3) == null ? new JSONObject() : args.optJSONObject(3),
+          callback
+        );
+        break;
+      case "transcode":
+        transcode(
+          arg1,
+          arg2,
+          arg3,
+          args.optString(3),
+          args.optJSONObject(4) == null ? new JSONObject() : args.optJSONObject(4),
+          callback
+        );
         break;
       case "rename":
         rename(arg1, arg2, callback);
@@ -165,6 +193,17 @@ public class SDcard extends CordovaPlugin {
       case "unwatch file":
         unwatchFile(arg1);
         break;
+      case "watch directory":
+        watchDirectory(
+          arg1,
+          arg2,
+          args.optJSONObject(2) == null ? new JSONObject() : args.optJSONObject(2),
+          callback
+        );
+        break;
+      case "unwatch directory":
+        unwatchDirectory(arg1);
+        break;
       case "workspace scan":
         workspaceIndex.scan(
           args.optJSONObject(0) == null ? new JSONObject() : args.optJSONObject(0),
@@ -201,6 +240,16 @@ public class SDcard extends CordovaPlugin {
         workspaceIndex.clear(args.optJSONArray(0));
         callback.success("OK");
         break;
+      case "transfer start":
+        transferEngine.start(
+          args.optJSONObject(0) == null ? new JSONObject() : args.optJSONObject(0),
+          callback
+        );
+        break;
+      case "transfer cancel":
+        transferEngine.cancel(arg1);
+        callback.success("OK");
+        break;
       default:
         return false;
     }
@@ -260,6 +309,60 @@ public class SDcard extends CordovaPlugin {
     fileObservers.remove(id);
   }
 
+  private void watchDirectory(
+    final String dirUri,
+    final String id,
+    final JSONObject options,
+    final CallbackContext listener
+  ) {
+    Uri uri = Uri.parse(dirUri);
+    if (!"file".equals(uri.getScheme())) {
+      listener.error("Only file:// directories can be watched");
+      return;
+    }
+
+    final File dir = new File(uri.getPath());
+    final DirectoryWatcher watcher = new DirectoryWatcher(
+      id,
+      dir,
+      options,
+      listener
+    );
+    // Registered before it starts, so an unwatch that arrives while the tree
+    // is still being scanned finds and stops it.
+    synchronized (directoryWatchers) {
+      DirectoryWatcher previous = directoryWatchers.put(id, watcher);
+      if (previous != null) previous.stop();
+    }
+
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!dir.isDirectory()) {
+              synchronized (directoryWatchers) {
+                directoryWatchers.remove(id, watcher);
+              }
+              watcher.stop();
+              listener.error("Directory not found");
+              return;
+            }
+            watcher.start();
+          }
+        }
+      );
+  }
+
+  private void unwatchDirectory(String id) {
+    DirectoryWatcher watcher;
+    synchronized (directoryWatchers) {
+      watcher = directoryWatchers.remove(id);
+    }
+    if (watcher != null) watcher.stop();
+  }
+
   public void openDocumentFile(String mimeType, CallbackContext callback) {
     Intent intent = new Intent();
     if (mimeType == null) mimeType = "*/*";
@@ -280,6 +383,26 @@ public class SDcard extends CordovaPlugin {
     cordova.startActivityForResult(this, intent, this.PICK_FROM_GALLERY);
   }
 
+  private void getThumbnail(
+    final String fileUri,
+    final int size,
+    final CallbackContext callback
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              callback.success(thumbnailCache.get(fileUri, size));
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
   public void getStorageVolumes(CallbackContext callback) {
     try {
       JSONArray result = new JSONArray();
@@ -547,10 +670,9 @@ public class SDcard extends CordovaPlugin {
     final String filename,
     final String content,
     final String encoding,
+    final JSONObject options,
     final CallbackContext callback
   ) {
-    final Context context = this.context;
-
     cordova
       .getThreadPool()
       .execute(
@@ -574,13 +696,8 @@ public class SDcard extends CordovaPlugin {
                 }
                 Charset charset = Charset.forName(charSetName);
 
-                try (OutputStream op = context
-                  .getContentResolver()
-                  .openOutputStream(file.getUri(), "rwt")) {
-                  byte[] bytes = content.getBytes(charset);
-                  op.write(bytes);
-                  op.flush();
-                }
+                byte[] bytes = content.getBytes(charset);
+                saveEngine.save(file.getUri(), bytes, options.optBoolean("sync", false));
                 callback.success("OK");
               } else {
                 callback.error("No write permission");
@@ -593,6 +710,55 @@ public class SDcard extends CordovaPlugin {
       );
   }
 
+  private void transcode(
+    final String src,
+    final String dest,
+    final String fromEncoding,
+    final String toEncoding,
+    final JSONObject options,
+    final CallbackContext callback
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              String from = charsetName(fromEncoding);
+              String to = charsetName(toEncoding);
+              if (!Charset.isSupported(from)) {
+                callback.error("Charset not supported: " + from);
+                return;
+              }
+              if (!Charset.isSupported(to)) {
+                callback.error("Charset not supported: " + to);
+                return;
+              }
+
+              callback.success(
+                transcoder.transcode(
+                  formatUri(src),
+                  dest == null || dest.isEmpty() ? null : formatUri(dest),
+                  Charset.forName(from),
+                  Charset.forName(to),
+                  options.optBoolean("strict", false)
+                )
+              );
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  private String charsetName(String encoding) {
+    if (encoding == null || encoding.isEmpty() || "auto".equalsIgnoreCase(encoding)) {
+      return "UTF-8";
+    }
+    return encoding;
+  }
+
   private void writeFile(
     final String filename,
     final String content,
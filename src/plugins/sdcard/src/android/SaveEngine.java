@@ -0,0 +1,233 @@
+package com.foxdebug.sdcard;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes whole-file saves. file:// targets are written to a temp file next to
+ * the real file (symlinks resolved), given its permission bits and renamed
+ * over it; with sync the data and the directory entry are both forced to
+ * storage. Ownership and extended attributes are not carried over. SAF
+ * targets are overwritten in bounded chunks and truncated afterwards so the
+ * document is never observed empty.
+ */
+class SaveEngine {
+  private static final String TAG = "SaveEngine";
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final ContentResolver resolver;
+  // Hash of what each uri was last saved with.
+  private final Map<String, byte[]> savedHashes = new ConcurrentHashMap<>();
+
+  SaveEngine(ContentResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  /**
+   * @param sync when true, data is forced to the storage device before returning
+   * @return false when the content on disk already matches and nothing was written
+   */
+  boolean save(Uri uri, byte[] bytes, boolean sync) throws IOException {
+    byte[] hash = sha256(bytes, bytes.length);
+    String key = uri.toString();
+
+    if (isUnchanged(uri, key, bytes.length, hash)) return false;
+
+    if ("file".equals(uri.getScheme())) {
+      saveFile(new File(uri.getPath()), bytes, sync);
+    } else {
+      saveDocument(uri, bytes, sync);
+    }
+
+    savedHashes.put(key, hash);
+    return true;
+  }
+
+  private void saveFile(File file, byte[] bytes, boolean sync) throws IOException {
+    // Replace the file a symlink points at, not the link itself.
+    File target = file.getCanonicalFile();
+    File dir = target.getParentFile();
+    File temp = null;
+
+    try {
+      temp = File.createTempFile("." + target.getName() + ".", ".tmp", dir);
+    } catch (IOException error) {
+      // Parent may be read-only while the file itself is writable.
+      Log.w(TAG, "Unable to create temp file in " + dir + ", writing in place", error);
+    }
+
+    if (temp == null) {
+      writeFile(target, bytes, sync);
+      return;
+    }
+
+    try {
+      writeFile(temp, bytes, sync);
+      copyMode(target, temp);
+      if (!temp.renameTo(target)) {
+        throw new IOException("Unable to replace " + target.getAbsolutePath());
+      }
+      temp = null;
+      if (sync) syncDirectory(dir);
+    } finally {
+      if (temp != null && !temp.delete()) {
+        Log.w(TAG, "Unable to delete temp file " + temp.getAbsolutePath());
+      }
+    }
+  }
+
+  private void copyMode(File from, File to) {
+    try {
+      int mode = Os.stat(from.getPath()).st_mode & 07777;
+      Os.chmod(to.getPath(), mode);
+    } catch (ErrnoException error) {
+      // A new file has nothing to copy; otherwise keep the default mode.
+      if (error.errno != OsConstants.ENOENT) {
+        Log.w(TAG, "Unable to copy permissions of " + from, error);
+      }
+    }
+  }
+
+  /** Makes the rename itself durable. */
+  private void syncDirectory(File dir) {
+    FileDescriptor fd = null;
+    try {
+      fd = Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+      Os.fsync(fd);
+    } catch (ErrnoException error) {
+      Log.w(TAG, "Unable to sync " + dir, error);
+    } finally {
+      if (fd != null) {
+        try {
+          Os.close(fd);
+        } catch (ErrnoException ignored) {}
+      }
+    }
+  }
+
+  private void writeFile(File file, byte[] bytes, boolean sync) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      FileChannel channel = out.getChannel();
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) channel.write(buffer);
+      if (sync) channel.force(true);
+    }
+  }
+
+  private void saveDocument(Uri uri, byte[] bytes, boolean sync) throws IOException {
+    try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "rw")) {
+      if (pfd == null) throw new FileNotFoundException(uri.toString());
+      try (FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor())) {
+        FileChannel channel = out.getChannel();
+        channel.position(0);
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+          ByteBuffer buffer = ByteBuffer.wrap(
+            bytes,
+            offset,
+            Math.min(CHUNK_SIZE, bytes.length - offset)
+          );
+          while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        channel.truncate(bytes.length);
+        if (sync) channel.force(true);
+        return;
+      }
+    } catch (IOException error) {
+      // Providers backed by pipes cannot seek or truncate, stream instead.
+      Log.d(TAG, "Seekable write failed for " + uri + ", streaming", error);
+    }
+
+    try (OutputStream out = resolver.openOutputStream(uri, "wt")) {
+      if (out == null) throw new FileNotFoundException(uri.toString());
+      for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+        out.write(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset));
+      }
+      out.flush();
+      if (sync && out instanceof FileOutputStream) {
+        ((FileOutputStream) out).getFD().sync();
+      }
+    }
+  }
+
+  /**
+   * Only true when the content on disk is byte-for-byte what the caller is
+   * saving. Size and time are not trusted for that: an external edit of the
+   * same size within the same second would look unchanged.
+   */
+  private boolean isUnchanged(Uri uri, String key, int length, byte[] hash) {
+    try {
+      // Content that differs from our last save is written without reading
+      // the file back first.
+      byte[] saved = savedHashes.get(key);
+      if (saved != null && !Arrays.equals(saved, hash)) return false;
+
+      long size = length(uri);
+      if (size != length) return false;
+
+      try (InputStream in = openInput(uri)) {
+        return Arrays.equals(sha256(in), hash);
+      }
+    } catch (Exception error) {
+      return false;
+    }
+  }
+
+  private InputStream openInput(Uri uri) throws IOException {
+    if ("file".equals(uri.getScheme())) return new FileInputStream(uri.getPath());
+    InputStream in = resolver.openInputStream(uri);
+    if (in == null) throw new FileNotFoundException(uri.toString());
+    return in;
+  }
+
+  private long length(Uri uri) throws IOException {
+    if ("file".equals(uri.getScheme())) {
+      File file = new File(uri.getPath());
+      return file.exists() ? file.length() : -1;
+    }
+    try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r")) {
+      return pfd == null ? -1 : pfd.getStatSize();
+    }
+  }
+
+  private byte[] sha256(byte[] bytes, int length) {
+    MessageDigest digest = newDigest();
+    digest.update(bytes, 0, length);
+    return digest.digest();
+  }
+
+  private byte[] sha256(InputStream in) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[CHUNK_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+    return digest.digest();
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.foxdebug.sdcard;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.util.Log;
+import androidx.documentfile.provider.DocumentFile;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Downsampled image thumbnails, encoded on disk and keyed by source, mtime,
+ * size and target size, so an edited image gets a fresh thumbnail without
+ * explicit invalidation. Callers only ever get a file back, so there is no
+ * in-memory bitmap cache; the least recently used files are evicted once the
+ * directory grows past its limit.
+ */
+public class ThumbnailCache {
+  private static final String TAG = "ThumbnailCache";
+  public static final int DEFAULT_SIZE = 144;
+  public static final int MAX_SIZE = 1024;
+  private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+
+  private final Context context;
+  private final ContentResolver resolver;
+  private final File dir;
+  private final long maxBytes;
+
+  ThumbnailCache(Context context) {
+    this(context, new File(cacheDir(context), "thumbnails"), MAX_DISK_BYTES);
+  }
+
+  public ThumbnailCache(Context context, File dir, long maxBytes) {
+    this.context = context.getApplicationContext();
+    this.resolver = context.getContentResolver();
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a file:// url of a thumbnail no larger than size x size.
+   */
+  String get(String url, int size) throws IOException {
+    Uri uri = Uri.parse(url);
+    DocumentFile source = "file".equals(uri.getScheme())
+      ? DocumentFile.fromFile(new File(uri.getPath()))
+      : DocumentFile.fromSingleUri(context, uri);
+    if (source == null || !source.exists()) throw new FileNotFoundException(url);
+
+    File file = thumbnail(uri, url, source.lastModified(), source.length(), size, null);
+    if (file == null) throw new IOException("Unable to decode image " + url);
+    return Uri.fromFile(file).toString();
+  }
+
+  /**
+   * Returns a thumbnail of file no larger than size x size, or null when it
+   * cannot be decoded as a bitmap.
+   */
+  public File get(File file, int size, CancellationSignal signal) throws IOException {
+    if (!file.exists()) throw new FileNotFoundException(file.getPath());
+    return thumbnail(
+      Uri.fromFile(file),
+      file.getAbsolutePath(),
+      file.lastModified(),
+      file.length(),
+      size,
+      signal
+    );
+  }
+
+  private File thumbnail(
+    Uri uri,
+    String id,
+    long modified,
+    long length,
+    int size,
+    CancellationSignal signal
+  ) throws IOException {
+    size = size <= 0 ? DEFAULT_SIZE : Math.min(size, MAX_SIZE);
+    File file = new File(dir, key(id, modified, length, size));
+    if (file.exists()) {
+      file.setLastModified(System.currentTimeMillis());
+      return file;
+    }
+
+    Bitmap bitmap = decode(uri, size);
+    if (bitmap == null) return null;
+    try {
+      if (signal != null) signal.throwIfCanceled();
+      write(bitmap, file);
+    } finally {
+      bitmap.recycle();
+    }
+    trim();
+    return file;
+  }
+
+  private Bitmap decode(Uri uri, int size) throws IOException {
+    if (Build.VERSION.SDK_INT >= 28) {
+      ImageDecoder.Source source = "file".equals(uri.getScheme())
+        ? ImageDecoder.createSource(new File(uri.getPath()))
+        : ImageDecoder.createSource(resolver, uri);
+      return ImageDecoder.decodeBitmap(
+        source,
+        (decoder, info, src) -> {
+          int width = info.getSize().getWidth();
+          int height = info.getSize().getHeight();
+          float scale = Math.min(1f, (float) size / Math.max(width, height));
+          decoder.setTargetSize(
+            Math.max(1, Math.round(width * scale)),
+            Math.max(1, Math.round(height * scale))
+          );
+          decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+        }
+      );
+    }
+
+    BitmapFactory.Options bounds = new BitmapFactory.Options();
+    bounds.inJustDecodeBounds = true;
+    try (InputStream in = open(uri)) {
+      BitmapFactory.decodeStream(in, null, bounds);
+    }
+    if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, size);
+    Bitmap bitmap;
+    try (InputStream in = open(uri)) {
+      bitmap = BitmapFactory.decodeStream(in, null, options);
+    }
+    if (bitmap == null) return null;
+
+    // inSampleSize only halves, finish off with a single scale.
+    float scale = (float) size / Math.max(bitmap.getWidth(), bitmap.getHeight());
+    if (scale >= 1f) return bitmap;
+    Bitmap scaled = Bitmap.createScaledBitmap(
+      bitmap,
+      Math.max(1, Math.round(bitmap.getWidth() * scale)),
+      Math.max(1, Math.round(bitmap.getHeight() * scale)),
+      true
+    );
+    if (scaled != bitmap) bitmap.recycle();
+    return scaled;
+  }
+
+  private int sampleSize(int width, int height, int size) {
+    int sample = 1;
+    while (Math.max(width, height) / (sample * 2) >= size) sample *= 2;
+    return sample;
+  }
+
+  private InputStream open(Uri uri) throws IOException {
+    if ("file".equals(uri.getScheme())) return new FileInputStream(uri.getPath());
+    InputStream in = resolver.openInputStream(uri);
+    if (in == null) throw new FileNotFoundException(uri.toString());
+    return in;
+  }
+
+  private void write(Bitmap bitmap, File file) throws IOException {
+    if (!dir.exists() && !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+
+    // Unique per writer, so two requests for the same thumbnail don't share one.
+    File temp = File.createTempFile(file.getName(), ".tmp", dir);
+    try (FileOutputStream out = new FileOutputStream(temp)) {
+      if (bitmap.hasAlpha()) bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+      else bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
+    } catch (IOException error) {
+      temp.delete();
+      throw error;
+    }
+    if (!temp.renameTo(file)) {
+      temp.delete();
+      throw new IOException("Unable to write thumbnail " + file);
+    }
+  }
+
+  private void trim() {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+
+    long total = 0;
+    for (File file : files) total += file.length();
+    if (total <= maxBytes) return;
+
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (total <= maxBytes * 3 / 4) break;
+      long length = file.length();
+      if (file.delete()) total -= length;
+      else Log.w(TAG, "Unable to evict " + file);
+    }
+  }
+
+  private static File cacheDir(Context context) {
+    File cacheDir = context.getExternalCacheDir();
+    return cacheDir == null ? context.getCacheDir() : cacheDir;
+  }
+
+  private String key(String id, long modified, long length, int size) {
+    String value = id + "|" + modified + "|" + length + "|" + size;
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : hash) hex.append(String.format("%02x", b));
+      return hex.toString();
+    } catch (Exception error) {
+      return Integer.toHexString(value.hashCode()) + "_" + length + "_" + size;
+    }
+  }
+}
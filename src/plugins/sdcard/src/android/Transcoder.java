@@ -0,0 +1,191 @@
+package com.foxdebug.sdcard;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Converts a file from one charset to another on disk, a buffer at a time,
+ * without materializing the text. Output always goes to a temp file first,
+ * so a failed conversion never leaves the destination truncated or the source
+ * overwritten while it is being read.
+ */
+class Transcoder {
+  private static final int BYTE_BUFFER_SIZE = 64 * 1024;
+  private static final int CHAR_BUFFER_SIZE = 32 * 1024;
+
+  private final Context context;
+  private final ContentResolver resolver;
+
+  Transcoder(Context context) {
+    this.context = context.getApplicationContext();
+    this.resolver = context.getContentResolver();
+  }
+
+  /**
+   * @param strict when true malformed or unmappable input fails the conversion,
+   * otherwise it is replaced with the charset's replacement sequence
+   */
+  JSONObject transcode(String src, String dest, Charset from, Charset to, boolean strict)
+    throws IOException, JSONException {
+    Uri srcUri = Uri.parse(src);
+    Uri destUri = Uri.parse(dest == null || dest.length() == 0 ? src : dest);
+    boolean isFile = "file".equals(destUri.getScheme());
+    Counts counts = new Counts();
+
+    File target = isFile ? new File(destUri.getPath()) : null;
+    File temp = isFile
+      ? File.createTempFile("." + target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile())
+      : File.createTempFile("transcode", ".tmp", context.getCacheDir());
+
+    try {
+      try (InputStream in = openInput(srcUri); OutputStream out = new FileOutputStream(temp)) {
+        pump(in, out, from, to, strict, counts);
+      }
+
+      if (isFile) {
+        if (!temp.renameTo(target)) {
+          throw new IOException("Unable to replace " + target.getAbsolutePath());
+        }
+      } else {
+        try (InputStream in = new FileInputStream(temp); OutputStream out = openOutput(destUri)) {
+          IOUtils.copyLarge(in, out, new byte[BYTE_BUFFER_SIZE]);
+        }
+      }
+    } finally {
+      if (temp.exists()) temp.delete();
+    }
+
+    return counts.toJSON();
+  }
+
+  private void pump(
+    InputStream in,
+    OutputStream out,
+    Charset from,
+    Charset to,
+    boolean strict,
+    Counts counts
+  ) throws IOException {
+    CodingErrorAction action = strict ? CodingErrorAction.REPORT : CodingErrorAction.REPLACE;
+    CharsetDecoder decoder = from
+      .newDecoder()
+      .onMalformedInput(action)
+      .onUnmappableCharacter(action);
+    CharsetEncoder encoder = to
+      .newEncoder()
+      .onMalformedInput(action)
+      .onUnmappableCharacter(action);
+    ReadableByteChannel input = Channels.newChannel(in);
+    WritableByteChannel output = Channels.newChannel(out);
+    ByteBuffer inBytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    ByteBuffer outBytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    boolean eof = false;
+
+    while (true) {
+      if (!eof) {
+        int read = input.read(inBytes);
+        if (read < 0) eof = true;
+        else counts.read += read;
+      }
+
+      inBytes.flip();
+      CoderResult result = decoder.decode(inBytes, chars, eof);
+      inBytes.compact();
+      throwIfError(result);
+      encode(encoder, chars, outBytes, output, false, counts);
+      if (eof && result.isUnderflow()) break;
+    }
+
+    while (true) {
+      CoderResult result = decoder.flush(chars);
+      throwIfError(result);
+      encode(encoder, chars, outBytes, output, false, counts);
+      if (result.isUnderflow()) break;
+    }
+    encode(encoder, chars, outBytes, output, true, counts);
+    while (true) {
+      CoderResult result = encoder.flush(outBytes);
+      throwIfError(result);
+      write(outBytes, output, counts);
+      if (result.isUnderflow()) break;
+    }
+    out.flush();
+  }
+
+  private void encode(
+    CharsetEncoder encoder,
+    CharBuffer chars,
+    ByteBuffer outBytes,
+    WritableByteChannel output,
+    boolean endOfInput,
+    Counts counts
+  ) throws IOException {
+    chars.flip();
+    while (true) {
+      CoderResult result = encoder.encode(chars, outBytes, endOfInput);
+      throwIfError(result);
+      if (!result.isOverflow()) break;
+      write(outBytes, output, counts);
+    }
+    chars.compact();
+  }
+
+  private void write(ByteBuffer outBytes, WritableByteChannel output, Counts counts)
+    throws IOException {
+    outBytes.flip();
+    while (outBytes.hasRemaining()) counts.written += output.write(outBytes);
+    outBytes.clear();
+  }
+
+  private void throwIfError(CoderResult result) throws CharacterCodingException {
+    if (result.isError()) result.throwException();
+  }
+
+  private InputStream openInput(Uri uri) throws IOException {
+    if ("file".equals(uri.getScheme())) return new FileInputStream(uri.getPath());
+    InputStream in = resolver.openInputStream(uri);
+    if (in == null) throw new FileNotFoundException(uri.toString());
+    return in;
+  }
+
+  private OutputStream openOutput(Uri uri) throws IOException {
+    OutputStream out = resolver.openOutputStream(uri, "wt");
+    if (out == null) throw new FileNotFoundException(uri.toString());
+    return out;
+  }
+
+  private static class Counts {
+    long read = 0;
+    long written = 0;
+
+    JSONObject toJSON() throws JSONException {
+      JSONObject result = new JSONObject();
+      result.put("bytesRead", read);
+      result.put("bytesWritten", written);
+      return result;
+    }
+  }
+}
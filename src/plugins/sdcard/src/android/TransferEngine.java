@@ -0,0 +1,517 @@
+package com.foxdebug.sdcard;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+class TransferEngine {
+  private static final String TAG = "TransferEngine";
+  private static final String SEPARATOR = "::";
+  private static final int DEFAULT_PARALLEL_FILES = 4;
+  private static final int MAX_PARALLEL_FILES = 8;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long TRANSFER_CHUNK_BYTES = 8L * 1024 * 1024;
+  private static final long PROGRESS_INTERVAL_MS = 200;
+
+  private final ContentResolver resolver;
+  private final ExecutorService jobExecutor = Executors.newFixedThreadPool(2);
+  private final ExecutorService fileExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_FILES);
+  private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+  TransferEngine(Context context) {
+    this.resolver = context.getContentResolver();
+  }
+
+  void start(JSONObject options, CallbackContext callback) {
+    final String id = options.optString("id", UUID.randomUUID().toString());
+    final Job job = new Job(id);
+    jobs.put(id, job);
+
+    jobExecutor.execute(
+      () -> {
+        try {
+          runTransfer(job, options, callback);
+        } catch (Exception error) {
+          sendError(callback, id, error);
+        } finally {
+          jobs.remove(id);
+        }
+      }
+    );
+  }
+
+  void cancel(String id) {
+    Job job = jobs.get(id);
+    if (job != null) job.cancelled = true;
+  }
+
+  private void runTransfer(Job job, JSONObject options, CallbackContext callback)
+    throws Exception {
+    String src = options.getString("src");
+    String dest = options.getString("dest");
+    boolean move = "move".equals(options.optString("mode", "copy"));
+    int parallel = Math.max(
+      1,
+      Math.min(MAX_PARALLEL_FILES, options.optInt("parallel", DEFAULT_PARALLEL_FILES))
+    );
+
+    Node source = resolve(src);
+    Node target = resolve(dest);
+    if (!target.isDirectory) {
+      throw new IOException("Destination is not a directory: " + dest);
+    }
+    if (
+      source.file != null &&
+      target.file != null &&
+      (target.file.getCanonicalPath() + "/").startsWith(source.file.getCanonicalPath() + "/")
+    ) {
+      throw new IOException("Cannot copy a directory into itself: " + src);
+    }
+
+    // Same-volume moves of plain files are a rename; nothing to stream.
+    if (move && source.file != null && target.file != null) {
+      File renamed = new File(target.file, source.name);
+      if (!renamed.exists() && source.file.renameTo(renamed)) {
+        JSONObject done = baseEvent(job.id, "done");
+        done.put("url", Uri.fromFile(renamed).toString());
+        done.put("files", 0);
+        done.put("bytes", 0);
+        send(callback, done, false);
+        return;
+      }
+    }
+
+    sendStatus(callback, job.id, "scanning", "Preparing transfer");
+    List<FileTask> tasks = new ArrayList<>();
+    Node root = createChild(target, source.name, source.mime, source.isDirectory);
+    try {
+      if (source.isDirectory) {
+        planDir(job, source, root, tasks);
+      } else {
+        tasks.add(new FileTask(source, root));
+        job.totalBytes += source.length;
+      }
+      job.totalFiles = tasks.size();
+
+      sendStatus(callback, job.id, move ? "moving" : "copying", "Transferring files");
+      runTasks(job, tasks, parallel, callback);
+    } catch (Exception error) {
+      deleteQuietly(root);
+      throw error;
+    }
+
+    if (job.cancelled) {
+      deleteQuietly(root);
+      send(callback, baseEvent(job.id, "cancelled"), false);
+      return;
+    }
+
+    if (move && !delete(source)) {
+      Log.w(TAG, "Copied but unable to delete source " + src);
+    }
+
+    sendProgress(callback, job);
+    JSONObject done = baseEvent(job.id, "done");
+    done.put("url", root.url());
+    done.put("files", job.files.get());
+    done.put("bytes", job.bytes.get());
+    send(callback, done, false);
+  }
+
+  private void planDir(Job job, Node dir, Node destDir, List<FileTask> tasks)
+    throws Exception {
+    for (Node child : listChildren(dir)) {
+      if (job.cancelled) return;
+      Node created = createChild(destDir, child.name, child.mime, child.isDirectory);
+      if (child.isDirectory) {
+        planDir(job, child, created, tasks);
+      } else {
+        tasks.add(new FileTask(child, created));
+        job.totalBytes += child.length;
+      }
+    }
+  }
+
+  private void runTasks(
+    Job job,
+    List<FileTask> tasks,
+    int parallel,
+    CallbackContext callback
+  ) throws Exception {
+    ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(fileExecutor);
+    Exception failure = null;
+    int next = 0;
+    int pending = 0;
+
+    while (next < tasks.size() || pending > 0) {
+      while (!job.isStopped() && pending < parallel && next < tasks.size()) {
+        final FileTask task = tasks.get(next++);
+        completion.submit(
+          () -> {
+            copyFile(job, task, callback);
+            return null;
+          }
+        );
+        pending++;
+      }
+      if (pending == 0) break;
+
+      try {
+        completion.take().get();
+      } catch (ExecutionException error) {
+        if (failure == null) {
+          Throwable cause = error.getCause();
+          failure = cause instanceof Exception ? (Exception) cause : error;
+          job.failed = true;
+        }
+      }
+      pending--;
+    }
+
+    if (failure != null) throw failure;
+  }
+
+  private void copyFile(Job job, FileTask task, CallbackContext callback)
+    throws Exception {
+    if (job.isStopped()) return;
+
+    if (task.src.file != null && task.dest.file != null) {
+      try (
+        FileInputStream in = new FileInputStream(task.src.file);
+        FileOutputStream out = new FileOutputStream(task.dest.file)
+      ) {
+        FileChannel input = in.getChannel();
+        FileChannel output = out.getChannel();
+        long size = input.size();
+        long position = 0;
+        while (position < size) {
+          if (job.isStopped()) return;
+          long count = input.transferTo(
+            position,
+            Math.min(TRANSFER_CHUNK_BYTES, size - position),
+            output
+          );
+          if (count <= 0) break;
+          position += count;
+          job.bytes.addAndGet(count);
+          maybeSendProgress(callback, job);
+        }
+      }
+    } else {
+      try (InputStream in = openInput(task.src); OutputStream out = openOutput(task.dest)) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          if (job.isStopped()) return;
+          out.write(buffer, 0, read);
+          job.bytes.addAndGet(read);
+          maybeSendProgress(callback, job);
+        }
+      }
+    }
+
+    job.files.incrementAndGet();
+    maybeSendProgress(callback, job);
+  }
+
+  private Node resolve(String url) throws IOException {
+    if (url.startsWith("file:")) {
+      File file = new File(Uri.parse(url).getPath());
+      if (!file.exists()) throw new FileNotFoundException(url);
+      return Node.fromFile(file);
+    }
+
+    String treeUrl;
+    String docId;
+    if (url.contains(SEPARATOR)) {
+      String[] parts = url.split(SEPARATOR, 2);
+      treeUrl = parts[0];
+      docId = parts[1];
+    } else {
+      treeUrl = url;
+      docId = DocumentsContract.getTreeDocumentId(Uri.parse(url));
+    }
+
+    Uri uri = DocumentsContract.buildDocumentUriUsingTree(Uri.parse(treeUrl), docId);
+    try (
+      Cursor cursor = resolver.query(
+        uri,
+        new String[] {
+          Document.COLUMN_DISPLAY_NAME,
+          Document.COLUMN_MIME_TYPE,
+          Document.COLUMN_SIZE,
+        },
+        null,
+        null,
+        null
+      )
+    ) {
+      if (cursor == null || !cursor.moveToFirst()) throw new FileNotFoundException(url);
+      return new Node(
+        cursor.getString(0),
+        cursor.getString(1),
+        cursor.isNull(2) ? 0 : cursor.getLong(2),
+        null,
+        treeUrl,
+        docId
+      );
+    }
+  }
+
+  private List<Node> listChildren(Node dir) throws IOException {
+    List<Node> children = new ArrayList<>();
+
+    if (dir.file != null) {
+      File[] files = dir.file.listFiles();
+      if (files == null) throw new IOException("Cannot read directory " + dir.url());
+      for (File file : files) children.add(Node.fromFile(file));
+      return children;
+    }
+
+    Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
+      Uri.parse(dir.treeUrl),
+      dir.docId
+    );
+    try (
+      Cursor cursor = resolver.query(
+        childrenUri,
+        new String[] {
+          Document.COLUMN_DOCUMENT_ID,
+          Document.COLUMN_DISPLAY_NAME,
+          Document.COLUMN_MIME_TYPE,
+          Document.COLUMN_SIZE,
+        },
+        null,
+        null,
+        null
+      )
+    ) {
+      if (cursor == null) throw new IOException("Cannot read directory " + dir.url());
+      while (cursor.moveToNext()) {
+        children.add(
+          new Node(
+            cursor.getString(1),
+            cursor.getString(2),
+            cursor.isNull(3) ? 0 : cursor.getLong(3),
+            null,
+            dir.treeUrl,
+            cursor.getString(0)
+          )
+        );
+      }
+    }
+    return children;
+  }
+
+  private Node createChild(Node dir, String name, String mime, boolean isDirectory)
+    throws IOException {
+    if (dir.file != null) {
+      File child = uniqueFile(dir.file, name);
+      boolean created = isDirectory ? child.mkdir() : child.createNewFile();
+      if (!created) throw new IOException("Unable to create " + child.getAbsolutePath());
+      return Node.fromFile(child);
+    }
+
+    String type = isDirectory
+      ? Document.MIME_TYPE_DIR
+      : (mime == null ? "application/octet-stream" : mime);
+    Uri uri = DocumentsContract.createDocument(resolver, dir.documentUri(), type, name);
+    if (uri == null) throw new IOException("Unable to create " + name + " in " + dir.url());
+    return new Node(name, type, 0, null, dir.treeUrl, DocumentsContract.getDocumentId(uri));
+  }
+
+  private File uniqueFile(File dir, String name) {
+    File file = new File(dir, name);
+    if (!file.exists()) return file;
+
+    int dot = name.lastIndexOf('.');
+    String base = dot > 0 ? name.substring(0, dot) : name;
+    String ext = dot > 0 ? name.substring(dot) : "";
+    for (int i = 1; ; i++) {
+      file = new File(dir, base + " (" + i + ")" + ext);
+      if (!file.exists()) return file;
+    }
+  }
+
+  private InputStream openInput(Node node) throws IOException {
+    if (node.file != null) return new FileInputStream(node.file);
+    InputStream stream = resolver.openInputStream(node.documentUri());
+    if (stream == null) throw new FileNotFoundException(node.url());
+    return stream;
+  }
+
+  private OutputStream openOutput(Node node) throws IOException {
+    if (node.file != null) return new FileOutputStream(node.file);
+    OutputStream stream = resolver.openOutputStream(node.documentUri(), "rwt");
+    if (stream == null) throw new FileNotFoundException(node.url());
+    return stream;
+  }
+
+  private boolean delete(Node node) {
+    if (node.file != null) return deleteRecursive(node.file);
+    try {
+      return DocumentsContract.deleteDocument(resolver, node.documentUri());
+    } catch (Exception error) {
+      Log.w(TAG, "Unable to delete " + node.url(), error);
+      return false;
+    }
+  }
+
+  private void deleteQuietly(Node node) {
+    if (node != null) delete(node);
+  }
+
+  private boolean deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) deleteRecursive(child);
+    }
+    return file.delete();
+  }
+
+  private void maybeSendProgress(CallbackContext callback, Job job)
+    throws JSONException {
+    long now = System.currentTimeMillis();
+    long last = job.lastProgressAt.get();
+    if (now - last < PROGRESS_INTERVAL_MS) return;
+    if (!job.lastProgressAt.compareAndSet(last, now)) return;
+    sendProgress(callback, job);
+  }
+
+  private void sendProgress(CallbackContext callback, Job job)
+    throws JSONException {
+    long bytes = job.bytes.get();
+    JSONObject event = baseEvent(job.id, "progress");
+    event.put("data", job.totalBytes == 0 ? 100 : (int) ((bytes * 100) / job.totalBytes));
+    event.put("bytes", bytes);
+    event.put("totalBytes", job.totalBytes);
+    event.put("files", job.files.get());
+    event.put("totalFiles", job.totalFiles);
+    send(callback, event, true);
+  }
+
+  private void sendStatus(
+    CallbackContext callback,
+    String id,
+    String state,
+    String message
+  ) throws JSONException {
+    JSONObject event = baseEvent(id, "status");
+    event.put("state", state);
+    event.put("message", message);
+    send(callback, event, true);
+  }
+
+  private JSONObject baseEvent(String id, String type) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("id", id);
+    event.put("type", type);
+    event.put("action", type);
+    return event;
+  }
+
+  private void send(CallbackContext callback, JSONObject event, boolean keep) {
+    PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+    result.setKeepCallback(keep);
+    callback.sendPluginResult(result);
+  }
+
+  private void sendError(CallbackContext callback, String id, Exception error) {
+    try {
+      JSONObject event = baseEvent(id, "error");
+      event.put("error", error.getMessage() == null ? error.toString() : error.getMessage());
+      send(callback, event, false);
+    } catch (JSONException jsonError) {
+      callback.error(error.getMessage());
+    }
+  }
+
+  private static class Job {
+    final String id;
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicInteger files = new AtomicInteger();
+    final AtomicLong lastProgressAt = new AtomicLong();
+    volatile boolean cancelled = false;
+    volatile boolean failed = false;
+    long totalBytes = 0;
+    int totalFiles = 0;
+
+    Job(String id) {
+      this.id = id;
+    }
+
+    boolean isStopped() {
+      return cancelled || failed;
+    }
+  }
+
+  private static class FileTask {
+    final Node src;
+    final Node dest;
+
+    FileTask(Node src, Node dest) {
+      this.src = src;
+      this.dest = dest;
+    }
+  }
+
+  private static class Node {
+    final String name;
+    final String mime;
+    final long length;
+    final boolean isDirectory;
+    final File file;
+    final String treeUrl;
+    final String docId;
+
+    Node(String name, String mime, long length, File file, String treeUrl, String docId) {
+      this.name = name;
+      this.mime = mime;
+      this.length = length;
+      this.isDirectory = file != null ? file.isDirectory() : Document.MIME_TYPE_DIR.equals(mime);
+      this.file = file;
+      this.treeUrl = treeUrl;
+      this.docId = docId;
+    }
+
+    static Node fromFile(File file) {
+      return new Node(file.getName(), null, file.length(), file, null, null);
+    }
+
+    Uri documentUri() {
+      return DocumentsContract.buildDocumentUriUsingTree(Uri.parse(treeUrl), docId);
+    }
+
+    String url() {
+      if (file != null) return Uri.fromFile(file).toString();
+      return treeUrl + SEPARATOR + docId;
+    }
+  }
+}
@@ -38,6 +38,9 @@ module.exports = {
   getImage: function (onSuccess, onFail, mimeType) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'get image', mimeType ? [mimeType] : []);
   },
+  thumbnail: function (filename, size, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'thumbnail', [filename, size || 0]);
+  },
   rename: function (pathname, newFilename, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'rename', [pathname, newFilename]);
   },
@@ -51,8 +54,11 @@ module.exports = {
     var _isBuffer = content instanceof ArrayBuffer;
     cordova.exec(onSuccess, onFail, 'SDcard', 'write', [filename, content, _isBuffer]);
   },
-  writeText: function (filename, content, encoding, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'SDcard', 'writeText', [filename, content, encoding]);
+  writeText: function (filename, content, encoding, onSuccess, onFail, options) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'writeText', [filename, content, encoding, options || {}]);
+  },
+  transcode: function (src, dest, fromEncoding, toEncoding, options, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'transcode', [src, dest || '', fromEncoding, toEncoding, options || {}]);
   },
   stats: function (filename, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'stats', [filename]);
@@ -66,6 +72,15 @@ module.exports = {
       }
     };
   },
+  watchDirectory: function (dirname, options, listener, onFail) {
+    var id = parseInt(Date.now() + Math.random() * 1000000) + '';
+    cordova.exec(listener, onFail, 'SDcard', 'watch directory', [dirname, id, options || {}]);
+    return {
+      unwatch: function () {
+        cordova.exec(null, null, 'SDcard', 'unwatch directory', [id]);
+      }
+    };
+  },
   listEncodings: function (onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'list encodings', []);
   },
@@ -89,5 +104,11 @@ module.exports = {
   },
   workspaceClear: function (roots, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'workspace clear', [roots || []]);
+  },
+  transfer: function (options, onEvent, onFail) {
+    cordova.exec(onEvent, onFail, 'SDcard', 'transfer start', [options || {}]);
+  },
+  transferCancel: function (id, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'transfer cancel', [id]);
   }
 };
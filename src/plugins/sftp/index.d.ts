@@ -20,11 +20,85 @@ interface ExecResult{
 interface ShellEvent {
   type: "ready" | "data" | "exit" | "error";
   sessionId?: string;
-  data?: string;
+  /** Output bytes, coalesced over a few milliseconds. */
+  data?: ArrayBuffer;
+  stream?: "stdout" | "stderr";
+  /** Size of the chunk; streamed commands acknowledge it through the wrapper. */
+  bytes?: number;
   exitCode?: number;
   message?: string;
 }
 
+interface SftpTransferEvent {
+  id: string;
+  type: "progress" | "done";
+  action: "progress" | "done";
+  /** Percentage of the file transferred. */
+  data?: number;
+  bytes: number;
+  totalBytes: number;
+}
+
+interface SftpDirectoryOptions {
+  /** Globs matched against the relative path or the file name. */
+  include?: string[];
+  /** Globs matched against the relative path or the name; folders are pruned. */
+  exclude?: string[];
+  /** Maximum files transferred at once, capped by the connection's channels. */
+  concurrency?: number;
+}
+
+interface SftpDirectoryEvent {
+  id: string;
+  type: "progress" | "done";
+  action: "progress" | "done";
+  data?: number;
+  bytes: number;
+  totalBytes?: number;
+  files: number;
+  totalFiles?: number;
+  skipped: number;
+}
+
+interface SftpSearchOptions {
+  /** Reported back by every event; generated when omitted. */
+  id?: string;
+  /** Remote directory to search. */
+  root: string;
+  /** Prefix for result file urls, defaults to root. */
+  rootUrl?: string;
+  search: string;
+  options?: {
+    regExp?: boolean;
+    wholeWord?: boolean;
+    caseSensitive?: boolean;
+    /** Comma separated globs. */
+    include?: string;
+    /** Comma separated globs. */
+    exclude?: string;
+  };
+  /** Send "search-results" batches instead of one "search-result" per file. */
+  batchResults?: boolean;
+}
+
+interface SftpSearchEvent {
+  id: string;
+  type: "status" | "progress" | "search-result" | "search-results" | "done-searching" | "cancelled" | "error";
+  action: SftpSearchEvent["type"];
+  data?: any;
+  message?: string;
+  error?: string;
+}
+
+interface SftpRange {
+  offset: number;
+  length: number;
+  /** Size of the whole remote file. */
+  size: number;
+  eof: boolean;
+  data: ArrayBuffer;
+}
+
 interface SftpProfileInfo {
   hostname: string;
   port: number;
@@ -38,14 +112,47 @@ interface Sftp {
    * @param command 
    * @param onSucess 
    * @param onFail 
+   * @param connectionId profile id of the connection, defaults to the last used one
    */
-  exec(command: String, onSucess: (res: ExecResult)=>void, onFail: (err: any) => void): void;
-  /** Connects using credentials held by the native profile store. */
+  exec(command: String, onSucess: (res: ExecResult)=>void, onFail: (err: any) => void, connectionId?: String): void;
+  /**
+   * Runs a command and streams its output as it is produced. The returned
+   * session accepts writeShell, signalShell and closeShell. When onEvent
+   * returns a promise, further output waits for it to settle.
+   */
+  execStream(command: String, onEvent: (event: ShellEvent) => void | Promise<unknown>, onFail: (err: any) => void, connectionId?: String, sessionId?: String): void;
+  /**
+   * Connects using credentials held by the native profile store. Several
+   * profiles can stay connected at once; a live connection is reused.
+   */
   connectUsingProfile(profileId: String, onSuccess: () => void, onFail: (err: any) => void): void;
   /** Tests a profile once and returns its remote working directory. */
   testProfile(profileId: String, requestId: String, timeout: Number, onSuccess: (home: String) => void, onFail: (err: any) => void): void;
   /** Cancels an in-flight profile connection or test. */
   cancelConnection(requestId: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /** Cancels a getFile/putFile/getDirectory/putDirectory started with a transfer id. */
+  cancelTransfer(transferId: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Recursively downloads a remote directory into a local file:// directory,
+   * skipping files whose size and modification time already match.
+   */
+  getDirectory(remoteDir: String, localDir: String, options: SftpDirectoryOptions | null, onEvent: (event: SftpDirectoryEvent) => void, onFail: (err: any) => void, connectionId?: String, transferId?: String): void;
+  /**
+   * Recursively uploads a local file:// directory, creating remote folders and
+   * skipping files the server already has at the same size and a newer time.
+   */
+  putDirectory(remoteDir: String, localDir: String, options: SftpDirectoryOptions | null, onEvent: (event: SftpDirectoryEvent) => void, onFail: (err: any) => void, connectionId?: String, transferId?: String): void;
+  /**
+   * Searches file contents on the server with rg or grep, falling back to
+   * reading files over SFTP. Events match the local workspace search.
+   */
+  search(options: SftpSearchOptions, onEvent: (event: SftpSearchEvent) => void, onFail: (err: any) => void, connectionId?: String): void;
+  cancelSearch(searchId: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Reads up to length bytes (8 MB at most, 128 KB when omitted) from offset
+   * without downloading the whole file. A negative offset counts back from the end of the file.
+   */
+  readRange(path: String, offset: number, length: number, onSuccess: (range: SftpRange) => void, onFail: (err: any) => void, connectionId?: String): void;
   saveProfile(profileId: String | null, host: String, port: Number, username: String, authType: String, password: String, keyFile: String, passphrase: String, onSuccess: (profileId: String) => void, onFail: (err: any) => void): void;
   editProfile(profileId: String | null, host: String, port: Number, username: String, authType: String, password: String, keyFile: String, passphrase: String, onSuccess: (profile: SftpProfileInfo & {profileId: string}) => void, onFail: (err: any) => void): void;
   getProfileInfo(profileId: String, onSuccess: (profile: SftpProfileInfo & {profileId: string}) => void, onFail: (err: any) => void): void;
@@ -57,8 +164,11 @@ interface Sftp {
    * @param localFilename copy/shadow of remote file.
    * @param onSuccess 
    * @param onFail 
+   * @param connectionId
+   * @param transferId when given, onSuccess also receives progress events and
+   * the transfer can be cancelled with cancelTransfer
    */
-  getFile(filename: String, localFilename: String, onSuccess: (url: String) => void, onFail: (err: any) => void): void;
+  getFile(filename: String, localFilename: String, onSuccess: (event?: SftpTransferEvent) => void, onFail: (err: any) => void, connectionId?: String, transferId?: String): void;
   
   /**
    * Uploaded the file to server
@@ -66,25 +176,39 @@ interface Sftp {
    * @param localFilename copy/shadow of remote file.
    * @param onSuccess 
    * @param onFail 
+   * @param connectionId
+   * @param transferId when given, onSuccess also receives progress events and
+   * the transfer can be cancelled with cancelTransfer
    */
-  putFile(filename: String, localFilename: String, onSuccess: (url: String) => void, onFail: (err: any) => void): void;
+  putFile(filename: String, localFilename: String, onSuccess: (res: String | SftpTransferEvent) => void, onFail: (err: any) => void, connectionId?: String, transferId?: String): void;
   
   /**
    * Closes the connection
    * @param onSuccess 
    * @param onFail 
+   * @param connectionId connection to close, defaults to the last used one
    */
-  close(onSuccess: () => void, onFail: (err: any) => void): void;
+  close(onSuccess: () => void, onFail: (err: any) => void, connectionId?: String): void;
   
   /**
    * Gets wether server is connected or not.
-   * @param onSuccess 
+   * @param onSuccess receives the connection id, or 0 when it is not open
    * @param onFail 
+   * @param connectionId connection to check, defaults to the last used one
    */
-  isConnected(onSuccess: (connectionId: String) => void, onFail: (err: any) => void): void;
+  /**
+   * Sets how long a session may stay quiet before it is pinged (0 turns pings
+   * off) and how long a ping may take. Sessions found dead are reconnected in
+   * the background, and lsDir, stat and pwd calls caught by a drop are
+   * replayed on the new session. Defaults are 30000 and 10000 ms.
+   */
+  configureKeepalive(intervalMs: Number, timeoutMs: Number, onSuccess: () => void, onFail: (err: any) => void): void;
+  isConnected(onSuccess: (connectionId: String) => void, onFail: (err: any) => void, connectionId?: String): void;
   openShellUsingProfile(profileId: String, cols: Number, rows: Number, onEvent: (event: ShellEvent) => void, onFail: (err: any) => void): void;
   writeShell(sessionId: String, data: String, onSuccess: () => void, onFail: (err: any) => void): void;
   resizeShell(sessionId: String, cols: Number, rows: Number, onSuccess: () => void, onFail: (err: any) => void): void;
+  /** Sends a signal such as "INT", "TERM" or "KILL" to a running command. */
+  signalShell(sessionId: String, signal: String, onSuccess: () => void, onFail: (err: any) => void): void;
   closeShell(sessionId: String, onSuccess: () => void, onFail: (err: any) => void): void;
 }
 
@@ -13,8 +13,6 @@ import com.sshtools.client.SshClient.SshClientBuilder;
 import com.sshtools.client.SshClientContext;
 import com.sshtools.client.SessionChannelNG;
 import com.sshtools.client.sftp.SftpClient;
-import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
-import com.sshtools.client.sftp.SftpFile;
 import com.sshtools.client.sftp.TransferCancelledException;
 import com.sshtools.common.knownhosts.HostKeyVerification;
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -36,6 +34,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.SecurityException;
 import java.lang.reflect.Method;
@@ -47,16 +46,27 @@ import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.nio.charset.StandardCharsets;
 import java.security.Security;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.regex.PatternSyntaxException;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
@@ -74,19 +84,42 @@ public class Sftp extends CordovaPlugin {
   // A smaller mobile window prevents connection bursts from exhausting the heap.
   private static final long SFTP_MAX_WINDOW_SIZE = 1024L * 1024L;
   private static final long SFTP_MIN_WINDOW_SIZE = 128L * 1024L;
+  // Reads and writes kept in flight per transfer; 16 x 32 KB blocks stays
+  // within one SFTP_MAX_WINDOW_SIZE window.
+  static final int SFTP_ASYNC_REQUESTS = 16;
   private static final long DEFAULT_CONNECT_TIMEOUT_MS = 10000L;
   private static final long MIN_CONNECT_TIMEOUT_MS = 1000L;
   private static final long MAX_CONNECT_TIMEOUT_MS = 30000L;
+  // Command output sent to the WebView but not yet acknowledged.
+  private static final long STREAM_WINDOW_BYTES = 256L * 1024L;
+  // Past this many unacknowledged bytes the channel stops granting the server
+  // window, so it holds further output until the WebView catches up.
+  private static final long STREAM_MAX_BUFFERED_BYTES = SFTP_MAX_WINDOW_SIZE;
+  // Shell output is gathered for this long, or up to this size, before it
+  // crosses the bridge.
+  private static final long SHELL_COALESCE_MS = 8L;
+  private static final int SHELL_COALESCE_BYTES = 64 * 1024;
+  private static final int SHELL_WRITER_THREADS = 4;
+  private static final long SHELL_WRITER_KEEP_ALIVE_MS = 30000L;
   private static boolean cryptoProviderConfigured;
-  private final Object connectionLock = new Object();
+  private final SftpConnectionPool connections = new SftpConnectionPool();
   private final Map<String, ConnectionAttempt> connectionAttempts =
     new ConcurrentHashMap<>();
   private final Map<String, RemoteShell> remoteShells = new ConcurrentHashMap<>();
-  private SshClient ssh;
-  private SftpClient sftp;
+  private final Map<String, SftpTransfer> transfers = new ConcurrentHashMap<>();
+  private final Map<String, SftpDirectoryTransfer> directoryTransfers =
+    new ConcurrentHashMap<>();
+  private final Map<String, SftpSearch> searches = new ConcurrentHashMap<>();
+  private final Map<String, FutureTask<SftpConnection>> reconnecting =
+    new ConcurrentHashMap<>();
+  private final ScheduledExecutorService shellTimers =
+    Executors.newSingleThreadScheduledExecutor();
+  // Writes block while the remote window is full. The pool is bounded, each
+  // shell's input waits in its own buffer meanwhile, and idle threads are
+  // reclaimed instead of parking one per shell.
+  private final ExecutorService shellWriters = newShellWriters();
   private Context context;
   private Activity activity;
-  private String connectionID;
   private SftpSecurityStore securityStore;
 
   private final class ConnectionAttempt {
@@ -226,57 +259,201 @@ public class Sftp extends CordovaPlugin {
     }
   }
 
+  /**
+   * An interactive shell on its own SSH connection, or a command running on a
+   * channel of a pooled connection. Output is coalesced for a few
+   * milliseconds and sent as binary. Input goes out on the shared writer pool
+   * as soon as it arrives; whatever is typed while a write is still queued or
+   * blocked on the remote window joins the next one. Commands are also flow
+   * controlled: at most STREAM_WINDOW_BYTES of output are in flight to the
+   * WebView until it acknowledges them. Once more than
+   * STREAM_MAX_BUFFERED_BYTES are unacknowledged the channel withholds window
+   * adjustments, so the server stops sending instead of output being dropped,
+   * and it is resumed when half of that has been acknowledged.
+   */
   private final class RemoteShell {
 
     private final String id;
     private final SshClient client;
     private final SessionChannelNG channel;
     private final CallbackContext streamCallback;
+    private final SftpConnection pooled;
+    private final boolean flowControl;
     private final AtomicBoolean finished = new AtomicBoolean(false);
-    private final ExecutorService inputWriter = Executors.newSingleThreadExecutor();
+    private final ByteArrayOutputStream pendingOutput = new ByteArrayOutputStream();
+    private String pendingStream;
+    private ScheduledFuture<?> outputFlush;
+    private final ArrayDeque<OutputChunk> queued = new ArrayDeque<>();
+    private long queuedBytes;
+    private long inFlightBytes;
+    private boolean halted;
+    private final ByteArrayOutputStream pendingInput = new ByteArrayOutputStream();
+    private final List<CallbackContext> inputCallbacks = new ArrayList<>();
+    private boolean inputScheduled;
 
     private RemoteShell(
       String id,
       SshClient client,
       SessionChannelNG channel,
       CallbackContext streamCallback
+    ) {
+      this(id, client, null, channel, streamCallback, false);
+    }
+
+    /**
+     * @param pooled the pooled connection the channel runs on, pinned until
+     * finishing, or null when finishing also closes the SSH connection
+     * @param flowControl whether output waits for acknowledgements
+     */
+    private RemoteShell(
+      String id,
+      SshClient client,
+      SftpConnection pooled,
+      SessionChannelNG channel,
+      CallbackContext streamCallback,
+      boolean flowControl
     ) {
       this.id = id;
       this.client = client;
+      this.pooled = pooled;
       this.channel = channel;
       this.streamCallback = streamCallback;
+      this.flowControl = flowControl;
+      if (pooled != null) pooled.pin();
     }
 
-    private void sendData(ByteBuffer source) {
+    private synchronized void sendData(ByteBuffer source, String stream) {
       if (finished.get() || source == null || !source.hasRemaining()) return;
+      if (pendingStream != null && !pendingStream.equals(stream)) flushOutput();
 
       ByteBuffer data = source.asReadOnlyBuffer();
       byte[] bytes = new byte[data.remaining()];
       data.get(bytes);
+      pendingOutput.write(bytes, 0, bytes.length);
+      pendingStream = stream;
+
+      if (pendingOutput.size() >= SHELL_COALESCE_BYTES) {
+        flushOutput();
+      } else if (outputFlush == null) {
+        try {
+          outputFlush = shellTimers.schedule(
+            this::flushScheduledOutput,
+            SHELL_COALESCE_MS,
+            TimeUnit.MILLISECONDS
+          );
+        } catch (RejectedExecutionException e) {
+          flushOutput();
+        }
+      }
+    }
+
+    private synchronized void flushScheduledOutput() {
+      outputFlush = null;
+      flushOutput();
+    }
+
+    private synchronized void flushOutput() {
+      if (outputFlush != null) {
+        outputFlush.cancel(false);
+        outputFlush = null;
+      }
+      if (pendingOutput.size() == 0) return;
+      OutputChunk chunk = new OutputChunk(pendingStream, pendingOutput.toByteArray());
+      pendingOutput.reset();
+      pendingStream = null;
+      if (!flowControl) {
+        emit(chunk);
+        return;
+      }
+
+      queued.add(chunk);
+      queuedBytes += chunk.bytes.length;
+      drain(false);
+      if (!halted && queuedBytes + inFlightBytes > STREAM_MAX_BUFFERED_BYTES) {
+        // What the server already has window for still arrives and is queued.
+        halted = true;
+        channel.haltIncomingData();
+      }
+    }
+
+    private synchronized void acknowledge(long bytes) {
+      inFlightBytes = Math.max(0, inFlightBytes - bytes);
+      drain(false);
+      if (halted && queuedBytes + inFlightBytes <= STREAM_MAX_BUFFERED_BYTES / 2) {
+        halted = false;
+        channel.resumeIncomingData();
+      }
+    }
+
+    private synchronized void drain(boolean all) {
+      while (!queued.isEmpty() && (all || inFlightBytes < STREAM_WINDOW_BYTES)) {
+        OutputChunk chunk = queued.poll();
+        queuedBytes -= chunk.bytes.length;
+        inFlightBytes += chunk.bytes.length;
+        emit(chunk);
+      }
+    }
+
+    /** Sends the event metadata and the raw bytes as one two-part message. */
+    private void emit(OutputChunk chunk) {
       try {
         JSONObject event = new JSONObject();
         event.put("type", "data");
-        event.put("data", Base64.encodeToString(bytes, Base64.NO_WRAP));
-        sendShellEvent(streamCallback, event, true);
+        event.put("stream", chunk.stream);
+        event.put("bytes", chunk.bytes.length);
+        List<PluginResult> parts = new ArrayList<>(2);
+        parts.add(new PluginResult(PluginResult.Status.OK, event));
+        parts.add(new PluginResult(PluginResult.Status.OK, chunk.bytes));
+        PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+        result.setKeepCallback(true);
+        streamCallback.sendPluginResult(result);
       } catch (JSONException e) {
         finish(null, e.getMessage());
       }
     }
 
+    private void signal(String signal, CallbackContext callback) {
+      if (finished.get()) {
+        callback.error("SSH shell is not connected");
+        return;
+      }
+      try {
+        channel.signal(signal);
+        callback.success();
+      } catch (Exception e) {
+        callback.error("Failed to send signal: " + errMessage(e));
+      }
+    }
+
     private void finish(Integer exitCode, String error) {
       if (!finished.compareAndSet(false, true)) return;
       remoteShells.remove(id, this);
-      inputWriter.shutdownNow();
+      List<CallbackContext> unwritten;
+      synchronized (this) {
+        // The process is gone; whatever it printed is delivered before the exit.
+        flushOutput();
+        drain(true);
+        unwritten = new ArrayList<>(inputCallbacks);
+        inputCallbacks.clear();
+        pendingInput.reset();
+      }
+      for (CallbackContext callback : unwritten) {
+        callback.error("SSH shell is not connected");
+      }
 
       try {
         channel.close();
       } catch (Exception e) {
         Log.w(TAG, "Failed to close SSH shell channel " + id, e);
       }
-      try {
-        client.close();
-      } catch (IOException e) {
-        Log.w(TAG, "Failed to close SSH shell connection " + id, e);
+      if (pooled == null) {
+        try {
+          client.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to close SSH shell connection " + id, e);
+        }
+      } else {
+        pooled.unpin();
       }
 
       try {
@@ -291,43 +468,92 @@ public class Sftp extends CordovaPlugin {
     }
 
     private void write(String input, CallbackContext callback) {
-      if (finished.get()) {
-        callback.error("SSH shell is not connected");
-        return;
+      byte[] data = input.getBytes(StandardCharsets.UTF_8);
+      synchronized (this) {
+        if (finished.get()) {
+          callback.error("SSH shell is not connected");
+          return;
+        }
+        pendingInput.write(data, 0, data.length);
+        inputCallbacks.add(callback);
+        if (inputScheduled) return;
+        inputScheduled = true;
       }
+      submitInput();
+    }
 
+    private void submitInput() {
       try {
-        inputWriter.execute(
-          new Runnable() {
-            @Override
-            public void run() {
-              try {
-                byte[] data = input.getBytes(StandardCharsets.UTF_8);
-                channel.getOutputStream().write(data);
-                channel.getOutputStream().flush();
-                callback.success();
-              } catch (IOException e) {
-                finish(null, errMessage(e));
-                callback.error(errMessage(e));
-              }
-            }
-          }
-        );
+        shellWriters.execute(this::flushInput);
       } catch (RejectedExecutionException e) {
-        callback.error("SSH shell is not connected");
+        finish(null, "SSH shell is not connected");
+      }
+    }
+
+    /** Writes everything queued so far; one flush per shell runs at a time. */
+    private void flushInput() {
+      byte[] data;
+      List<CallbackContext> callbacks;
+      synchronized (this) {
+        data = pendingInput.toByteArray();
+        pendingInput.reset();
+        callbacks = new ArrayList<>(inputCallbacks);
+        inputCallbacks.clear();
+      }
+
+      try {
+        if (data.length > 0) {
+          channel.getOutputStream().write(data);
+          channel.getOutputStream().flush();
+        }
+        for (CallbackContext callback : callbacks) callback.success();
+      } catch (IOException e) {
+        finish(null, errMessage(e));
+        for (CallbackContext callback : callbacks) callback.error(errMessage(e));
+      } finally {
+        boolean more;
+        synchronized (this) {
+          more = !finished.get() && !inputCallbacks.isEmpty();
+          inputScheduled = more;
+        }
+        if (more) submitInput();
       }
     }
   }
 
+  private static final class OutputChunk {
+
+    private final String stream;
+    private final byte[] bytes;
+
+    private OutputChunk(String stream, byte[] bytes) {
+      this.stream = stream;
+      this.bytes = bytes;
+    }
+  }
+
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
     context = cordova.getContext();
     activity = cordova.getActivity();
     securityStore = new SftpSecurityStore(context);
+    connections.setReviver(this::reconnect);
     System.setProperty("maverick.log.nothread", "true");
     configureCryptoProvider();
   }
 
+  private static ExecutorService newShellWriters() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      SHELL_WRITER_THREADS,
+      SHELL_WRITER_THREADS,
+      SHELL_WRITER_KEEP_ALIVE_MS,
+      TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>()
+    );
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   private static synchronized void configureCryptoProvider() {
     if (cryptoProviderConfigured) return;
 
@@ -345,69 +571,92 @@ public class Sftp extends CordovaPlugin {
     policy.setSftpMinWindowSize(
       new UnsignedInteger32(SFTP_MIN_WINDOW_SIZE)
     );
-    policy.setMaximumNumberofAsyncSFTPRequests(4);
+    policy.setMaximumNumberofAsyncSFTPRequests(SFTP_ASYNC_REQUESTS);
   }
 
-  private void closeConnectionQuietly() {
-    SftpClient previousSftp = sftp;
-    SshClient previousSsh = ssh;
-    sftp = null;
-    ssh = null;
-    connectionID = null;
-
-    if (previousSftp != null) {
-      try {
-        previousSftp.quit();
-      } catch (Exception e) {
-        Log.w(TAG, "Failed to close the SFTP subsystem", e);
-      }
-    }
-    if (previousSsh != null) {
-      try {
-        previousSsh.close();
-      } catch (Exception e) {
-        Log.w(TAG, "Failed to close the SSH connection", e);
-      }
+  private static void closeQuietly(SshClient ssh) {
+    try {
+      ssh.close();
+    } catch (Exception e) {
+      Log.w(TAG, "Failed to close the SSH connection", e);
     }
   }
 
-  private boolean establishConnection(
+  /**
+   * Opens a new SSH session and SFTP subsystem. The caller decides whether the
+   * result replaces the pooled connection for the ID.
+   */
+  private SftpConnection establishConnection(
     SshClientBuilder builder,
     String newConnectionID,
     ConnectionSecurity security,
-    ConnectionAttempt attempt
+    BooleanSupplier cancelled
   ) throws IOException, SshException, PermissionDeniedException {
-    synchronized (connectionLock) {
-      closeConnectionQuietly();
-      ssh = builder.onConfigure(security::configure).build();
-      if (attempt.isCancelled()) {
-        closeConnectionQuietly();
-        return false;
-      }
-      if (!ssh.isConnected()) {
-        closeConnectionQuietly();
-        return false;
-      }
+    SshClient ssh = builder.onConfigure(security::configure).build();
+    if (cancelled.getAsBoolean() || !ssh.isConnected()) {
+      closeQuietly(ssh);
+      return null;
+    }
 
-      connectionID = newConnectionID;
-      try {
-        sftp = SftpClientBuilder.create().withClient(ssh).build();
-      } catch (IOException | SshException | PermissionDeniedException e) {
-        closeConnectionQuietly();
-        throw e;
-      }
+    SftpClient sftp;
+    try {
+      sftp = SftpConnection.openChannel(ssh);
+    } catch (IOException | SshException | PermissionDeniedException e) {
+      closeQuietly(ssh);
+      throw e;
+    }
 
-      if (attempt.isCancelled()) {
-        closeConnectionQuietly();
-        return false;
-      }
+    SftpConnection connection = new SftpConnection(newConnectionID, ssh, sftp);
+    if (cancelled.getAsBoolean()) {
+      connection.closeQuietly();
+      return null;
+    }
+    return connection;
+  }
 
-      try {
-        sftp.getSubsystemChannel().setCharsetEncoding("UTF-8");
-      } catch (UnsupportedEncodingException | SshException e) {
-        Log.w(TAG, "Failed to set UTF-8 encoding, using the default", e);
-      }
-      return true;
+  /**
+   * Connection named by the optional trailing connection ID argument, falling
+   * back to the most recently used connection. While that connection is being
+   * re-established the call waits for it rather than failing.
+   */
+  private SftpConnection connectionFor(JSONArray args, int index) {
+    String id = nullableString(args, index);
+    SftpConnection connection = connections.get(id);
+    if (connection != null) return connection;
+
+    if (id == null) id = connections.lastUsedID();
+    FutureTask<SftpConnection> pending = id == null ? null : reconnecting.get(id);
+    if (pending == null) return null;
+    try {
+      return pending.get(MAX_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private interface ConnectionCall<T> {
+    T call(SftpConnection connection) throws Exception;
+  }
+
+  /**
+   * Runs an idempotent operation, replaying it once on a re-established
+   * session when the connection dropped underneath it. Errors reported by the
+   * server are passed through unchanged.
+   */
+  private <T> T withReplay(SftpConnection connection, ConnectionCall<T> call)
+    throws Exception {
+    try {
+      return call.call(connection);
+    } catch (SftpStatusException | JSONException e) {
+      throw e;
+    } catch (IOException | SshException | RuntimeException e) {
+      if (connection.isOpen() && connection.ping()) throw e;
+      Log.w(TAG, "Replaying operation after losing " + connection.id, e);
+      connections.invalidate(connection, e);
+      return call.call(reconnect(connection));
     }
   }
 
@@ -437,6 +686,17 @@ public class Sftp extends CordovaPlugin {
     return error;
   }
 
+  private static JSONObject transferCancelledError() {
+    JSONObject error = new JSONObject();
+    try {
+      error.put("code", "SFTP_TRANSFER_CANCELLED");
+      error.put("message", "SFTP transfer cancelled");
+      error.put("cancelled", true);
+      error.put("nonRetryable", true);
+    } catch (JSONException ignored) {}
+    return error;
+  }
+
   private static JSONObject connectionCancelledError() {
     JSONObject error = new JSONObject();
     try {
@@ -517,6 +777,18 @@ public class Sftp extends CordovaPlugin {
     remoteShells.clear();
   }
 
+  private void cancelTransfers() {
+    for (SftpTransfer transfer : transfers.values()) {
+      transfer.cancel();
+    }
+    for (SftpDirectoryTransfer transfer : directoryTransfers.values()) {
+      transfer.cancel();
+    }
+    for (SftpSearch search : searches.values()) {
+      search.cancel();
+    }
+  }
+
   private void cancelConnectionAttempts() {
     for (ConnectionAttempt attempt : connectionAttempts.values()) {
       attempt.cancel();
@@ -527,6 +799,7 @@ public class Sftp extends CordovaPlugin {
   @Override
   public void onReset() {
     cancelConnectionAttempts();
+    cancelTransfers();
     closeRemoteShells();
     super.onReset();
   }
@@ -534,7 +807,11 @@ public class Sftp extends CordovaPlugin {
   @Override
   public void onDestroy() {
     cancelConnectionAttempts();
+    cancelTransfers();
     closeRemoteShells();
+    shellTimers.shutdownNow();
+    shellWriters.shutdownNow();
+    connections.shutdown();
     super.onDestroy();
   }
 
@@ -610,12 +887,37 @@ public class Sftp extends CordovaPlugin {
     }
     RemoteShell shell = new RemoteShell(shellID, shellClient, channel, callback);
     remoteShells.put(shellID, shell);
+    listen(shell);
 
+    RequestFuture pty = channel
+      .allocatePseudoTerminal("xterm-256color", columns, rows)
+      .waitFor(30000L);
+    if (!pty.isSuccess()) {
+      shell.finish(null, "Remote server rejected PTY allocation");
+      return;
+    }
+    if (shell.finished.get()) return;
+
+    RequestFuture start = channel.startShell().waitFor(30000L);
+    if (!start.isSuccess()) {
+      shell.finish(null, "Remote server rejected the interactive shell");
+      return;
+    }
+    if (shell.finished.get()) return;
+
+    JSONObject ready = new JSONObject();
+    ready.put("type", "ready");
+    ready.put("sessionId", shellID);
+    sendShellEvent(callback, ready, true);
+  }
+
+  private static void listen(RemoteShell shell) {
+    SessionChannelNG channel = shell.channel;
     channel.addEventListener(
       new ChannelEventListener() {
         @Override
         public void onChannelDataIn(Channel source, ByteBuffer data) {
-          shell.sendData(data);
+          shell.sendData(data, "stdout");
         }
 
         @Override
@@ -624,7 +926,7 @@ public class Sftp extends CordovaPlugin {
           ByteBuffer data,
           int type
         ) {
-          shell.sendData(data);
+          shell.sendData(data, "stderr");
         }
 
         @Override
@@ -642,27 +944,6 @@ public class Sftp extends CordovaPlugin {
         }
       }
     );
-
-    RequestFuture pty = channel
-      .allocatePseudoTerminal("xterm-256color", columns, rows)
-      .waitFor(30000L);
-    if (!pty.isSuccess()) {
-      shell.finish(null, "Remote server rejected PTY allocation");
-      return;
-    }
-    if (shell.finished.get()) return;
-
-    RequestFuture start = channel.startShell().waitFor(30000L);
-    if (!start.isSuccess()) {
-      shell.finish(null, "Remote server rejected the interactive shell");
-      return;
-    }
-    if (shell.finished.get()) return;
-
-    JSONObject ready = new JSONObject();
-    ready.put("type", "ready");
-    ready.put("sessionId", shellID);
-    sendShellEvent(callback, ready, true);
   }
 
   public void openShellUsingProfile(JSONArray args, CallbackContext callback) {
@@ -849,8 +1130,12 @@ public class Sftp extends CordovaPlugin {
   }
 
   private static String nullableProfileID(JSONArray args) {
-    if (args.length() == 0 || args.isNull(0)) return null;
-    String value = args.optString(0, null);
+    return nullableString(args, 0);
+  }
+
+  private static String nullableString(JSONArray args, int index) {
+    if (args.length() <= index || args.isNull(index)) return null;
+    String value = args.optString(index, null);
     if (value == null) return null;
     value = value.trim();
     if (
@@ -921,6 +1206,21 @@ public class Sftp extends CordovaPlugin {
     callback.success();
   }
 
+  public void signalShell(JSONArray args, CallbackContext callback) {
+    RemoteShell shell = remoteShells.get(args.optString(0));
+    if (shell == null) {
+      callback.error("SSH shell is not connected");
+      return;
+    }
+    shell.signal(args.optString(1, "INT"), callback);
+  }
+
+  public void ackShell(JSONArray args, CallbackContext callback) {
+    RemoteShell shell = remoteShells.get(args.optString(0));
+    if (shell != null) shell.acknowledge(args.optLong(1, 0));
+    callback.success();
+  }
+
   public void closeShell(JSONArray args, CallbackContext callback) {
     RemoteShell shell = remoteShells.get(args.optString(0));
     if (shell != null) shell.finish(null, null);
@@ -964,6 +1264,12 @@ public class Sftp extends CordovaPlugin {
       case "connectUsingProfile":
       case "testProfile":
       case "cancelConnection":
+      case "cancelTransfer":
+      case "getDirectory":
+      case "putDirectory":
+      case "search":
+      case "cancelSearch":
+      case "configureKeepalive":
       case "saveProfile":
       case "editProfile":
       case "getProfileInfo":
@@ -972,6 +1278,7 @@ public class Sftp extends CordovaPlugin {
       case "putFile":
       case "lsDir":
       case "stat":
+      case "readRange":
       case "mkdir":
       case "rm":
       case "createFile":
@@ -983,6 +1290,9 @@ public class Sftp extends CordovaPlugin {
       case "writeShell":
       case "resizeShell":
       case "closeShell":
+      case "execStream":
+      case "signalShell":
+      case "ackShell":
         return true;
       default:
         return false;
@@ -1003,6 +1313,224 @@ public class Sftp extends CordovaPlugin {
     callback.success();
   }
 
+  public void cancelTransfer(JSONArray args, CallbackContext callback) {
+    SftpTransfer transfer = transfers.get(args.optString(0));
+    if (transfer != null) transfer.cancel();
+    SftpDirectoryTransfer directory = directoryTransfers.get(args.optString(0));
+    if (directory != null) directory.cancel();
+    callback.success();
+  }
+
+  public void getDirectory(JSONArray args, CallbackContext callback) {
+    startDirectoryTransfer(args, callback, false);
+  }
+
+  public void putDirectory(JSONArray args, CallbackContext callback) {
+    startDirectoryTransfer(args, callback, true);
+  }
+
+  private void startDirectoryTransfer(
+    JSONArray args,
+    CallbackContext callback,
+    boolean upload
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            String remoteDir = args.optString(0);
+            String localDir = args.optString(1);
+            SftpConnection connection = connectionFor(args, 2);
+            String suppliedID = nullableString(args, 3);
+            String transferID = suppliedID == null
+              ? UUID.randomUUID().toString()
+              : suppliedID;
+            JSONObject options = args.optJSONObject(4);
+            if (options == null) options = new JSONObject();
+
+            if (connection == null) {
+              callback.error("Not connected");
+              return;
+            }
+            if (remoteDir.isEmpty()) {
+              callback.error("Remote directory is required");
+              return;
+            }
+
+            File localRoot;
+            try {
+              localRoot = new File(new URI(localDir));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+              callback.error("Invalid local URI: " + errMessage(e));
+              return;
+            }
+
+            SftpDirectoryTransfer transfer = new SftpDirectoryTransfer(
+              transferID,
+              upload,
+              remoteDir,
+              localRoot,
+              options,
+              context.getContentResolver(),
+              callback
+            );
+            if (directoryTransfers.putIfAbsent(transferID, transfer) != null) {
+              callback.error("An SFTP transfer with this ID is already running");
+              return;
+            }
+
+            try {
+              transfer.run(connection, Sftp.this::reconnect);
+            } catch (TransferCancelledException e) {
+              callback.error(transferCancelledError());
+            } catch (Exception e) {
+              Log.e(TAG, "Directory transfer failed", e);
+              callback.error("Directory transfer error: " + errMessage(e));
+            } finally {
+              directoryTransfers.remove(transferID, transfer);
+            }
+          }
+        }
+      );
+  }
+
+  public void search(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            JSONObject options = args.optJSONObject(0);
+            if (options == null) options = new JSONObject();
+            SftpConnection connection = connectionFor(args, 1);
+            String suppliedID = options.optString("id", "");
+            String searchID = suppliedID.isEmpty()
+              ? UUID.randomUUID().toString()
+              : suppliedID;
+
+            if (connection == null) {
+              callback.error("Not connected");
+              return;
+            }
+            if ("replace".equals(options.optString("mode", "search"))) {
+              callback.error("Remote replace is not supported");
+              return;
+            }
+
+            SftpSearch search;
+            try {
+              search = new SftpSearch(searchID, options, callback);
+            } catch (PatternSyntaxException e) {
+              callback.error("Invalid search pattern: " + errMessage(e));
+              return;
+            }
+            if (searches.putIfAbsent(searchID, search) != null) {
+              callback.error("An SFTP search with this ID is already running");
+              return;
+            }
+
+            try {
+              search.run(connection);
+            } catch (Exception e) {
+              Log.e(TAG, "Remote search failed", e);
+              try {
+                JSONObject event = new JSONObject();
+                event.put("id", searchID);
+                event.put("type", "error");
+                event.put("action", "error");
+                event.put("error", errMessage(e));
+                callback.success(event);
+              } catch (JSONException jsonError) {
+                callback.error(errMessage(e));
+              }
+            } finally {
+              searches.remove(searchID, search);
+            }
+          }
+        }
+      );
+  }
+
+  public void cancelSearch(JSONArray args, CallbackContext callback) {
+    SftpSearch search = searches.get(args.optString(0));
+    if (search != null) search.cancel();
+    callback.success();
+  }
+
+  private boolean registerTransfer(
+    String transferID,
+    SftpTransfer transfer,
+    CallbackContext callback
+  ) {
+    if (transferID == null) return true;
+    if (transfers.putIfAbsent(transferID, transfer) == null) return true;
+    callback.error("An SFTP transfer with this ID is already running");
+    return false;
+  }
+
+  /**
+   * Returns a usable connection after the given one failed, opening a new
+   * session from the stored profile when the old one is gone. Concurrent
+   * callers for the same ID share one reconnect.
+   */
+  private SftpConnection reconnect(SftpConnection failed) throws IOException {
+    if (failed.isOpen()) return failed;
+    connections.invalidate(failed, null);
+    SftpConnection current = connections.get(failed.id);
+    if (current != null) return current;
+
+    FutureTask<SftpConnection> task = new FutureTask<>(() -> openFromProfile(failed.id));
+    FutureTask<SftpConnection> running = reconnecting.putIfAbsent(failed.id, task);
+    if (running == null) {
+      try {
+        task.run();
+      } finally {
+        reconnecting.remove(failed.id, task);
+      }
+      running = task;
+    }
+
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reconnecting");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      throw new IOException("Failed to reconnect: " + cause, cause);
+    }
+  }
+
+  private SftpConnection openFromProfile(String profileID) throws IOException {
+    SftpConnection current = connections.get(profileID);
+    if (current != null) return current;
+
+    try {
+      JSONObject profile = securityStore.getProfile(profileID);
+      ConnectionSecurity security = new ConnectionSecurity(
+        profile.getString("hostname"),
+        profile.optInt("port", 22)
+      );
+      SftpConnection connection = establishConnection(
+        buildProfileBuilder(profile),
+        profileID,
+        security,
+        () -> false
+      );
+      if (connection == null) {
+        throw new IOException("Failed to re-establish SSH connection");
+      }
+      connections.put(connection);
+      return connection;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Failed to reconnect: " + errMessage(e), e);
+    }
+  }
+
   private void startProfileConnection(
     JSONArray args,
     CallbackContext callback,
@@ -1028,6 +1556,12 @@ public class Sftp extends CordovaPlugin {
         ConnectionSecurity security = null;
         String profileID = args.optString(0);
         try {
+          // A live session for the profile is reused; testing a profile
+          // always renegotiates so edited credentials are exercised.
+          if (!returnWorkingDirectory && connections.get(profileID) != null) {
+            if (!attempt.isCancelled()) attempt.success();
+            return null;
+          }
           JSONObject profile = securityStore.getProfile(profileID);
           ConnectionSecurity profileSecurity = new ConnectionSecurity(
             profile.getString("hostname"),
@@ -1038,33 +1572,22 @@ public class Sftp extends CordovaPlugin {
             profile,
             connectTimeout
           );
-          boolean connected;
+          SftpConnection connection = establishConnection(
+            builder,
+            profileID,
+            profileSecurity,
+            attempt::isCancelled
+          );
+          if (connection != null) connections.put(connection);
+          boolean connected = connection != null;
           String workingDirectory = null;
-          if (returnWorkingDirectory) {
-            synchronized (connectionLock) {
-              connected = establishConnection(
-                builder,
-                profileID,
-                profileSecurity,
-                attempt
-              );
-              if (connected && !attempt.isCancelled()) {
-                SftpClient activeSftp = sftp;
-                if (activeSftp == null) {
-                  throw new IOException(
-                    "SFTP connection was closed before validation"
-                  );
-                }
-                workingDirectory = activeSftp.pwd();
-              }
+          if (connected && returnWorkingDirectory && !attempt.isCancelled()) {
+            SftpClient sftp = connection.acquire();
+            try {
+              workingDirectory = sftp.pwd();
+            } finally {
+              connection.release(sftp);
             }
-          } else {
-            connected = establishConnection(
-              builder,
-              profileID,
-              profileSecurity,
-              attempt
-            );
           }
           if (connected) {
             if (attempt.isCancelled()) return null;
@@ -1098,9 +1621,7 @@ public class Sftp extends CordovaPlugin {
           attempt.error("Failed to connect SFTP profile: " + errMessage(e));
           Log.e(TAG, "Failed to connect SFTP profile", e);
         } catch (OutOfMemoryError e) {
-          synchronized (connectionLock) {
-            closeConnectionQuietly();
-          }
+          connections.close(profileID);
           if (!attempt.isCancelled()) {
             attempt.error("Not enough memory to initialize SFTP");
           }
@@ -1126,10 +1647,14 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String command = args.optString(0);
-              if (ssh != null) {
+              SftpConnection connection = connectionFor(args, 1);
+              if (connection != null) {
                 JSONObject res = new JSONObject();
                 StringBuffer buffer = new StringBuffer();
-                int code = ssh.executeCommandWithResult(command, buffer);
+                int code = connection.ssh.executeCommandWithResult(
+                  command,
+                  buffer
+                );
                 String result = buffer.toString();
                 res.put("code", code);
                 res.put("result", result);
@@ -1145,6 +1670,74 @@ public class Sftp extends CordovaPlugin {
       );
   }
 
+  /**
+   * Runs a command on a channel of the pooled connection and streams its
+   * output as shell events: "ready" with the session ID first, then "data"
+   * chunks tagged stdout or stderr, then "exit" with the exit code. The
+   * session accepts writeShell, signalShell and closeShell like a shell.
+   */
+  public void execStream(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            String command = args.optString(0);
+            SftpConnection connection = connectionFor(args, 1);
+            String suppliedID = nullableString(args, 2);
+            String sessionID = suppliedID == null
+              ? UUID.randomUUID().toString()
+              : suppliedID;
+            if (connection == null) {
+              callback.error("Not connected");
+              return;
+            }
+
+            SessionChannelNG channel;
+            try {
+              channel = connection.ssh.openSessionChannel(true);
+            } catch (Exception e) {
+              callback.error("Failed to open SSH channel: " + errMessage(e));
+              return;
+            }
+            RemoteShell exec = new RemoteShell(
+              sessionID,
+              connection.ssh,
+              connection,
+              channel,
+              callback,
+              true
+            );
+            if (remoteShells.putIfAbsent(sessionID, exec) != null) {
+              connection.unpin();
+              try {
+                channel.close();
+              } catch (Exception ignored) {}
+              callback.error("An SSH session with this ID is already running");
+              return;
+            }
+            listen(exec);
+
+            try {
+              JSONObject ready = new JSONObject();
+              ready.put("type", "ready");
+              ready.put("sessionId", sessionID);
+              sendShellEvent(callback, ready, true);
+
+              RequestFuture start = channel
+                .executeCommand(command)
+                .waitFor(30000L);
+              if (!start.isSuccess()) {
+                exec.finish(null, "Remote server rejected the command");
+              }
+            } catch (Exception e) {
+              exec.finish(null, errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
   public void getFile(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
@@ -1154,7 +1747,8 @@ public class Sftp extends CordovaPlugin {
             try {
               String filename = args.optString(0);
               String localFilename = args.optString(1);
-              if (ssh != null && sftp != null) {
+              SftpConnection connection = connectionFor(args, 2);
+              if (connection != null) {
                 URI uri = new URI(localFilename);
                 DocumentFile file = DocumentFile.fromSingleUri(
                   context,
@@ -1162,34 +1756,43 @@ public class Sftp extends CordovaPlugin {
                 );
                 Uri fileUri = file.getUri();
                 ContentResolver contentResolver = context.getContentResolver();
+                String transferID = nullableString(args, 3);
+                SftpTransfer transfer = new SftpTransfer(
+                  transferID,
+                  false,
+                  filename,
+                  fileUri,
+                  contentResolver,
+                  transferID == null ? null : callback
+                );
+                if (!registerTransfer(transferID, transfer, callback)) return;
 
-                try (
-                  InputStream inputStream = sftp.getInputStream(filename);
-                  java.io.OutputStream outputStream =
-                    contentResolver.openOutputStream(fileUri, "wt")
-                ) {
-                  byte[] buffer = new byte[32768];
-                  int bytesRead;
-
-                  while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+                try {
+                  transfer.run(connection, Sftp.this::reconnect);
+                  if (transferID == null) {
+                    callback.success();
+                  } else {
+                    transfer.sendDone();
                   }
-
-                  outputStream.flush();
-                  callback.success();
                   return;
                 } catch (SftpStatusException e) {
                   callback.error("SFTP transfer error: " + errMessage(e));
                   return;
+                } catch (TransferCancelledException e) {
+                  callback.error(transferCancelledError());
+                  return;
+                } finally {
+                  if (transferID != null) transfers.remove(transferID, transfer);
                 }
               }
-              Log.d("getFile", "ssh or sftp is null");
+              Log.d("getFile", "No open SFTP connection");
               callback.error("Not connected");
             } catch (
               IOException
               | URISyntaxException
               | SecurityException
-              | SshException e
+              | SshException
+              | JSONException e
             ) {
               Log.e("getFile", "Error downloading file", e);
               callback.error("File transfer error: " + errMessage(e));
@@ -1208,8 +1811,9 @@ public class Sftp extends CordovaPlugin {
             try {
               String remoteFilename = args.optString(0);
               String localFilename = args.optString(1);
+              SftpConnection connection = connectionFor(args, 2);
 
-              if (ssh == null || sftp == null) {
+              if (connection == null) {
                 callback.error("Not connected");
                 return;
               }
@@ -1238,11 +1842,31 @@ public class Sftp extends CordovaPlugin {
                 return;
               }
 
+              String transferID = nullableString(args, 3);
+              SftpTransfer transfer = new SftpTransfer(
+                transferID,
+                true,
+                remoteFilename,
+                Uri.fromFile(localFile),
+                context.getContentResolver(),
+                transferID == null ? null : callback
+              );
+              if (!registerTransfer(transferID, transfer, callback)) return;
+
               try {
-                sftp.put(localFile.getAbsolutePath(), remoteFilename);
-                callback.success("File uploaded successfully");
+                transfer.run(connection, Sftp.this::reconnect);
+                if (transferID == null) {
+                  callback.success("File uploaded successfully");
+                } else {
+                  transfer.sendDone();
+                }
+              } catch (TransferCancelledException e) {
+                callback.error(transferCancelledError());
               } catch (IOException e) {
                 callback.error("Error uploading file: " + errMessage(e));
+              } finally {
+                if (transferID != null) transfers.remove(transferID, transfer);
+                connection.metadata.invalidate(remoteFilename);
               }
             } catch (Exception e) {
               callback.error(errMessage(e));
@@ -1258,102 +1882,32 @@ public class Sftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
-            SftpClient activeSftp = null;
+            SftpConnection connection = connectionFor(args, 1);
+            if (connection == null) {
+              callback.error("Not connected");
+              return;
+            }
             try {
               String path = args.optString(0);
-              synchronized (connectionLock) {
-                activeSftp = sftp;
-                if (
-                  ssh == null ||
-                  !ssh.isConnected() ||
-                  activeSftp == null ||
-                  activeSftp.isClosed()
-                ) {
-                  callback.error("Not connected");
-                  return;
-                }
-                JSONArray files = new JSONArray();
-                for (SftpFile file : activeSftp.ls(path)) {
-                  String filename = file.getFilename();
-                  if (filename.equals(".") || filename.equals("..")) {
-                    continue;
-                  }
-                  SftpFileAttributes fileAttributes = file.attributes();
-                  JSONObject fileInfo = new JSONObject();
-                  fileInfo.put("name", filename);
-                  fileInfo.put("exists", true);
-
-                  if (fileAttributes != null) {
-                    String permissions = fileAttributes.toPermissionsString();
-                    boolean canRead = permissions.charAt(1) == 'r';
-                    boolean canWrite = permissions.charAt(2) == 'w';
-                    fileInfo.put("canRead", canRead);
-                    fileInfo.put("canWrite", canWrite);
-                    fileInfo.put("permissions", permissions);
-                    fileInfo.put("length", fileAttributes.size());
-                    fileInfo.put("url", file.getAbsolutePath());
-                    fileInfo.put(
-                      "lastModified",
-                      fileAttributes.lastModifiedTime()
-                    );
-
-                    if (permissions.charAt(0) == 'l') {
-                      fileInfo.put("isLink", true);
-                      try {
-                        String linkTarget = activeSftp.getSymbolicLinkTarget(
-                          file.getAbsolutePath()
-                        );
-                        fileInfo.put("linkTarget", linkTarget);
-                        SftpFileAttributes linkAttributes = activeSftp.stat(
-                          linkTarget
-                        );
-                        fileInfo.put("isFile", linkAttributes.isFile());
-                        fileInfo.put(
-                          "isDirectory",
-                          linkAttributes.isDirectory()
-                        );
-                      } catch (SftpStatusException | SshException e) {
-                        // Handle broken symlink
-                        fileInfo.put("isFile", false);
-                        fileInfo.put("isDirectory", false);
-                        fileInfo.put("isLink", false);
-                      }
-                    } else {
-                      fileInfo.put("isLink", false);
-                      fileInfo.put("isDirectory", fileAttributes.isDirectory());
-                      fileInfo.put("isFile", fileAttributes.isFile());
-                    }
-                  }
-
-                  files.put(fileInfo);
-                }
-                callback.success(files);
-                return;
-              }
+              JSONArray files = withReplay(
+                connection,
+                current -> current.metadata.list(path)
+              );
+              callback.success(files);
             } catch (SftpStatusException | JSONException e) {
               callback.error(errMessage(e));
             } catch (SshException | RuntimeException e) {
-              invalidateSftpConnection(activeSftp, e);
               callback.error(
                 "SFTP connection was interrupted. Reconnect and try again."
               );
+            } catch (Exception e) {
+              callback.error(errMessage(e));
             }
           }
         }
       );
   }
 
-  private void invalidateSftpConnection(
-    SftpClient failedSftp,
-    Exception failure
-  ) {
-    synchronized (connectionLock) {
-      if (failedSftp == null || sftp != failedSftp) return;
-      Log.w(TAG, "Invalidating failed SFTP connection", failure);
-      closeConnectionQuietly();
-    }
-  }
-
   public void stat(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
@@ -1362,75 +1916,61 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String path = sanitizePath(args.optString(0));
-              if (ssh != null && sftp != null) {
+              SftpConnection connection = connectionFor(args, 1);
+              if (connection != null) {
                 URI uri = new URI(path);
-                JSONObject fileStat = new JSONObject();
-
-                try {
-                  SftpFileAttributes fileAttributes = sftp.stat(uri.getPath());
-                  if (fileAttributes != null) {
-                    String permissions = fileAttributes.toPermissionsString();
-                    boolean canRead = permissions.charAt(1) == 'r';
-                    boolean canWrite = permissions.charAt(2) == 'w';
-
-                    fileStat.put("exists", true);
-                    fileStat.put("canRead", canRead);
-                    fileStat.put("canWrite", canWrite);
-                    fileStat.put("isLink", fileAttributes.isLink());
-                    fileStat.put("isDirectory", fileAttributes.isDirectory());
-                    fileStat.put("isFile", fileAttributes.isFile());
-                    fileStat.put("length", fileAttributes.size());
-                    fileStat.put(
-                      "permissions",
-                      fileAttributes.toPermissionsString()
-                    );
-                    fileStat.put(
-                      "lastModified",
-                      fileAttributes.lastModifiedTime()
-                    );
-                    String[] pathSegments = uri.getPath().split("/");
-                    String filename = pathSegments[pathSegments.length - 1];
-
-                    fileStat.put("name", filename);
-                    fileStat.put("url", uri.getPath());
-                    if (permissions.charAt(0) == 'l') {
-                      fileStat.put("isLink", true);
-                      try {
-                        String linkTarget = sftp.getSymbolicLinkTarget(
-                          uri.getPath()
-                        );
-                        fileStat.put("linkTarget", linkTarget);
-                        SftpFileAttributes linkAttributes = sftp.stat(
-                          linkTarget
-                        );
-                        fileStat.put("isFile", linkAttributes.isFile());
-                        fileStat.put(
-                          "isDirectory",
-                          linkAttributes.isDirectory()
-                        );
-                      } catch (SftpStatusException | SshException e) {
-                        // Handle broken symlink
-                        fileStat.put("isFile", false);
-                        fileStat.put("isDirectory", false);
-                        fileStat.put("isLink", false);
-                        fileStat.put("exists", false);
-                      }
-                    } else {
-                      fileStat.put("isLink", false);
-                      fileStat.put("isDirectory", fileAttributes.isDirectory());
-                      fileStat.put("isFile", fileAttributes.isFile());
-                    }
-                  }
-                } catch (SftpStatusException e) {
-                  fileStat.put("exists", false);
-                  fileStat.put("url", uri.getPath());
-                }
-
+                JSONObject fileStat = withReplay(
+                  connection,
+                  current -> current.metadata.stat(uri.getPath())
+                );
                 callback.success(fileStat);
                 return;
               }
               callback.error("Not connected");
-            } catch (URISyntaxException | JSONException | SshException e) {
+            } catch (Exception e) {
+              callback.error(errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  /**
+   * Reads part of a remote file without downloading the rest. A negative
+   * offset counts back from the end, so a tail is one call.
+   */
+  public void readRange(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              String path = new URI(sanitizePath(args.optString(0))).getPath();
+              long offset = args.optLong(1, 0L);
+              int length = args.optInt(2, SftpBlockCache.DEFAULT_RANGE);
+              SftpConnection connection = connectionFor(args, 3);
+              if (connection == null) {
+                callback.error("Not connected");
+                return;
+              }
+
+              SftpBlockCache.Range range = withReplay(
+                connection,
+                current -> current.blocks.read(path, offset, length)
+              );
+              JSONObject info = new JSONObject();
+              info.put("offset", range.offset);
+              info.put("length", range.data.length);
+              info.put("size", range.size);
+              info.put("eof", range.offset + range.data.length >= range.size);
+              List<PluginResult> parts = new ArrayList<>(2);
+              parts.add(new PluginResult(PluginResult.Status.OK, info));
+              parts.add(new PluginResult(PluginResult.Status.OK, range.data));
+              callback.sendPluginResult(
+                new PluginResult(PluginResult.Status.OK, parts)
+              );
+            } catch (Exception e) {
               callback.error(errMessage(e));
             }
           }
@@ -1446,14 +1986,23 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String path = args.optString(0);
-              if (ssh != null && sftp != null) {
-                sftp.mkdir(path);
+              SftpConnection connection = connectionFor(args, 1);
+              if (connection != null) {
+                SftpClient sftp = connection.acquire();
+                try {
+                  sftp.mkdir(path);
+                } finally {
+                  connection.release(sftp);
+                  connection.metadata.invalidate(path);
+                }
                 callback.success();
                 return;
               }
               callback.error("Not connected");
             } catch (SftpStatusException | SshException e) {
               callback.error(errMessage(e));
+            } catch (IOException e) {
+              callback.error(errMessage(e));
             }
           }
         }
@@ -1470,15 +2019,24 @@ public class Sftp extends CordovaPlugin {
               String path = args.optString(0);
               boolean force = args.optBoolean(1, false);
               boolean recurse = args.optBoolean(2, false);
+              SftpConnection connection = connectionFor(args, 3);
 
-              if (ssh != null && sftp != null) {
-                sftp.rm(path, force, recurse);
+              if (connection != null) {
+                SftpClient sftp = connection.acquire();
+                try {
+                  sftp.rm(path, force, recurse);
+                } finally {
+                  connection.release(sftp);
+                  connection.metadata.invalidate(path);
+                }
                 callback.success();
                 return;
               }
               callback.error("Not connected");
             } catch (SftpStatusException | SshException e) {
               callback.error(errMessage(e));
+            } catch (IOException e) {
+              callback.error(errMessage(e));
             }
           }
         }
@@ -1494,27 +2052,34 @@ public class Sftp extends CordovaPlugin {
             try {
               String path = args.optString(0);
               String content = args.optString(1, "");
+              SftpConnection connection = connectionFor(args, 2);
 
-              if (ssh != null && sftp != null) {
+              if (connection != null) {
+                SftpClient sftp = connection.acquire();
                 try {
-                  SftpFileAttributes attrs = sftp.stat(path);
-                  if (attrs != null && attrs.isFile()) {
-                    callback.error("File already exists");
-                    return;
+                  try {
+                    SftpFileAttributes attrs = sftp.stat(path);
+                    if (attrs != null && attrs.isFile()) {
+                      callback.error("File already exists");
+                      return;
+                    }
+                  } catch (SftpStatusException e) {
+                    // File doesn't exist, continue with creation
                   }
-                } catch (SftpStatusException e) {
-                  // File doesn't exist, continue with creation
-                }
 
-                java.io.ByteArrayInputStream inputStream;
-                if (content.isEmpty()) {
-                  inputStream = new java.io.ByteArrayInputStream(new byte[0]);
-                } else {
-                  inputStream = new java.io.ByteArrayInputStream(
-                    content.getBytes(StandardCharsets.UTF_8)
-                  );
+                  java.io.ByteArrayInputStream inputStream;
+                  if (content.isEmpty()) {
+                    inputStream = new java.io.ByteArrayInputStream(new byte[0]);
+                  } else {
+                    inputStream = new java.io.ByteArrayInputStream(
+                      content.getBytes(StandardCharsets.UTF_8)
+                    );
+                  }
+                  sftp.put(inputStream, path);
+                } finally {
+                  connection.release(sftp);
+                  connection.metadata.invalidate(path);
                 }
-                sftp.put(inputStream, path);
                 callback.success();
                 return;
               }
@@ -1523,6 +2088,8 @@ public class Sftp extends CordovaPlugin {
               SftpStatusException | SshException | TransferCancelledException e
             ) {
               callback.error(errMessage(e));
+            } catch (IOException e) {
+              callback.error(errMessage(e));
             }
           }
         }
@@ -1538,15 +2105,25 @@ public class Sftp extends CordovaPlugin {
             try {
               String oldpath = args.optString(0);
               String newpath = args.optString(1);
+              SftpConnection connection = connectionFor(args, 2);
 
-              if (ssh != null && sftp != null) {
-                sftp.rename(oldpath, newpath);
+              if (connection != null) {
+                SftpClient sftp = connection.acquire();
+                try {
+                  sftp.rename(oldpath, newpath);
+                } finally {
+                  connection.release(sftp);
+                  connection.metadata.invalidate(oldpath);
+                  connection.metadata.invalidate(newpath);
+                }
                 callback.success();
                 return;
               }
               callback.error("Not connected");
             } catch (SftpStatusException | SshException e) {
               callback.error(errMessage(e));
+            } catch (IOException e) {
+              callback.error(errMessage(e));
             }
           }
         }
@@ -1560,13 +2137,24 @@ public class Sftp extends CordovaPlugin {
         new Runnable() {
           public void run() {
             try {
-              if (ssh != null && sftp != null) {
-                String pwd = sftp.pwd();
+              SftpConnection connection = connectionFor(args, 0);
+              if (connection != null) {
+                String pwd = withReplay(
+                  connection,
+                  current -> {
+                    SftpClient sftp = current.acquire();
+                    try {
+                      return sftp.pwd();
+                    } finally {
+                      current.release(sftp);
+                    }
+                  }
+                );
                 callback.success(pwd);
                 return;
               }
               callback.error("Not connected");
-            } catch (SftpStatusException | SshException e) {
+            } catch (Exception e) {
               callback.error(errMessage(e));
             }
           }
@@ -1600,38 +2188,31 @@ public class Sftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
-            synchronized (connectionLock) {
-              if (ssh != null || sftp != null) {
-                closeConnectionQuietly();
-                callback.success();
-                return;
-              }
-              callback.success();
-            }
+            connections.close(nullableString(args, 0));
+            callback.success();
           }
         }
       );
   }
 
+  public void configureKeepalive(JSONArray args, CallbackContext callback) {
+    connections.configureKeepalive(args.optLong(0, 30000L), args.optLong(1, 10000L));
+    callback.success();
+  }
+
   public void isConnected(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
       .execute(
         new Runnable() {
           public void run() {
-            synchronized (connectionLock) {
-              if (
-                ssh != null &&
-                ssh.isConnected() &&
-                sftp != null &&
-                !sftp.isClosed()
-              ) {
-                callback.success(connectionID);
-                return;
-              }
-
-              callback.success(0);
+            SftpConnection connection = connectionFor(args, 0);
+            if (connection != null) {
+              callback.success(connection.id);
+              return;
             }
+
+            callback.success(0);
           }
         }
       );
@@ -0,0 +1,210 @@
+package com.foxdebug.sftp;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpHandle;
+import com.sshtools.client.sftp.SftpMessage;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranged reads of remote files through an open file handle, so a preview of
+ * the head or tail of a large file costs the bytes shown and no more. Blocks
+ * are cached per file version (size and modification time), which makes
+ * scrolling back and forth free and lets a changed file miss naturally.
+ * Missing blocks are requested together, keeping as many bytes in flight as
+ * a transfer does, instead of one round trip per block.
+ */
+final class SftpBlockCache {
+
+  static final int MAX_RANGE = 8 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 64 * 1024;
+  // What a caller gets without asking for a length: a screenful or two.
+  static final int DEFAULT_RANGE = 2 * BLOCK_SIZE;
+  private static final int MAX_BLOCKS = 64;
+  // Transfers keep SFTP_ASYNC_REQUESTS reads of 32 KB in flight.
+  private static final int MAX_REQUESTS = Math.max(
+    1,
+    Sftp.SFTP_ASYNC_REQUESTS * 32 * 1024 / BLOCK_SIZE
+  );
+  private static final int SSH_FXP_STATUS = 101;
+  private static final int SSH_FXP_DATA = 103;
+
+  private final SftpConnection connection;
+  private final LinkedHashMap<String, byte[]> blocks =
+    new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+        return size() > MAX_BLOCKS;
+      }
+    };
+
+  SftpBlockCache(SftpConnection connection) {
+    this.connection = connection;
+  }
+
+  static final class Range {
+
+    final long offset;
+    final long size;
+    final byte[] data;
+
+    Range(long offset, long size, byte[] data) {
+      this.offset = offset;
+      this.size = size;
+      this.data = data;
+    }
+  }
+
+  /**
+   * @param offset start of the range; negative counts back from the end
+   * @param length bytes wanted, at most MAX_RANGE; fewer come back at the end
+   * of the file
+   */
+  Range read(String path, long offset, int length)
+    throws IOException, SshException, SftpStatusException {
+    length = Math.max(0, Math.min(length, MAX_RANGE));
+    SftpClient sftp = connection.acquire();
+    try {
+      SftpFileAttributes attributes = sftp.stat(path);
+      long size = attributes.size().longValue();
+      String version = path + "\u0000" + size + "\u0000" +
+        attributes.lastModifiedTime().toMillis();
+
+      long start = offset < 0 ? Math.max(0, size + offset) : Math.min(offset, size);
+      int count = (int) Math.min(length, size - start);
+      byte[] data = new byte[count];
+      if (count == 0) return new Range(start, size, data);
+
+      long first = start / BLOCK_SIZE;
+      long last = (start + count - 1) / BLOCK_SIZE;
+      byte[][] range = new byte[(int) (last - first + 1)][];
+      List<Long> missing = new ArrayList<>();
+      synchronized (this) {
+        for (long index = first; index <= last; index++) {
+          range[(int) (index - first)] = blocks.get(version + "\u0000" + index);
+          if (range[(int) (index - first)] == null) missing.add(index);
+        }
+      }
+
+      if (!missing.isEmpty()) {
+        byte[][] fetched;
+        try (SftpHandle handle = sftp.openFile(path)) {
+          fetched = fetch(sftp.getSubsystemChannel(), handle, missing, size);
+        }
+        synchronized (this) {
+          for (int i = 0; i < fetched.length; i++) {
+            long index = missing.get(i);
+            blocks.put(version + "\u0000" + index, fetched[i]);
+            range[(int) (index - first)] = fetched[i];
+          }
+        }
+      }
+
+      for (long index = first; index <= last; index++) {
+        byte[] block = range[(int) (index - first)];
+        long blockStart = index * BLOCK_SIZE;
+        int from = (int) Math.max(0, start - blockStart);
+        int to = (int) Math.min(block.length, start + count - blockStart);
+        if (to > from) {
+          System.arraycopy(block, from, data, (int) (blockStart + from - start), to - from);
+        }
+      }
+      return new Range(start, size, data);
+    } finally {
+      connection.release(sftp);
+    }
+  }
+
+  synchronized void clear() {
+    blocks.clear();
+  }
+
+  /**
+   * Reads the given blocks with up to MAX_REQUESTS read requests outstanding.
+   * Every request that was posted is answered before this returns, so a
+   * failure leaves no stray responses on the channel.
+   */
+  private static byte[][] fetch(
+    SftpChannel channel,
+    SftpHandle handle,
+    List<Long> indices,
+    long size
+  ) throws IOException, SshException, SftpStatusException {
+    byte[][] fetched = new byte[indices.size()][];
+    ArrayDeque<UnsignedInteger32> requests = new ArrayDeque<>();
+    int posted = 0;
+    try {
+      for (int received = 0; received < fetched.length; received++) {
+        while (posted < fetched.length && requests.size() < MAX_REQUESTS) {
+          long position = indices.get(posted++) * BLOCK_SIZE;
+          requests.add(
+            handle.postReadRequest(position, (int) Math.min(BLOCK_SIZE, size - position))
+          );
+        }
+        long position = indices.get(received) * BLOCK_SIZE;
+        fetched[received] = receive(channel, handle, requests.poll(), position, size);
+      }
+    } finally {
+      while (!requests.isEmpty()) {
+        try {
+          channel.getResponse(requests.poll()).release();
+        } catch (SshException ignored) {
+          // The channel is gone; nothing is left to answer.
+          break;
+        }
+      }
+    }
+    return fetched;
+  }
+
+  private static byte[] receive(
+    SftpChannel channel,
+    SftpHandle handle,
+    UnsignedInteger32 request,
+    long position,
+    long size
+  ) throws IOException, SshException, SftpStatusException {
+    byte[] block = new byte[(int) Math.min(BLOCK_SIZE, size - position)];
+    int filled = 0;
+    SftpMessage message = channel.getResponse(request);
+    try {
+      if (message.getType() == SSH_FXP_DATA) {
+        byte[] bytes = message.readBinaryString();
+        filled = Math.min(bytes.length, block.length);
+        System.arraycopy(bytes, 0, block, 0, filled);
+      } else if (message.getType() == SSH_FXP_STATUS) {
+        int status = (int) message.readInt();
+        // At end of file the file shrank after the stat.
+        if (status != SftpStatusException.SSH_FX_EOF) throw new SftpStatusException(status);
+        block = new byte[0];
+      } else {
+        throw new SshException(
+          "Unexpected SFTP response " + message.getType(),
+          SshException.PROTOCOL_VIOLATION
+        );
+      }
+    } finally {
+      message.release();
+    }
+
+    // Servers may answer with less than asked for; the rest is read in turn.
+    while (filled < block.length) {
+      int read = handle.read(position + filled, block, filled, block.length - filled);
+      if (read <= 0) break;
+      filled += read;
+    }
+    if (filled == block.length) return block;
+    byte[] partial = new byte[filled];
+    System.arraycopy(block, 0, partial, 0, filled);
+    return partial;
+  }
+}
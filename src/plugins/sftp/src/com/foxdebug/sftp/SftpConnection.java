@@ -0,0 +1,229 @@
+package com.foxdebug.sftp;
+
+import android.util.Log;
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.ssh.SshException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One authenticated SSH session for a profile and the SFTP subsystem channels
+ * multiplexed over it. Each operation leases a channel for its duration, so a
+ * long transfer never holds up directory listings on the same session.
+ */
+final class SftpConnection {
+
+  private static final String TAG = "SFTP";
+  // Every channel gets its own SFTP_MAX_WINDOW_SIZE window from the policy.
+  private static final int MAX_CHANNELS = 4;
+  private static final long ACQUIRE_TIMEOUT_MS = 30000L;
+
+  final String id;
+  final SshClient ssh;
+  final SftpMetadata metadata;
+  final SftpBlockCache blocks;
+  // rg, grep-pcre, grep or empty once the first remote search has probed
+  // the server.
+  volatile String searchTool;
+  private final ArrayDeque<SftpClient> idle = new ArrayDeque<>();
+  private int open;
+  private int bulkInUse;
+  // Exec sessions running on the SSH session outside the channel leases.
+  private int pins;
+  private boolean closed;
+  private volatile long lastUsed = System.currentTimeMillis();
+
+  SftpConnection(String id, SshClient ssh, SftpClient first) {
+    this.id = id;
+    this.ssh = ssh;
+    this.metadata = new SftpMetadata(this);
+    this.blocks = new SftpBlockCache(this);
+    idle.push(first);
+    open = 1;
+  }
+
+  static SftpClient openChannel(SshClient ssh)
+    throws IOException, SshException, PermissionDeniedException {
+    SftpClient sftp = SftpClientBuilder.create().withClient(ssh).build();
+    try {
+      sftp.getSubsystemChannel().setCharsetEncoding("UTF-8");
+    } catch (UnsupportedEncodingException | SshException e) {
+      Log.w(TAG, "Failed to set UTF-8 encoding, using the default", e);
+    }
+    return sftp;
+  }
+
+  synchronized boolean isOpen() {
+    return !closed && ssh.isConnected();
+  }
+
+  void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Whether any channel is leased out or session pinned, however long ago it
+   * was touched.
+   */
+  synchronized boolean inUse() {
+    return open > idle.size() || pins > 0;
+  }
+
+  /** Keeps the session open for a command running outside the SFTP channels. */
+  synchronized void pin() {
+    pins++;
+    touch();
+  }
+
+  synchronized void unpin() {
+    if (pins > 0) pins--;
+    touch();
+  }
+
+  long idleMillis() {
+    return System.currentTimeMillis() - lastUsed;
+  }
+
+  /** Number of channels bulk transfers can hold at the same time. */
+  int bulkCapacity() {
+    return MAX_CHANNELS - 1;
+  }
+
+  /** Leases a channel for a short metadata operation. */
+  SftpClient acquire() throws IOException {
+    return acquire(false);
+  }
+
+  /**
+   * Leases a channel, opening a new one while under the limit. Bulk transfers
+   * may hold all channels but one, which stays free for metadata operations.
+   */
+  SftpClient acquire(boolean bulk) throws IOException {
+    long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT_MS;
+    synchronized (this) {
+      while (true) {
+        if (closed) throw new IOException("SFTP connection is closed");
+        if (!bulk || bulkInUse < MAX_CHANNELS - 1) {
+          SftpClient sftp = pollIdle();
+          if (sftp != null) {
+            if (bulk) bulkInUse++;
+            return sftp;
+          }
+          if (open < MAX_CHANNELS) {
+            open++;
+            if (bulk) bulkInUse++;
+            break;
+          }
+        }
+
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          throw new IOException("Timed out waiting for an SFTP channel");
+        }
+        try {
+          wait(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for an SFTP channel");
+        }
+      }
+    }
+
+    try {
+      return openChannel(ssh);
+    } catch (Exception e) {
+      synchronized (this) {
+        open--;
+        if (bulk) bulkInUse--;
+        notifyAll();
+      }
+      if (e instanceof IOException) throw (IOException) e;
+      throw new IOException("Failed to open SFTP channel: " + e.getMessage(), e);
+    }
+  }
+
+  void release(SftpClient sftp) {
+    release(sftp, false);
+  }
+
+  void release(SftpClient sftp, boolean bulk) {
+    boolean discard;
+    synchronized (this) {
+      if (bulk) bulkInUse--;
+      discard = closed || sftp.isClosed();
+      if (discard) open--;
+      else idle.push(sftp);
+      touch();
+      notifyAll();
+    }
+    if (discard) quitQuietly(sftp);
+  }
+
+  /** Issues a cheap request so server and NAT idle timers see traffic. */
+  boolean ping() {
+    SftpClient sftp;
+    synchronized (this) {
+      sftp = closed ? null : pollIdle();
+    }
+    // Every channel busy means the session is not idle.
+    if (sftp == null) return isOpen();
+
+    try {
+      sftp.stat(sftp.pwd());
+      return true;
+    } catch (Exception e) {
+      Log.w(TAG, "Keepalive failed for " + id, e);
+      return false;
+    } finally {
+      synchronized (this) {
+        if (closed || sftp.isClosed()) {
+          open--;
+        } else {
+          idle.push(sftp);
+        }
+        notifyAll();
+      }
+    }
+  }
+
+  void closeQuietly() {
+    List<SftpClient> channels;
+    synchronized (this) {
+      closed = true;
+      channels = new ArrayList<>(idle);
+      open -= idle.size();
+      idle.clear();
+      notifyAll();
+    }
+    for (SftpClient sftp : channels) quitQuietly(sftp);
+    try {
+      ssh.close();
+    } catch (Exception e) {
+      Log.w(TAG, "Failed to close the SSH connection for " + id, e);
+    }
+  }
+
+  private SftpClient pollIdle() {
+    while (!idle.isEmpty()) {
+      SftpClient sftp = idle.pop();
+      if (!sftp.isClosed()) return sftp;
+      open--;
+    }
+    return null;
+  }
+
+  private void quitQuietly(SftpClient sftp) {
+    try {
+      sftp.quit();
+    } catch (Exception e) {
+      Log.w(TAG, "Failed to close the SFTP subsystem for " + id, e);
+    }
+  }
+}
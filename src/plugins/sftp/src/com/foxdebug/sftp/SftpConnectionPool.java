@@ -0,0 +1,231 @@
+package com.foxdebug.sftp;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open connections keyed by connection (profile) ID, least recently used first.
+ * Switching between remote projects reuses the live session instead of
+ * renegotiating SSH. A supervisor pings sessions that have gone quiet, closes
+ * idle ones, and reconnects dead ones in the background so that a network
+ * change costs one reconnect instead of a broken session.
+ */
+final class SftpConnectionPool {
+
+  private static final String TAG = "SFTP";
+  private static final int MAX_CONNECTIONS = 4;
+  private static final long IDLE_TIMEOUT_MS = 10L * 60L * 1000L;
+  private static final long DEFAULT_KEEPALIVE_INTERVAL_MS = 30L * 1000L;
+  private static final long DEFAULT_KEEPALIVE_TIMEOUT_MS = 10L * 1000L;
+  private static final long MIN_KEEPALIVE_INTERVAL_MS = 5L * 1000L;
+
+  private final LinkedHashMap<String, SftpConnection> connections =
+    new LinkedHashMap<>(8, 0.75f, true);
+  private final ScheduledExecutorService supervisor =
+    Executors.newSingleThreadScheduledExecutor();
+  // Pings and reconnects block on the network, away from the supervisor.
+  private final ExecutorService probes = Executors.newCachedThreadPool();
+  private ScheduledFuture<?> sweep;
+  private volatile long keepaliveIntervalMs = DEFAULT_KEEPALIVE_INTERVAL_MS;
+  private volatile long keepaliveTimeoutMs = DEFAULT_KEEPALIVE_TIMEOUT_MS;
+  private volatile SftpTransfer.Reconnect reviver;
+  private String lastUsedID;
+
+  SftpConnectionPool() {
+    schedule();
+  }
+
+  /** Called with every session found dead that has not timed out. */
+  void setReviver(SftpTransfer.Reconnect reviver) {
+    this.reviver = reviver;
+  }
+
+  /**
+   * @param intervalMs quiet time after which a session is pinged; 0 turns
+   * pings off, dead sessions are still noticed and reconnected
+   * @param timeoutMs how long a ping may take before the session counts as dead
+   */
+  synchronized void configureKeepalive(long intervalMs, long timeoutMs) {
+    keepaliveIntervalMs = intervalMs <= 0
+      ? 0
+      : Math.max(MIN_KEEPALIVE_INTERVAL_MS, intervalMs);
+    keepaliveTimeoutMs = timeoutMs <= 0 ? DEFAULT_KEEPALIVE_TIMEOUT_MS : timeoutMs;
+    if (sweep != null) sweep.cancel(false);
+    schedule();
+  }
+
+  private synchronized void schedule() {
+    long period = keepaliveIntervalMs > 0
+      ? keepaliveIntervalMs
+      : DEFAULT_KEEPALIVE_INTERVAL_MS;
+    try {
+      sweep = supervisor.scheduleWithFixedDelay(
+        this::sweep,
+        period,
+        period,
+        TimeUnit.MILLISECONDS
+      );
+    } catch (RejectedExecutionException e) {
+      // Shut down.
+    }
+  }
+
+  synchronized String lastUsedID() {
+    return lastUsedID;
+  }
+
+  /**
+   * Returns the open connection for the ID, or the most recently used one when
+   * no ID is given. Dead connections are dropped and reported as absent.
+   */
+  SftpConnection get(String id) {
+    SftpConnection dead = null;
+    synchronized (this) {
+      if (id == null || id.isEmpty()) id = lastUsedID;
+      if (id == null) return null;
+      SftpConnection connection = connections.get(id);
+      if (connection != null && connection.isOpen()) {
+        connection.touch();
+        lastUsedID = id;
+        return connection;
+      }
+      if (connection != null) {
+        connections.remove(id);
+        dead = connection;
+      }
+    }
+    if (dead != null) dead.closeQuietly();
+    return null;
+  }
+
+  void put(SftpConnection connection) {
+    List<SftpConnection> evicted = new ArrayList<>();
+    synchronized (this) {
+      SftpConnection previous = connections.put(connection.id, connection);
+      if (previous != null && previous != connection) evicted.add(previous);
+      lastUsedID = connection.id;
+
+      // Connections with leases out stay, even if that leaves the pool over.
+      Iterator<SftpConnection> iterator = connections.values().iterator();
+      while (connections.size() > MAX_CONNECTIONS && iterator.hasNext()) {
+        SftpConnection eldest = iterator.next();
+        if (eldest == connection || eldest.inUse()) continue;
+        iterator.remove();
+        evicted.add(eldest);
+      }
+    }
+    for (SftpConnection stale : evicted) stale.closeQuietly();
+  }
+
+  /** Closes the connection if it is still the one registered under its ID. */
+  void invalidate(SftpConnection connection, Exception failure) {
+    synchronized (this) {
+      if (connections.get(connection.id) != connection) return;
+      connections.remove(connection.id);
+    }
+    Log.w(TAG, "Invalidating failed SFTP connection " + connection.id, failure);
+    connection.closeQuietly();
+  }
+
+  boolean close(String id) {
+    SftpConnection connection;
+    synchronized (this) {
+      if (id == null || id.isEmpty()) id = lastUsedID;
+      if (id == null) return false;
+      connection = connections.remove(id);
+      if (id.equals(lastUsedID)) lastUsedID = null;
+    }
+    if (connection == null) return false;
+    connection.closeQuietly();
+    return true;
+  }
+
+  void closeAll() {
+    List<SftpConnection> closing;
+    synchronized (this) {
+      closing = new ArrayList<>(connections.values());
+      connections.clear();
+      lastUsedID = null;
+    }
+    for (SftpConnection connection : closing) connection.closeQuietly();
+  }
+
+  void shutdown() {
+    supervisor.shutdownNow();
+    probes.shutdownNow();
+    closeAll();
+  }
+
+  private void sweep() {
+    List<SftpConnection> closing = new ArrayList<>();
+    List<SftpConnection> dead = new ArrayList<>();
+    List<SftpConnection> quiet = new ArrayList<>();
+    long interval = keepaliveIntervalMs;
+    synchronized (this) {
+      Iterator<SftpConnection> iterator = connections.values().iterator();
+      while (iterator.hasNext()) {
+        SftpConnection connection = iterator.next();
+        long idleMillis = connection.idleMillis();
+        if (idleMillis > IDLE_TIMEOUT_MS && !connection.inUse()) {
+          iterator.remove();
+          closing.add(connection);
+          if (connection.id.equals(lastUsedID)) lastUsedID = null;
+        } else if (!connection.isOpen()) {
+          dead.add(connection);
+        } else if (interval > 0 && idleMillis >= interval) {
+          quiet.add(connection);
+        }
+      }
+    }
+    for (SftpConnection connection : closing) connection.closeQuietly();
+    for (SftpConnection connection : quiet) {
+      if (!probe(connection)) dead.add(connection);
+    }
+    for (SftpConnection connection : dead) revive(connection);
+  }
+
+  /** Pings the session, counting a ping that takes too long as a failure. */
+  private boolean probe(SftpConnection connection) {
+    Future<Boolean> ping;
+    try {
+      ping = probes.submit(connection::ping);
+    } catch (RejectedExecutionException e) {
+      return true;
+    }
+    try {
+      return ping.get(keepaliveTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      ping.cancel(true);
+      if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void revive(SftpConnection connection) {
+    invalidate(connection, null);
+    SftpTransfer.Reconnect current = reviver;
+    if (current == null) return;
+    try {
+      probes.execute(() -> {
+        try {
+          current.reconnect(connection);
+        } catch (IOException e) {
+          Log.w(TAG, "Background reconnect failed for " + connection.id, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Shut down.
+    }
+  }
+}
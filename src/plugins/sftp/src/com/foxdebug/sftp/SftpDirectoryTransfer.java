@@ -0,0 +1,368 @@
+package com.foxdebug.sftp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Recursive download or upload of a directory. The tree is planned first on a
+ * single channel, files whose size and modification time already match are
+ * skipped, and the rest are transferred concurrently over the connection's
+ * bulk channels with one aggregate progress stream. Symlinks are not followed.
+ */
+final class SftpDirectoryTransfer {
+
+  private static final long PROGRESS_INTERVAL_MS = 200L;
+  // Filesystems round modification times differently.
+  private static final long MTIME_TOLERANCE_MS = 2000L;
+
+  private final String id;
+  private final boolean upload;
+  private final String remoteRoot;
+  private final File localRoot;
+  private final ContentResolver resolver;
+  private final CallbackContext callback;
+  private final int concurrency;
+  private final List<PathMatcher> include = new ArrayList<>();
+  private final List<PathMatcher> exclude = new ArrayList<>();
+  private final List<FileTask> tasks = new ArrayList<>();
+  private final Set<SftpTransfer> active = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean cancelled = new AtomicBoolean(false);
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicInteger files = new AtomicInteger();
+  private final AtomicLong lastProgressAt = new AtomicLong();
+  private long totalBytes;
+  private int skipped;
+
+  SftpDirectoryTransfer(
+    String id,
+    boolean upload,
+    String remoteRoot,
+    File localRoot,
+    JSONObject options,
+    ContentResolver resolver,
+    CallbackContext callback
+  ) {
+    this.id = id;
+    this.upload = upload;
+    this.remoteRoot = trimTrailingSlash(remoteRoot);
+    this.localRoot = localRoot;
+    this.resolver = resolver;
+    this.callback = callback;
+    this.concurrency = Math.max(1, options.optInt("concurrency", Integer.MAX_VALUE));
+    addMatchers(options.optJSONArray("include"), include);
+    addMatchers(options.optJSONArray("exclude"), exclude);
+  }
+
+  void cancel() {
+    cancelled.set(true);
+    for (SftpTransfer transfer : active) transfer.cancel();
+  }
+
+  void run(SftpConnection connection, SftpTransfer.Reconnect reconnect)
+    throws IOException, SshException, SftpStatusException, TransferCancelledException, JSONException {
+    SftpClient sftp = connection.acquire();
+    try {
+      if (upload) {
+        planUpload(sftp);
+      } else {
+        planDownload(sftp);
+      }
+    } finally {
+      connection.release(sftp);
+      if (upload) connection.metadata.invalidate(remoteRoot);
+    }
+    sendProgress();
+
+    int workers = Math.max(
+      1,
+      Math.min(Math.min(concurrency, connection.bulkCapacity()), tasks.size())
+    );
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<Void>> pending = new ArrayList<>(tasks.size());
+    try {
+      for (FileTask task : tasks) {
+        pending.add(executor.submit(() -> {
+          transfer(task, connection, reconnect);
+          return null;
+        }));
+      }
+      for (Future<Void> future : pending) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          cancel();
+          throw new TransferCancelledException();
+        } catch (ExecutionException e) {
+          cancel();
+          Throwable cause = e.getCause();
+          if (cause instanceof TransferCancelledException) throw (TransferCancelledException) cause;
+          if (cause instanceof SftpStatusException) throw (SftpStatusException) cause;
+          if (cause instanceof SshException) throw (SshException) cause;
+          if (cause instanceof IOException) throw (IOException) cause;
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          throw new IOException(cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      if (upload) connection.metadata.invalidate(remoteRoot);
+    }
+    if (cancelled.get()) throw new TransferCancelledException();
+
+    JSONObject done = event("done");
+    done.put("files", files.get());
+    done.put("skipped", skipped);
+    done.put("bytes", bytes.get());
+    send(done, false);
+  }
+
+  private void planDownload(SftpClient sftp)
+    throws IOException, SshException, SftpStatusException, TransferCancelledException {
+    ArrayDeque<String> dirs = new ArrayDeque<>();
+    dirs.add("");
+    while (!dirs.isEmpty()) {
+      if (cancelled.get()) throw new TransferCancelledException();
+      String dir = dirs.poll();
+      File localDir = local(dir);
+      if (!localDir.isDirectory() && !localDir.mkdirs()) {
+        throw new IOException("Unable to create " + localDir);
+      }
+
+      for (SftpFile file : sftp.ls(remote(dir))) {
+        String name = file.getFilename();
+        if (name.equals(".") || name.equals("..")) continue;
+        String path = join(dir, name);
+        if (matches(exclude, path, name)) continue;
+
+        SftpFileAttributes attributes = file.attributes();
+        if (attributes.isDirectory()) {
+          dirs.add(path);
+        } else if (attributes.isFile() && included(path, name)) {
+          long size = attributes.size().longValue();
+          long modified = attributes.lastModifiedTime().toMillis();
+          File target = local(path);
+          if (
+            target.isFile() &&
+            target.length() == size &&
+            Math.abs(target.lastModified() - modified) < MTIME_TOLERANCE_MS
+          ) {
+            skipped++;
+            continue;
+          }
+          tasks.add(new FileTask(remote(path), target, modified));
+          totalBytes += size;
+        }
+      }
+    }
+  }
+
+  private void planUpload(SftpClient sftp)
+    throws IOException, SshException, SftpStatusException, TransferCancelledException {
+    if (!localRoot.isDirectory()) {
+      throw new IOException("Local directory does not exist: " + localRoot);
+    }
+
+    ArrayDeque<String> dirs = new ArrayDeque<>();
+    dirs.add("");
+    while (!dirs.isEmpty()) {
+      if (cancelled.get()) throw new TransferCancelledException();
+      String dir = dirs.poll();
+      Map<String, SftpFileAttributes> existing = listOrCreate(sftp, remote(dir));
+      File[] children = local(dir).listFiles();
+      if (children == null) continue;
+
+      for (File child : children) {
+        String name = child.getName();
+        String path = join(dir, name);
+        if (matches(exclude, path, name)) continue;
+
+        if (child.isDirectory()) {
+          dirs.add(path);
+        } else if (child.isFile() && included(path, name)) {
+          SftpFileAttributes attributes = existing.get(name);
+          if (
+            attributes != null &&
+            attributes.isFile() &&
+            attributes.size().longValue() == child.length() &&
+            attributes.lastModifiedTime().toMillis() >=
+            child.lastModified() - MTIME_TOLERANCE_MS
+          ) {
+            skipped++;
+            continue;
+          }
+          tasks.add(new FileTask(remote(path), child, child.lastModified()));
+          totalBytes += child.length();
+        }
+      }
+    }
+  }
+
+  private Map<String, SftpFileAttributes> listOrCreate(SftpClient sftp, String dir)
+    throws SshException, SftpStatusException {
+    Map<String, SftpFileAttributes> existing = new HashMap<>();
+    SftpFile[] listing;
+    try {
+      listing = sftp.ls(dir);
+    } catch (SftpStatusException e) {
+      sftp.mkdir(dir);
+      return existing;
+    }
+    for (SftpFile file : listing) existing.put(file.getFilename(), file.attributes());
+    return existing;
+  }
+
+  private void transfer(FileTask task, SftpConnection connection, SftpTransfer.Reconnect reconnect)
+    throws Exception {
+    if (cancelled.get()) throw new TransferCancelledException();
+
+    SftpTransfer transfer = new SftpTransfer(
+      id,
+      upload,
+      task.remotePath,
+      Uri.fromFile(task.local),
+      resolver,
+      null,
+      this::progressed
+    );
+    active.add(transfer);
+    try {
+      if (cancelled.get()) transfer.cancel();
+      transfer.run(connection, reconnect);
+    } finally {
+      active.remove(transfer);
+    }
+
+    // Stamping the remote time is what lets the next run skip this file.
+    if (!upload) task.local.setLastModified(task.modified);
+    files.incrementAndGet();
+    maybeSendProgress();
+  }
+
+  private void progressed(long count) {
+    bytes.addAndGet(count);
+    try {
+      maybeSendProgress();
+    } catch (JSONException ignored) {}
+  }
+
+  private void maybeSendProgress() throws JSONException {
+    long now = System.currentTimeMillis();
+    long last = lastProgressAt.get();
+    if (now - last < PROGRESS_INTERVAL_MS) return;
+    if (!lastProgressAt.compareAndSet(last, now)) return;
+    sendProgress();
+  }
+
+  private void sendProgress() throws JSONException {
+    long done = Math.min(bytes.get(), totalBytes);
+    JSONObject event = event("progress");
+    event.put("data", totalBytes == 0 ? 100 : (int) ((done * 100) / totalBytes));
+    event.put("bytes", done);
+    event.put("totalBytes", totalBytes);
+    event.put("files", files.get());
+    event.put("totalFiles", tasks.size());
+    event.put("skipped", skipped);
+    send(event, true);
+  }
+
+  private JSONObject event(String type) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("id", id);
+    event.put("type", type);
+    event.put("action", type);
+    return event;
+  }
+
+  private void send(JSONObject event, boolean keep) {
+    PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+    result.setKeepCallback(keep);
+    callback.sendPluginResult(result);
+  }
+
+  private boolean included(String path, String name) {
+    return include.isEmpty() || matches(include, path, name);
+  }
+
+  private static boolean matches(List<PathMatcher> matchers, String path, String name) {
+    for (PathMatcher matcher : matchers) {
+      if (matcher.matches(Paths.get(path)) || matcher.matches(Paths.get(name))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void addMatchers(JSONArray patterns, List<PathMatcher> into) {
+    if (patterns == null) return;
+    for (int i = 0; i < patterns.length(); i++) {
+      String pattern = patterns.optString(i, "");
+      if (pattern.length() > 0) {
+        into.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+      }
+    }
+  }
+
+  private File local(String path) {
+    return path.length() == 0 ? localRoot : new File(localRoot, path);
+  }
+
+  private String remote(String path) {
+    if (path.length() == 0) return remoteRoot.isEmpty() ? "/" : remoteRoot;
+    return remoteRoot + "/" + path;
+  }
+
+  private static String join(String parent, String name) {
+    return parent.length() == 0 ? name : parent + "/" + name;
+  }
+
+  private static String trimTrailingSlash(String path) {
+    while (path.length() > 1 && path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return path.equals("/") ? "" : path;
+  }
+
+  private static final class FileTask {
+
+    final String remotePath;
+    final File local;
+    final long modified;
+
+    FileTask(String remotePath, File local, long modified) {
+      this.remotePath = remotePath;
+      this.local = local;
+      this.modified = modified;
+    }
+  }
+}
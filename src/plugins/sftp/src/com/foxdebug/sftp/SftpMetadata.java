@@ -0,0 +1,317 @@
+package com.foxdebug.sftp;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remote metadata for one connection. Listings and the entries they contain
+ * are cached for a short time so that expanding a folder and then stat-ing its
+ * children costs one round trip, and symlinks in a listing are resolved
+ * concurrently over the connection's channels rather than one after another.
+ * Our own mutations invalidate the affected paths.
+ */
+final class SftpMetadata {
+
+  private static final long TTL_MS = 5000L;
+  private static final int MAX_ENTRIES = 4096;
+  private static final int MAX_LISTINGS = 256;
+  private static final ExecutorService linkResolver =
+    Executors.newFixedThreadPool(4);
+
+  private final SftpConnection connection;
+  private final LinkedHashMap<String, Cached<JSONObject>> entries =
+    new LinkedHashMap<String, Cached<JSONObject>>(64, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, Cached<JSONObject>> eldest
+      ) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+  private final LinkedHashMap<String, Cached<List<JSONObject>>> listings =
+    new LinkedHashMap<String, Cached<List<JSONObject>>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, Cached<List<JSONObject>>> eldest
+      ) {
+        return size() > MAX_LISTINGS;
+      }
+    };
+
+  SftpMetadata(SftpConnection connection) {
+    this.connection = connection;
+  }
+
+  JSONArray list(String path)
+    throws IOException, SshException, SftpStatusException, JSONException {
+    String key = normalize(path);
+    List<JSONObject> cached = fresh(listings, key);
+    if (cached != null) return new JSONArray(cached);
+
+    SftpFile[] files;
+    SftpClient sftp = connection.acquire();
+    try {
+      files = sftp.ls(path);
+    } finally {
+      connection.release(sftp);
+    }
+
+    List<JSONObject> result = new ArrayList<>();
+    List<JSONObject> links = new ArrayList<>();
+    for (SftpFile file : files) {
+      String filename = file.getFilename();
+      if (filename.equals(".") || filename.equals("..")) {
+        continue;
+      }
+      SftpFileAttributes fileAttributes = file.attributes();
+      JSONObject fileInfo = new JSONObject();
+      fileInfo.put("name", filename);
+      fileInfo.put("exists", true);
+
+      if (fileAttributes != null) {
+        String permissions = fileAttributes.toPermissionsString();
+        boolean canRead = permissions.charAt(1) == 'r';
+        boolean canWrite = permissions.charAt(2) == 'w';
+        fileInfo.put("canRead", canRead);
+        fileInfo.put("canWrite", canWrite);
+        fileInfo.put("permissions", permissions);
+        fileInfo.put("length", fileAttributes.size());
+        fileInfo.put("url", file.getAbsolutePath());
+        fileInfo.put("lastModified", fileAttributes.lastModifiedTime());
+
+        if (permissions.charAt(0) == 'l') {
+          fileInfo.put("isLink", true);
+          links.add(fileInfo);
+        } else {
+          fileInfo.put("isLink", false);
+          fileInfo.put("isDirectory", fileAttributes.isDirectory());
+          fileInfo.put("isFile", fileAttributes.isFile());
+        }
+      }
+
+      result.add(fileInfo);
+    }
+
+    resolveLinks(links);
+
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (JSONObject fileInfo : result) {
+        String url = fileInfo.optString("url", null);
+        if (url != null) entries.put(normalize(url), new Cached<>(fileInfo, now));
+      }
+      listings.put(key, new Cached<>(result, now));
+    }
+    return new JSONArray(result);
+  }
+
+  JSONObject stat(String path)
+    throws IOException, SshException, JSONException {
+    String key = normalize(path);
+    JSONObject cached = fresh(entries, key);
+    if (cached != null) {
+      JSONObject fileStat = new JSONObject(cached.toString());
+      fileStat.put("url", path);
+      // A listing reports broken links as present; stat reports them missing.
+      if (
+        fileStat.optString("permissions").startsWith("l") &&
+        !fileStat.optBoolean("isLink")
+      ) {
+        fileStat.put("exists", false);
+      }
+      return fileStat;
+    }
+
+    JSONObject fileStat = new JSONObject();
+    SftpClient sftp = connection.acquire();
+    try {
+      SftpFileAttributes fileAttributes = sftp.stat(path);
+      if (fileAttributes != null) {
+        String permissions = fileAttributes.toPermissionsString();
+        boolean canRead = permissions.charAt(1) == 'r';
+        boolean canWrite = permissions.charAt(2) == 'w';
+
+        fileStat.put("exists", true);
+        fileStat.put("canRead", canRead);
+        fileStat.put("canWrite", canWrite);
+        fileStat.put("isLink", fileAttributes.isLink());
+        fileStat.put("isDirectory", fileAttributes.isDirectory());
+        fileStat.put("isFile", fileAttributes.isFile());
+        fileStat.put("length", fileAttributes.size());
+        fileStat.put("permissions", fileAttributes.toPermissionsString());
+        fileStat.put("lastModified", fileAttributes.lastModifiedTime());
+        String[] pathSegments = path.split("/");
+        String filename = pathSegments[pathSegments.length - 1];
+
+        fileStat.put("name", filename);
+        fileStat.put("url", path);
+        if (permissions.charAt(0) == 'l') {
+          fileStat.put("isLink", true);
+          try {
+            String linkTarget = sftp.getSymbolicLinkTarget(path);
+            fileStat.put("linkTarget", linkTarget);
+            SftpFileAttributes linkAttributes = sftp.stat(linkTarget);
+            fileStat.put("isFile", linkAttributes.isFile());
+            fileStat.put("isDirectory", linkAttributes.isDirectory());
+          } catch (SftpStatusException | SshException e) {
+            // Handle broken symlink
+            fileStat.put("isFile", false);
+            fileStat.put("isDirectory", false);
+            fileStat.put("isLink", false);
+            fileStat.put("exists", false);
+          }
+        } else {
+          fileStat.put("isLink", false);
+          fileStat.put("isDirectory", fileAttributes.isDirectory());
+          fileStat.put("isFile", fileAttributes.isFile());
+        }
+
+        if (fileStat.optBoolean("exists")) {
+          synchronized (this) {
+            entries.put(key, new Cached<>(fileStat, System.currentTimeMillis()));
+          }
+          fileStat = new JSONObject(fileStat.toString());
+        }
+      }
+    } catch (SftpStatusException e) {
+      fileStat.put("exists", false);
+      fileStat.put("url", path);
+    } finally {
+      connection.release(sftp);
+    }
+    return fileStat;
+  }
+
+  /**
+   * Forgets the path, everything below it and the listing of its parent.
+   */
+  synchronized void invalidate(String path) {
+    if (path == null || path.isEmpty()) return;
+    String key = normalize(path);
+    String prefix = key.equals("/") ? "/" : key + "/";
+    removeTree(entries, key, prefix);
+    removeTree(listings, key, prefix);
+
+    int slash = key.lastIndexOf('/');
+    if (slash >= 0) listings.remove(slash == 0 ? "/" : key.substring(0, slash));
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    listings.clear();
+  }
+
+  private void resolveLinks(List<JSONObject> links) throws IOException, SshException {
+    if (links.isEmpty()) return;
+
+    List<Future<Void>> pending = new ArrayList<>(links.size());
+    for (JSONObject fileInfo : links) {
+      pending.add(
+        linkResolver.submit(() -> {
+          resolveLink(fileInfo);
+          return null;
+        })
+      );
+    }
+
+    for (Future<Void> future : pending) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        for (Future<Void> other : pending) other.cancel(true);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted resolving symlinks");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof SshException) throw (SshException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new IOException(cause);
+      }
+    }
+  }
+
+  private void resolveLink(JSONObject fileInfo) throws IOException, JSONException {
+    String path = fileInfo.getString("url");
+    SftpClient sftp = connection.acquire();
+    try {
+      String linkTarget = sftp.getSymbolicLinkTarget(path);
+      fileInfo.put("linkTarget", linkTarget);
+
+      JSONObject target = fresh(entries, normalize(linkTarget));
+      if (target != null && !target.optBoolean("isLink")) {
+        fileInfo.put("isFile", target.optBoolean("isFile"));
+        fileInfo.put("isDirectory", target.optBoolean("isDirectory"));
+        return;
+      }
+
+      SftpFileAttributes linkAttributes = sftp.stat(linkTarget);
+      fileInfo.put("isFile", linkAttributes.isFile());
+      fileInfo.put("isDirectory", linkAttributes.isDirectory());
+    } catch (SftpStatusException | SshException e) {
+      // Handle broken symlink
+      fileInfo.put("isFile", false);
+      fileInfo.put("isDirectory", false);
+      fileInfo.put("isLink", false);
+    } finally {
+      connection.release(sftp);
+    }
+  }
+
+  private synchronized <T> T fresh(Map<String, Cached<T>> cache, String key) {
+    Cached<T> cached = cache.get(key);
+    if (cached == null) return null;
+    if (System.currentTimeMillis() - cached.at > TTL_MS) {
+      cache.remove(key);
+      return null;
+    }
+    return cached.value;
+  }
+
+  private static <T> void removeTree(
+    Map<String, T> cache,
+    String key,
+    String prefix
+  ) {
+    Iterator<String> iterator = cache.keySet().iterator();
+    while (iterator.hasNext()) {
+      String path = iterator.next();
+      if (path.equals(key) || path.startsWith(prefix)) iterator.remove();
+    }
+  }
+
+  private static String normalize(String path) {
+    if (path.length() > 1 && path.endsWith("/")) {
+      return path.substring(0, path.length() - 1);
+    }
+    return path;
+  }
+
+  private static final class Cached<T> {
+
+    final T value;
+    final long at;
+
+    Cached(T value, long at) {
+      this.value = value;
+      this.at = at;
+    }
+  }
+}
@@ -0,0 +1,668 @@
+package com.foxdebug.sftp;
+
+import android.util.Log;
+import com.sshtools.client.SessionChannelNG;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.Channel;
+import com.sshtools.common.ssh.ChannelEventListener;
+import com.sshtools.common.ssh.RequestFuture;
+import com.sshtools.common.ssh.SshException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Content search over a remote directory. When the server has rg or grep the
+ * search runs there and only matching lines cross the wire; otherwise files
+ * are read over the connection's bulk channels in parallel and matched here.
+ * Results use the event shape of the local workspace search.
+ */
+final class SftpSearch {
+
+  private static final String TAG = "SFTP";
+  private static final int MAX_MATCHES_PER_FILE = 5000;
+  private static final int RESULT_BATCH_SIZE = 12;
+  private static final int RESULT_BATCH_MATCHES = 600;
+  // Minified files can put a whole bundle on one line.
+  private static final int MAX_LINE_BYTES = 64 * 1024;
+  private static final long MAX_FALLBACK_FILE_BYTES = 1024L * 1024L;
+  private static final long COMMAND_TIMEOUT_MS = 30000L;
+  private static final int MAX_STDERR_BYTES = 4096;
+  private static final byte[] END = new byte[0];
+
+  private final String id;
+  private final String root;
+  private final String rootUrl;
+  private final String search;
+  private final boolean regExp;
+  private final boolean wholeWord;
+  private final boolean caseSensitive;
+  private final boolean batchResults;
+  private final Pattern pattern;
+  private final List<String> includeGlobs;
+  private final List<String> excludeGlobs;
+  private final List<PathMatcher> include = new ArrayList<>();
+  private final List<PathMatcher> exclude = new ArrayList<>();
+  private final CallbackContext callback;
+  private final JSONArray batch = new JSONArray();
+  private int batchedMatches;
+  private volatile boolean cancelled;
+  private volatile SessionChannelNG channel;
+
+  SftpSearch(String id, JSONObject options, CallbackContext callback) {
+    this.id = id;
+    this.root = trimTrailingSlash(options.optString("root", ""));
+    String url = options.optString("rootUrl", "");
+    this.rootUrl = trimTrailingSlash(url.isEmpty() ? root : url);
+    this.search = options.optString("search", "");
+    this.batchResults = options.optBoolean("batchResults", false);
+    this.callback = callback;
+
+    JSONObject searchOptions = options.optJSONObject("options");
+    if (searchOptions == null) searchOptions = new JSONObject();
+    regExp = searchOptions.optBoolean("regExp", false);
+    wholeWord = searchOptions.optBoolean("wholeWord", false);
+    caseSensitive = searchOptions.optBoolean("caseSensitive", false);
+    pattern = compilePattern();
+    includeGlobs = splitPatterns(searchOptions.optString("include", ""));
+    excludeGlobs = splitPatterns(searchOptions.optString("exclude", ""));
+    addMatchers(includeGlobs, include);
+    addMatchers(excludeGlobs, exclude);
+  }
+
+  void cancel() {
+    cancelled = true;
+    SessionChannelNG current = channel;
+    if (current != null) closeQuietly(current);
+  }
+
+  void run(SftpConnection connection)
+    throws IOException, SshException, SftpStatusException, JSONException {
+    sendStatus("Searching files");
+    if (search.isEmpty()) {
+      finish();
+      return;
+    }
+
+    String tool = connection.searchTool;
+    if (tool == null) {
+      tool = findSearchTool(connection);
+      connection.searchTool = tool;
+    }
+
+    // Results are matched again with Java's regex, so a regex search only runs
+    // remotely when the tool's dialect is close to it. POSIX ERE is not.
+    boolean searched = false;
+    if (!tool.isEmpty() && !(regExp && tool.equals("grep"))) {
+      searched = searchRemotely(connection, tool);
+    }
+    if (!searched && !cancelled) {
+      searchByReading(connection);
+    }
+    finish();
+  }
+
+  private String findSearchTool(SftpConnection connection) throws IOException {
+    StringBuffer buffer = new StringBuffer();
+    int code = connection.ssh.executeCommandWithResult(
+      "command -v rg >/dev/null 2>&1 && echo rg || " +
+      "(command -v grep >/dev/null 2>&1 && " +
+      "{ echo x | grep -q -P x 2>/dev/null && echo grep-pcre || echo grep; })",
+      buffer
+    );
+    String tool = buffer.toString().trim();
+    if (
+      code != 0 ||
+      !(tool.equals("rg") || tool.equals("grep-pcre") || tool.equals("grep"))
+    ) {
+      return "";
+    }
+    return tool;
+  }
+
+  /**
+   * Runs rg or grep in the root and parses its output as it streams in.
+   * Returns false when the tool failed before reporting anything and
+   * complained on stderr, such as about a pattern it does not understand, so
+   * that the caller can fall back to reading files.
+   */
+  private boolean searchRemotely(SftpConnection connection, String tool)
+    throws IOException, SshException, JSONException {
+    String command = "cd -- " + quote(root.isEmpty() ? "." : root) + " && " +
+      (tool.equals("rg") ? rgCommand() : grepCommand());
+
+    BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    SessionChannelNG session = connection.ssh.openSessionChannel(true);
+    channel = session;
+    session.addEventListener(
+      new ChannelEventListener() {
+        @Override
+        public void onChannelDataIn(Channel source, ByteBuffer data) {
+          ByteBuffer view = data.asReadOnlyBuffer();
+          byte[] bytes = new byte[view.remaining()];
+          view.get(bytes);
+          chunks.add(bytes);
+        }
+
+        @Override
+        public void onChannelExtendedData(
+          Channel source,
+          ByteBuffer data,
+          int type
+        ) {
+          ByteBuffer view = data.asReadOnlyBuffer();
+          int length = Math.min(view.remaining(), MAX_STDERR_BYTES - errors.size());
+          if (length <= 0) return;
+          byte[] bytes = new byte[length];
+          view.get(bytes);
+          errors.write(bytes, 0, length);
+        }
+
+        @Override
+        public void onChannelClose(Channel source) {
+          chunks.add(END);
+        }
+
+        @Override
+        public void onChannelError(Channel source, Throwable error) {
+          chunks.add(END);
+        }
+      }
+    );
+
+    OutputParser parser = new OutputParser();
+    try {
+      if (cancelled) return true;
+      RequestFuture started = session
+        .executeCommand(command)
+        .waitFor(COMMAND_TIMEOUT_MS);
+      if (!started.isSuccess()) {
+        Log.w(TAG, "Remote server rejected the search command");
+        return false;
+      }
+
+      while (true) {
+        byte[] chunk;
+        try {
+          chunk = chunks.poll(250L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while searching");
+        }
+        if (cancelled) return true;
+        if (chunk == null) continue;
+        if (chunk == END) break;
+        parser.feed(chunk);
+      }
+      parser.finish();
+    } finally {
+      channel = null;
+      closeQuietly(session);
+    }
+
+    // 1 means nothing matched. 2 also covers unreadable files, which both tools
+    // are told to keep quiet about, so only a message on stderr means failure.
+    int code = session.getExitCode();
+    if (code == 0 || code == 1 || parser.records > 0) return true;
+    String message = errors.toString(StandardCharsets.UTF_8.name()).trim();
+    if (code == 2 && message.isEmpty()) return true;
+    Log.w(TAG, "Remote search failed with " + code + ": " + message);
+    return false;
+  }
+
+  private String rgCommand() {
+    StringBuilder command = new StringBuilder(
+      "rg --no-heading --with-filename --line-number --null --color never " +
+      "--no-messages --no-ignore --hidden --max-count " + MAX_MATCHES_PER_FILE
+    );
+    command.append(caseSensitive ? " -s" : " -i");
+    if (!regExp) command.append(" -F");
+    if (wholeWord) command.append(" -w");
+    for (String glob : includeGlobs) command.append(" -g ").append(quote(glob));
+    for (String glob : excludeGlobs) command.append(" -g ").append(quote("!" + glob));
+    command.append(" -e ").append(quote(search)).append(" -- .");
+    return command.toString();
+  }
+
+  private String grepCommand() {
+    StringBuilder command = new StringBuilder(
+      "grep -r -n -H -I -s --null --color=never -m " + MAX_MATCHES_PER_FILE
+    );
+    if (!caseSensitive) command.append(" -i");
+    command.append(regExp ? " -P" : " -F");
+    if (wholeWord) command.append(" -w");
+
+    // grep only matches globs against names, so path globs are left to the
+    // local filter that every result goes through anyway.
+    boolean namesOnly = true;
+    for (String glob : includeGlobs) {
+      if (glob.contains("/")) namesOnly = false;
+    }
+    if (namesOnly) {
+      for (String glob : includeGlobs) {
+        command.append(" --include=").append(quote(glob));
+      }
+    }
+    for (String glob : excludeGlobs) {
+      String name = glob;
+      while (name.startsWith("**/")) name = name.substring(3);
+      if (name.endsWith("/**") && !name.substring(0, name.length() - 3).contains("/")) {
+        command.append(" --exclude-dir=").append(quote(name.substring(0, name.length() - 3)));
+      } else if (!name.contains("/")) {
+        command.append(" --exclude=").append(quote(name));
+      }
+    }
+    command.append(" -e ").append(quote(search)).append(" -- .");
+    return command.toString();
+  }
+
+  /**
+   * Walks the tree through the metadata cache and reads candidate files over
+   * the bulk channels, keeping as many reads in flight as the connection
+   * allows.
+   */
+  private void searchByReading(SftpConnection connection)
+    throws IOException, SshException, SftpStatusException, JSONException {
+    List<String> files = new ArrayList<>();
+    ArrayDeque<String> dirs = new ArrayDeque<>();
+    dirs.add("");
+    while (!dirs.isEmpty()) {
+      if (cancelled) return;
+      String dir = dirs.poll();
+      JSONArray listing = connection.metadata.list(remote(dir));
+      for (int i = 0; i < listing.length(); i++) {
+        JSONObject entry = listing.getJSONObject(i);
+        if (entry.optBoolean("isLink")) continue;
+        String name = entry.optString("name");
+        String path = dir.isEmpty() ? name : dir + "/" + name;
+        if (matches(exclude, path, name)) continue;
+        if (entry.optBoolean("isDirectory")) {
+          dirs.add(path);
+        } else if (
+          entry.optBoolean("isFile") &&
+          entry.optLong("length", 0) <= MAX_FALLBACK_FILE_BYTES &&
+          included(path, name)
+        ) {
+          files.add(path);
+        }
+      }
+    }
+
+    int workers = Math.max(1, Math.min(connection.bulkCapacity(), files.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<Void>> pending = new ArrayList<>(files.size());
+    try {
+      for (String path : files) {
+        pending.add(executor.submit(() -> {
+          searchFile(connection, path);
+          return null;
+        }));
+      }
+      for (Future<Void> future : pending) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while searching");
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) throw (IOException) cause;
+          if (cause instanceof SshException) throw (SshException) cause;
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          throw new IOException(cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void searchFile(SftpConnection connection, String path)
+    throws IOException, JSONException {
+    if (cancelled) return;
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    SftpClient sftp = connection.acquire(true);
+    try {
+      sftp.get(remote(path), content, null, 0L);
+    } catch (SftpStatusException e) {
+      Log.d(TAG, "Skipping unreadable search file " + path, e);
+      return;
+    } catch (Exception e) {
+      if (!connection.isOpen()) {
+        throw new IOException("Connection lost while searching", e);
+      }
+      Log.d(TAG, "Skipping unreadable search file " + path, e);
+      return;
+    } finally {
+      connection.release(sftp, true);
+    }
+
+    byte[] bytes = content.toByteArray();
+    // Same heuristic as grep -I.
+    for (int i = 0; i < Math.min(bytes.length, 8192); i++) {
+      if (bytes[i] == 0) return;
+    }
+
+    FileResult result = new FileResult(path);
+    String text = new String(bytes, StandardCharsets.UTF_8);
+    int row = 0;
+    int start = 0;
+    while (start <= text.length() && !result.limited) {
+      int end = text.indexOf('\n', start);
+      if (end < 0) end = text.length();
+      int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+      result.addLine(row++, text.substring(start, lineEnd));
+      start = end + 1;
+    }
+    emit(result);
+  }
+
+  private synchronized void emit(FileResult result) throws JSONException {
+    if (cancelled || result.matches.length() == 0) return;
+    JSONObject data = result.toJSON();
+    if (!batchResults) {
+      JSONObject event = event("search-result");
+      event.put("data", data);
+      send(event, true);
+      return;
+    }
+    batch.put(data);
+    batchedMatches += result.matches.length();
+    if (batch.length() >= RESULT_BATCH_SIZE || batchedMatches >= RESULT_BATCH_MATCHES) {
+      flushBatch();
+    }
+  }
+
+  private synchronized void flushBatch() throws JSONException {
+    if (batch.length() == 0) return;
+    JSONObject event = event("search-results");
+    event.put("data", new JSONArray(batch.toString()));
+    send(event, true);
+    while (batch.length() > 0) batch.remove(0);
+    batchedMatches = 0;
+  }
+
+  private void finish() throws JSONException {
+    if (cancelled) {
+      send(event("cancelled"), false);
+      return;
+    }
+    flushBatch();
+    JSONObject progress = event("progress");
+    progress.put("data", 100);
+    send(progress, true);
+    send(event("done-searching"), false);
+  }
+
+  private void sendStatus(String message) throws JSONException {
+    JSONObject event = event("status");
+    event.put("state", "searching");
+    event.put("message", message);
+    event.put("progress", 0);
+    send(event, true);
+  }
+
+  private JSONObject event(String type) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("id", id);
+    event.put("type", type);
+    event.put("action", type);
+    return event;
+  }
+
+  private void send(JSONObject event, boolean keep) {
+    PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+    result.setKeepCallback(keep);
+    callback.sendPluginResult(result);
+  }
+
+  private Pattern compilePattern() {
+    String source = regExp ? search : Pattern.quote(search);
+    if (wholeWord) source = "\\b" + source + "\\b";
+    int flags = Pattern.MULTILINE;
+    if (!caseSensitive) flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+    return Pattern.compile(source, flags);
+  }
+
+  private boolean included(String path, String name) {
+    return include.isEmpty() || matches(include, path, name);
+  }
+
+  private static boolean matches(List<PathMatcher> matchers, String path, String name) {
+    for (PathMatcher matcher : matchers) {
+      if (matcher.matches(Paths.get(path)) || matcher.matches(Paths.get(name))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds a matcher per glob, plus variants without a leading "**\/" or a
+   * trailing "/**" so that "**\/node_modules/**" also prunes the folder itself
+   * at the top level.
+   */
+  private static void addMatchers(List<String> patterns, List<PathMatcher> into) {
+    for (String pattern : patterns) {
+      List<String> variants = new ArrayList<>();
+      variants.add(pattern);
+      if (pattern.endsWith("/**")) variants.add(pattern.substring(0, pattern.length() - 3));
+      for (int i = 0, count = variants.size(); i < count; i++) {
+        String variant = variants.get(i);
+        if (variant.startsWith("**/")) variants.add(variant.substring(3));
+      }
+      for (String variant : variants) {
+        if (variant.isEmpty()) continue;
+        into.add(FileSystems.getDefault().getPathMatcher("glob:" + variant));
+      }
+    }
+  }
+
+  private static List<String> splitPatterns(String value) {
+    List<String> result = new ArrayList<>();
+    if (value == null) return result;
+    for (String pattern : value.split(",")) {
+      String item = pattern.trim();
+      if (!item.isEmpty() && !item.equals("**")) result.add(item);
+    }
+    return result;
+  }
+
+  private String remote(String path) {
+    if (path.isEmpty()) return root.isEmpty() ? "/" : root;
+    return root + "/" + path;
+  }
+
+  private static String quote(String value) {
+    return "'" + value.replace("'", "'\\''") + "'";
+  }
+
+  private static String trimTrailingSlash(String path) {
+    while (path.length() > 1 && path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return path.equals("/") ? "" : path;
+  }
+
+  private static void closeQuietly(SessionChannelNG session) {
+    try {
+      session.close();
+    } catch (Exception e) {
+      Log.w(TAG, "Failed to close the search channel", e);
+    }
+  }
+
+  /**
+   * Splits "path NUL line-number : text" records. Output arrives grouped by
+   * file, so a file's result is emitted as soon as the next file starts.
+   */
+  private final class OutputParser {
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private boolean overflow;
+    private FileResult current;
+    int records;
+
+    void feed(byte[] chunk) throws JSONException {
+      int start = 0;
+      for (int i = 0; i < chunk.length; i++) {
+        if (chunk[i] != '\n') continue;
+        append(chunk, start, i - start);
+        record();
+        start = i + 1;
+      }
+      append(chunk, start, chunk.length - start);
+    }
+
+    void finish() throws JSONException {
+      if (line.size() > 0) record();
+      if (current != null) emit(current);
+      current = null;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+      int room = MAX_LINE_BYTES - line.size();
+      if (length > room) overflow = true;
+      if (room > 0) line.write(bytes, offset, Math.min(length, room));
+    }
+
+    private void record() throws JSONException {
+      byte[] bytes = line.toByteArray();
+      boolean truncated = overflow;
+      line.reset();
+      overflow = false;
+
+      int nul = 0;
+      while (nul < bytes.length && bytes[nul] != 0) nul++;
+      if (nul >= bytes.length) return;
+      int colon = nul + 1;
+      int number = 0;
+      while (colon < bytes.length && bytes[colon] >= '0' && bytes[colon] <= '9') {
+        number = number * 10 + (bytes[colon] - '0');
+        colon++;
+      }
+      if (colon >= bytes.length || bytes[colon] != ':' || number == 0) return;
+
+      String path = new String(bytes, 0, nul, StandardCharsets.UTF_8);
+      if (path.startsWith("./")) path = path.substring(2);
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      if (matches(exclude, path, name) || !included(path, name)) return;
+
+      int end = bytes.length;
+      if (end > colon + 1 && bytes[end - 1] == '\r') end--;
+      String text = new String(bytes, colon + 1, end - colon - 1, StandardCharsets.UTF_8);
+      // A cut multibyte sequence decodes to a replacement character.
+      if (truncated && text.endsWith("�")) text = text.substring(0, text.length() - 1);
+
+      if (current == null || !current.path.equals(path)) {
+        if (current != null) emit(current);
+        current = new FileResult(path);
+      }
+      records++;
+      if (!current.limited) current.addLine(number - 1, text);
+    }
+  }
+
+  private final class FileResult {
+
+    final String path;
+    final JSONArray matches = new JSONArray();
+    final StringBuilder text;
+    boolean limited;
+
+    FileResult(String path) {
+      this.path = path;
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      text = new StringBuilder(name.length() > 30 ? "..." + name.substring(name.length() - 30) : name);
+    }
+
+    void addLine(int row, String line) throws JSONException {
+      Matcher matcher = pattern.matcher(line);
+      while (matcher.find()) {
+        if (matches.length() >= MAX_MATCHES_PER_FILE) {
+          limited = true;
+          return;
+        }
+        String word = matcher.group();
+        String snippet = surrounding(line, matcher.start(), matcher.end());
+        JSONObject match = new JSONObject();
+        match.put("match", word);
+        match.put("renderText", word);
+        match.put("line", snippet);
+        match.put("position", position(row, matcher.start(), matcher.end()));
+        matches.put(match);
+        text.append("\n\t").append(snippet);
+      }
+    }
+
+    JSONObject toJSON() throws JSONException {
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      JSONObject file = new JSONObject();
+      file.put("name", name);
+      file.put("path", path);
+      file.put("url", rootUrl + "/" + path);
+
+      JSONObject data = new JSONObject();
+      data.put("file", file);
+      data.put("matches", matches);
+      if (limited) text.append("\n\t").append("... result limit reached for this file");
+      data.put("limited", limited);
+      data.put("text", text.toString());
+      return data;
+    }
+
+    private JSONObject position(int row, int start, int end) throws JSONException {
+      JSONObject from = new JSONObject();
+      from.put("row", row);
+      from.put("column", start);
+      JSONObject to = new JSONObject();
+      to.put("row", row);
+      to.put("column", end);
+      JSONObject position = new JSONObject();
+      position.put("start", from);
+      position.put("end", to);
+      return position;
+    }
+
+    private String surrounding(String line, int start, int end) {
+      int max = 160;
+      int snippetStart = 0;
+      int snippetEnd = line.length();
+      if (snippetEnd > max) {
+        int remaining = Math.max(0, max - Math.max(1, end - start));
+        int left = remaining / 2;
+        snippetStart = Math.max(0, start - left);
+        snippetEnd = Math.min(line.length(), end + remaining - left);
+      }
+      StringBuilder snippet = new StringBuilder();
+      if (snippetStart > 0) snippet.append("...");
+      snippet.append(line.substring(snippetStart, snippetEnd).trim());
+      if (snippetEnd < line.length()) snippet.append("...");
+      return snippet.toString().trim();
+    }
+  }
+}
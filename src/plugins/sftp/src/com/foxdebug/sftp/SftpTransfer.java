@@ -0,0 +1,274 @@
+package com.foxdebug.sftp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One file transfer between a remote path and a local uri. The client keeps
+ * the policy's number of read or write requests in flight, progress is counted
+ * on the local stream, and an interrupted transfer resumes from the offset that
+ * already made it across instead of starting over.
+ */
+final class SftpTransfer implements FileTransferProgress {
+
+  interface Reconnect {
+    /** Returns a usable connection after the given one failed mid-transfer. */
+    SftpConnection reconnect(SftpConnection failed) throws IOException;
+  }
+
+  private static final String TAG = "SFTP";
+  private static final int MAX_RESUMES = 3;
+  private static final long PROGRESS_INTERVAL_MS = 200L;
+
+  private final String id;
+  private final boolean upload;
+  private final String remotePath;
+  private final Uri localUri;
+  private final ContentResolver resolver;
+  private final CallbackContext events;
+  private final LongConsumer listener;
+  private final AtomicBoolean cancelled = new AtomicBoolean(false);
+  private final AtomicLong transferred = new AtomicLong();
+  private volatile long total = -1;
+  // Touched as bytes move, so the pool never counts a running transfer idle.
+  private volatile SftpConnection connection;
+  private long lastProgressAt;
+
+  /**
+   * @param events receives progress and done events, or null when the caller
+   * only wants the final result
+   */
+  SftpTransfer(
+    String id,
+    boolean upload,
+    String remotePath,
+    Uri localUri,
+    ContentResolver resolver,
+    CallbackContext events
+  ) {
+    this(id, upload, remotePath, localUri, resolver, events, null);
+  }
+
+  /**
+   * @param listener receives the size of every chunk moved, for callers that
+   * aggregate progress over several transfers
+   */
+  SftpTransfer(
+    String id,
+    boolean upload,
+    String remotePath,
+    Uri localUri,
+    ContentResolver resolver,
+    CallbackContext events,
+    LongConsumer listener
+  ) {
+    this.id = id;
+    this.upload = upload;
+    this.remotePath = remotePath;
+    this.localUri = localUri;
+    this.resolver = resolver;
+    this.events = events;
+    this.listener = listener;
+  }
+
+  void cancel() {
+    cancelled.set(true);
+  }
+
+  long run(SftpConnection connection, Reconnect reconnect)
+    throws IOException, SshException, SftpStatusException, TransferCancelledException {
+    long offset = 0;
+    for (int resumes = 0;; resumes++) {
+      this.connection = connection;
+      SftpClient sftp = connection.acquire(true);
+      try {
+        if (upload) {
+          upload(sftp, offset);
+        } else {
+          download(sftp, offset);
+        }
+        return transferred.get();
+      } catch (SftpStatusException | TransferCancelledException e) {
+        throw e;
+      } catch (IOException | SshException e) {
+        if (cancelled.get()) throw new TransferCancelledException();
+        if (resumes >= MAX_RESUMES) throw e;
+        Log.w(TAG, "Transfer " + id + " interrupted at " + transferred.get(), e);
+      } finally {
+        connection.release(sftp, true);
+      }
+
+      connection = reconnect.reconnect(connection);
+      offset = upload ? uploadResumeOffset(connection) : transferred.get();
+    }
+  }
+
+  void sendDone() throws JSONException {
+    JSONObject event = event("done");
+    event.put("bytes", transferred.get());
+    event.put("totalBytes", Math.max(total, transferred.get()));
+    PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+    events.sendPluginResult(result);
+  }
+
+  private void download(SftpClient sftp, long offset)
+    throws IOException, SshException, SftpStatusException, TransferCancelledException {
+    if (total < 0) total = sftp.stat(remotePath).size().longValue();
+
+    try (
+      ParcelFileDescriptor descriptor = open("rw");
+      FileOutputStream file = new FileOutputStream(descriptor.getFileDescriptor())
+    ) {
+      FileChannel channel = file.getChannel();
+      channel.truncate(offset);
+      channel.position(offset);
+      transferred.set(offset);
+
+      OutputStream out = new CountingOutputStream(file);
+      sftp.get(remotePath, out, this, offset);
+      out.flush();
+    }
+  }
+
+  private void upload(SftpClient sftp, long offset)
+    throws IOException, SshException, SftpStatusException, TransferCancelledException {
+    try (
+      ParcelFileDescriptor descriptor = open("r");
+      FileInputStream file = new FileInputStream(descriptor.getFileDescriptor())
+    ) {
+      if (total < 0) total = descriptor.getStatSize();
+      file.getChannel().position(offset);
+      transferred.set(offset);
+      sftp.put(new CountingInputStream(file), remotePath, this, offset, total);
+    }
+  }
+
+  private long uploadResumeOffset(SftpConnection connection) throws IOException {
+    SftpClient sftp = connection.acquire(true);
+    try {
+      long remoteSize = sftp.stat(remotePath).size().longValue();
+      // Bytes read locally may not all have been acknowledged remotely.
+      return Math.min(remoteSize, transferred.get());
+    } catch (SftpStatusException | SshException e) {
+      return 0;
+    } finally {
+      connection.release(sftp, true);
+    }
+  }
+
+  private ParcelFileDescriptor open(String mode) throws FileNotFoundException {
+    ParcelFileDescriptor descriptor = resolver.openFileDescriptor(localUri, mode);
+    if (descriptor == null) throw new FileNotFoundException(localUri.toString());
+    return descriptor;
+  }
+
+  private void counted(int bytes) throws IOException {
+    if (cancelled.get()) throw new InterruptedIOException("Transfer cancelled");
+    long done = transferred.addAndGet(bytes);
+    SftpConnection current = connection;
+    if (current != null) current.touch();
+    if (listener != null) listener.accept(bytes);
+    if (events == null) return;
+
+    long now = System.currentTimeMillis();
+    if (now - lastProgressAt < PROGRESS_INTERVAL_MS) return;
+    lastProgressAt = now;
+    try {
+      JSONObject event = event("progress");
+      event.put("data", total <= 0 ? 100 : (int) ((done * 100) / total));
+      event.put("bytes", done);
+      event.put("totalBytes", total);
+      PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+      result.setKeepCallback(true);
+      events.sendPluginResult(result);
+    } catch (JSONException e) {
+      Log.w(TAG, "Unable to report transfer progress", e);
+    }
+  }
+
+  private JSONObject event(String type) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("id", id);
+    event.put("type", type);
+    event.put("action", type);
+    return event;
+  }
+
+  @Override
+  public void started(long bytesTotal, String file) {}
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled.get();
+  }
+
+  @Override
+  public void progressed(long bytesSoFar) {}
+
+  @Override
+  public void completed() {}
+
+  private final class CountingOutputStream extends FilterOutputStream {
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      counted(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      counted(len);
+    }
+  }
+
+  private final class CountingInputStream extends FilterInputStream {
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) counted(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) counted(read);
+      return read;
+    }
+  }
+}
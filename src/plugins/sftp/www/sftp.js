@@ -1,6 +1,40 @@
+/**
+ * Shell data arrives as a two-part message, the event and its raw bytes;
+ * hand it on as a single event whose data is an ArrayBuffer.
+ */
+function shellEvents(onEvent) {
+  return function (event, payload) {
+    if (Array.isArray(event)) {
+      payload = event[1];
+      event = event[0];
+    }
+    if (event && event.type === 'data' && payload !== undefined) {
+      event.data = payload;
+    }
+    return onEvent(event);
+  };
+}
+
 module.exports = {
-  exec: function (command, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'exec', [command]);
+  exec: function (command, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'exec', [command, connectionId]);
+  },
+  execStream: function (command, onEvent, onFail, connectionId, sessionId) {
+    var id = sessionId;
+    cordova.exec(shellEvents(function (event) {
+      if (event && event.type === 'ready') id = event.sessionId;
+      var handled = onEvent(event);
+      if (!event || event.type !== 'data' || !event.bytes) return;
+      // Output keeps flowing only as fast as the handler acknowledges it.
+      var ack = function () {
+        cordova.exec(null, null, 'Sftp', 'ackShell', [id, event.bytes]);
+      };
+      if (handled && typeof handled.then === 'function') {
+        handled.then(ack, ack);
+      } else {
+        ack();
+      }
+    }), onFail, 'Sftp', 'execStream', [command, connectionId, sessionId]);
   },
   connectUsingProfile: function (profileId, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'connectUsingProfile', [profileId]);
@@ -11,6 +45,21 @@ module.exports = {
   cancelConnection: function (requestId, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'cancelConnection', [requestId]);
   },
+  cancelTransfer: function (transferId, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'cancelTransfer', [transferId]);
+  },
+  getDirectory: function (remoteDir, localDir, options, onEvent, onFail, connectionId, transferId) {
+    cordova.exec(onEvent, onFail, 'Sftp', 'getDirectory', [remoteDir, localDir, connectionId, transferId, options || {}]);
+  },
+  putDirectory: function (remoteDir, localDir, options, onEvent, onFail, connectionId, transferId) {
+    cordova.exec(onEvent, onFail, 'Sftp', 'putDirectory', [remoteDir, localDir, connectionId, transferId, options || {}]);
+  },
+  search: function (options, onEvent, onFail, connectionId) {
+    cordova.exec(onEvent, onFail, 'Sftp', 'search', [options || {}, connectionId]);
+  },
+  cancelSearch: function (searchId, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'cancelSearch', [searchId]);
+  },
   saveProfile: function (profileId, host, port, username, authType, password, keyFile, passphrase, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'saveProfile', [profileId, host, port, username, authType, password, keyFile, passphrase]);
   },
@@ -23,41 +72,54 @@ module.exports = {
   deleteProfile: function (profileId, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'deleteProfile', [profileId]);
   },
-  getFile: function (filename, localFilename, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'getFile', [filename, localFilename]);
+  getFile: function (filename, localFilename, onSuccess, onFail, connectionId, transferId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'getFile', [filename, localFilename, connectionId, transferId]);
   },
-  putFile: function (filename, localFilename, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'putFile', [filename, localFilename]);
+  putFile: function (filename, localFilename, onSuccess, onFail, connectionId, transferId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'putFile', [filename, localFilename, connectionId, transferId]);
   },
-  lsDir: function (path, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'lsDir', [path]);
+  lsDir: function (path, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'lsDir', [path, connectionId]);
   },
-  stat: function (path, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'stat', [path]);
+  stat: function (path, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'stat', [path, connectionId]);
   },
-  mkdir: function (path, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'mkdir', [path]);
+  readRange: function (path, offset, length, onSuccess, onFail, connectionId) {
+    cordova.exec(function (range, data) {
+      if (Array.isArray(range)) {
+        data = range[1];
+        range = range[0];
+      }
+      range.data = data;
+      onSuccess(range);
+    }, onFail, 'Sftp', 'readRange', [path, offset, length, connectionId]);
   },
-  rm: function (path, force, recurse, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'rm', [path, force, recurse]);
+  mkdir: function (path, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'mkdir', [path, connectionId]);
   },
-  createFile: function (path, content, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'createFile', [path, content]);
+  rm: function (path, force, recurse, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'rm', [path, force, recurse, connectionId]);
   },
-  rename: function (oldpath, newpath, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'rename', [oldpath, newpath]);
+  createFile: function (path, content, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'createFile', [path, content, connectionId]);
   },
-  pwd: function (onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'pwd', []);
+  rename: function (oldpath, newpath, onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'rename', [oldpath, newpath, connectionId]);
   },
-  close: function (onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'close', []);
+  pwd: function (onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'pwd', [connectionId]);
   },
-  isConnected: function (onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Sftp', 'isConnected', []);
+  close: function (onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'close', [connectionId]);
+  },
+  configureKeepalive: function (intervalMs, timeoutMs, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'configureKeepalive', [intervalMs, timeoutMs]);
+  },
+  isConnected: function (onSuccess, onFail, connectionId) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'isConnected', [connectionId]);
   },
   openShellUsingProfile: function (profileId, cols, rows, onEvent, onFail) {
-    cordova.exec(onEvent, onFail, 'Sftp', 'openShellUsingProfile', [profileId, cols, rows]);
+    cordova.exec(shellEvents(onEvent), onFail, 'Sftp', 'openShellUsingProfile', [profileId, cols, rows]);
   },
   writeShell: function (sessionId, data, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'writeShell', [sessionId, data]);
@@ -65,6 +127,9 @@ module.exports = {
   resizeShell: function (sessionId, cols, rows, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'resizeShell', [sessionId, cols, rows]);
   },
+  signalShell: function (sessionId, signal, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'signalShell', [sessionId, signal]);
+  },
   closeShell: function (sessionId, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'closeShell', [sessionId]);
   }
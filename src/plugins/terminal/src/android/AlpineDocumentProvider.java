@@ -21,10 +21,15 @@ import java.util.LinkedList;
 import java.util.Locale;
 import com.foxdebug.acode.R;
 import com.foxdebug.acode.rk.exec.terminal.*;
+import com.foxdebug.sdcard.ThumbnailCache;
 
 public class AlpineDocumentProvider extends DocumentsProvider {
     
     private static final String ALL_MIME_TYPES = "*/*";
+    private static final int DEFAULT_THUMBNAIL_SIZE = 256;
+    private static final long MAX_THUMBNAIL_CACHE_BYTES = 16L * 1024 * 1024;
+
+    private ThumbnailCache thumbnails;
 
     
     // The default columns to return information about a root if no specific
@@ -128,12 +133,39 @@ public class AlpineDocumentProvider extends DocumentsProvider {
         CancellationSignal signal
     ) throws FileNotFoundException {
         File file = getFileForDocId(documentId);
-        ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
-        return new AssetFileDescriptor(pfd, 0, file.length());
+        int size = sizeHint == null ? DEFAULT_THUMBNAIL_SIZE : Math.max(sizeHint.x, sizeHint.y);
+        File thumbnail = null;
+        try {
+            thumbnail = getThumbnail(file, size, signal);
+        } catch (IOException | RuntimeException e) {
+            Log.w("DocumentsProvider", "Unable to create thumbnail for " + documentId, e);
+        }
+
+        if (thumbnail == null) {
+            // Not decodable as a bitmap (e.g. svg), let the caller deal with the original.
+            thumbnail = file;
+        }
+        ParcelFileDescriptor pfd = ParcelFileDescriptor.open(thumbnail, ParcelFileDescriptor.MODE_READ_ONLY);
+        return new AssetFileDescriptor(pfd, 0, thumbnail.length());
+    }
+
+    /**
+     * Returns a downsampled copy of the image from the thumbnail cache, creating it if needed.
+     * The requested size is rounded up to a power of two so close size hints share one entry.
+     */
+    private File getThumbnail(File file, int size, CancellationSignal signal) throws IOException {
+        int target = Integer.highestOneBit(Math.max(2, Math.min(size, ThumbnailCache.MAX_SIZE)) - 1) << 1;
+        return thumbnails.get(file, target, signal);
     }
 
     @Override
     public boolean onCreate() {
+        Context context = getContext();
+        thumbnails = new ThumbnailCache(
+            context,
+            new File(context.getCacheDir(), "document-thumbnails"),
+            MAX_THUMBNAIL_CACHE_BYTES
+        );
         return true;
     }
 
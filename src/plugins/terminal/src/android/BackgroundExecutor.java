@@ -13,6 +13,7 @@ public class BackgroundExecutor extends CordovaPlugin {
     private final Map<String, OutputStream> processInputs = new ConcurrentHashMap<>();
     private final Map<String, CallbackContext> processCallbacks = new ConcurrentHashMap<>();
     private final Map<String, ProcessDetails> processDetails = new ConcurrentHashMap<>();
+    private final Map<String, OutputBuffer> outputs = new ConcurrentHashMap<>();
     private ProcessManager processManager;
 
     @Override
@@ -26,7 +27,21 @@ public class BackgroundExecutor extends CordovaPlugin {
         switch (action) {
             case "start":
                 String pid = UUID.randomUUID().toString();
-                startProcess(pid, args.getString(0), args.getString(1).equals("true"), callbackContext);
+                JSONObject options = args.optJSONObject(2);
+                OutputBuffer output = options == null
+                    ? new OutputBuffer(OutputBuffer.DEFAULT_CAPACITY, OutputBuffer.Overflow.DROP_OLDEST)
+                    : new OutputBuffer(
+                        options.optInt("bufferSize", OutputBuffer.DEFAULT_CAPACITY),
+                        OutputBuffer.Overflow.parse(options.optString("overflow", null)));
+                startProcess(pid, args.getString(0), args.getString(1).equals("true"), output, callbackContext);
+                return true;
+            case "attach":
+                attach(args.getString(0), callbackContext);
+                return true;
+            case "ack":
+                OutputBuffer acked = outputs.get(args.getString(0));
+                if (acked != null) acked.ack(args.getInt(1));
+                callbackContext.success();
                 return true;
             case "write":
                 writeToProcess(args.getString(0), args.getString(1), callbackContext);
@@ -78,7 +93,7 @@ public class BackgroundExecutor extends CordovaPlugin {
         });
     }
 
-    private void startProcess(String pid, String cmd, boolean useAlpine, CallbackContext callbackContext) {
+    private void startProcess(String pid, String cmd, boolean useAlpine, OutputBuffer output, CallbackContext callbackContext) {
         cordova.getThreadPool().execute(() -> {
             try {
                 ProcessBuilder builder = processManager.createProcessBuilder(cmd, useAlpine);
@@ -89,24 +104,17 @@ public class BackgroundExecutor extends CordovaPlugin {
                 processInputs.put(pid, process.getOutputStream());
                 processCallbacks.put(pid, callbackContext);
                 processDetails.put(pid, new ProcessDetails(cmd, useAlpine, pidVal));
+                outputs.put(pid, output);
 
                 sendPluginResult(callbackContext, pid, true);
+                output.attach(new CallbackSink(pid, callbackContext), false);
 
-                // Stream stdout
-                new Thread(() -> StreamHandler.streamOutput(
-                    process.getInputStream(), 
-                    line -> sendPluginMessage(pid, "stdout:" + line)
-                )).start();
-                
-                // Stream stderr
-                new Thread(() -> StreamHandler.streamOutput(
-                    process.getErrorStream(), 
-                    line -> sendPluginMessage(pid, "stderr:" + line)
-                )).start();
-
-                int exitCode = process.waitFor();
-                sendPluginMessage(pid, "exit:" + exitCode);
-                cleanup(pid);
+                // The exit code goes out, and the process is forgotten, once
+                // the client has been given all output before it.
+                ProcessPump.get().start(process,
+                    chunk -> output.offer("stdout", chunk),
+                    chunk -> output.offer("stderr", chunk),
+                    output::finish);
             } catch (Exception e) {
                 callbackContext.error("Failed to start process: " + e.getMessage());
             }
@@ -118,6 +126,7 @@ public class BackgroundExecutor extends CordovaPlugin {
             OutputStream os = processInputs.get(pid);
             if (os != null) {
                 StreamHandler.writeToStream(os, input);
+                ProcessPump.get().wake();
                 callbackContext.success("Written to process");
             } else {
                 callbackContext.error("Process not found or closed");
@@ -193,10 +202,43 @@ public class BackgroundExecutor extends CordovaPlugin {
         ctx.sendPluginResult(result);
     }
 
-    private void sendPluginMessage(String pid, String message) {
-        CallbackContext ctx = processCallbacks.get(pid);
-        if (ctx != null) {
-            sendPluginResult(ctx, message, true);
+    /**
+     * Replaces the callback of a running process and replays the output it
+     * still retains.
+     */
+    private void attach(String pid, CallbackContext callbackContext) {
+        OutputBuffer output = outputs.get(pid);
+        if (output == null) {
+            callbackContext.error("No such process");
+            return;
+        }
+        processCallbacks.put(pid, callbackContext);
+        sendPluginResult(callbackContext, pid, true);
+        output.attach(new CallbackSink(pid, callbackContext), true);
+    }
+
+    /** Delivers a process's buffered output to one JS callback. */
+    private class CallbackSink implements OutputBuffer.Sink {
+        private final String pid;
+        private final CallbackContext callbackContext;
+
+        CallbackSink(String pid, CallbackContext callbackContext) {
+            this.pid = pid;
+            this.callbackContext = callbackContext;
+        }
+
+        @Override
+        public boolean output(String type, byte[] chunk) {
+            PluginResult result = StreamHandler.outputResult(type, chunk);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+            return true;
+        }
+
+        @Override
+        public void exit(int exitCode) {
+            sendPluginResult(callbackContext, "exit:" + exitCode, true);
+            cleanup(pid);
         }
     }
 
@@ -205,6 +247,17 @@ public class BackgroundExecutor extends CordovaPlugin {
         processInputs.remove(pid);
         processCallbacks.remove(pid);
         processDetails.remove(pid);
+        OutputBuffer output = outputs.remove(pid);
+        if (output != null) output.close();
+    }
+
+    @Override
+    public void onDestroy() {
+        // Nothing can attach to this instance any more; release paused pumps.
+        for (OutputBuffer output : outputs.values()) {
+            output.close();
+        }
+        super.onDestroy();
     }
 
     private void listAllProcesses(CallbackContext callbackContext) {
@@ -205,7 +205,10 @@ public class Executor extends CordovaPlugin {
                     switch (action) {
                         case "stdout":
                         case "stderr":
-                            PluginResult result = new PluginResult(PluginResult.Status.OK, action + ":" + data);
+                            byte[] bytes = bundle.getByteArray("bytes");
+                            PluginResult result = bytes != null
+                                ? StreamHandler.outputResult(action, bytes)
+                                : new PluginResult(PluginResult.Status.OK, action + ":" + data);
                             result.setKeepCallback(true);
                             callbackContext.sendPluginResult(result);
                             break;
@@ -217,6 +220,15 @@ public class Executor extends CordovaPlugin {
                             callbackContext.success(data);
                             cleanupCallback(pid);
                             break;
+                        case "attached":
+                            PluginResult attached = new PluginResult(PluginResult.Status.OK, pid);
+                            attached.setKeepCallback(true);
+                            callbackContext.sendPluginResult(attached);
+                            break;
+                        case "error":
+                            cleanupCallback(pid);
+                            callbackContext.error(data);
+                            break;
                         case "listProcesses":
                             try {
                                 callbackContext.success(new JSONArray(data));
@@ -340,7 +352,16 @@ public class Executor extends CordovaPlugin {
                 String cmdStart = args.getString(0);
                 String pid = UUID.randomUUID().toString();
                 callbackContextMap.put(pid, callbackContext);
-                startProcess(pid, cmdStart, args.getString(1));
+                startProcess(pid, cmdStart, args.getString(1), args.optJSONObject(2));
+                return true;
+            case "attach":
+                String pidAttach = args.getString(0);
+                callbackContextMap.put(pidAttach, callbackContext);
+                attachToProcess(pidAttach);
+                return true;
+            case "ack":
+                ackOutput(args.getString(0), args.getInt(1));
+                callbackContext.success();
                 return true;
             case "write":
                 String pidWrite = args.getString(0);
@@ -394,7 +415,7 @@ public class Executor extends CordovaPlugin {
         }
     }
 
-    private void startProcess(String pid, String cmd, String alpine) {
+    private void startProcess(String pid, String cmd, String alpine, JSONObject options) {
         CallbackContext callbackContext = getCallbackContext(pid);
         if (callbackContext != null) {
             PluginResult result = new PluginResult(PluginResult.Status.OK, pid);
@@ -408,6 +429,10 @@ public class Executor extends CordovaPlugin {
         bundle.putString("id", pid);
         bundle.putString("cmd", cmd);
         bundle.putString("alpine", alpine);
+        if (options != null) {
+            bundle.putInt("bufferSize", options.optInt("bufferSize", OutputBuffer.DEFAULT_CAPACITY));
+            bundle.putString("overflow", options.optString("overflow", null));
+        }
         msg.setData(bundle);
         try {
             serviceMessenger.send(msg);
@@ -420,6 +445,36 @@ public class Executor extends CordovaPlugin {
         }
     }
 
+    private void attachToProcess(String pid) {
+        Message msg = Message.obtain(null, TerminalService.MSG_ATTACH);
+        msg.replyTo = handlerMessenger;
+        Bundle bundle = new Bundle();
+        bundle.putString("id", pid);
+        msg.setData(bundle);
+        try {
+            serviceMessenger.send(msg);
+        } catch (RemoteException e) {
+            CallbackContext errorContext = getCallbackContext(pid);
+            if (errorContext != null) {
+                errorContext.error("Failed to attach to process: " + e.getMessage());
+                cleanupCallback(pid);
+            }
+        }
+    }
+
+    private void ackOutput(String pid, int bytes) {
+        Message msg = Message.obtain(null, TerminalService.MSG_ACK_OUTPUT);
+        Bundle bundle = new Bundle();
+        bundle.putString("id", pid);
+        bundle.putInt("bytes", bytes);
+        msg.setData(bundle);
+        try {
+            serviceMessenger.send(msg);
+        } catch (RemoteException ignored) {
+            // The service is gone and with it the process.
+        }
+    }
+
     private void exec(String execId, String cmd, String alpine) {
         Message msg = Message.obtain(null, TerminalService.MSG_EXEC);
         msg.replyTo = handlerMessenger;
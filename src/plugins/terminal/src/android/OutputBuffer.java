@@ -0,0 +1,218 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import java.util.ArrayDeque;
+
+/**
+ * Output of one process between its pipes and the client reading it. The
+ * most recent capacity bytes are retained, so a client that attaches later
+ * gets the tail replayed before the live output. At most SEND_WINDOW bytes go
+ * out ahead of the client's acknowledgements; the rest waits here instead of
+ * piling up in the Handler or bridge queues. When the buffer is full the
+ * oldest output is dropped, or with Overflow.PAUSE new output is refused
+ * until the client catches up; the pump then stops reading that pipe, so the
+ * process blocks on its own full pipe.
+ */
+public class OutputBuffer {
+
+    public enum Overflow {
+        DROP_OLDEST,
+        PAUSE;
+
+        public static Overflow parse(String value) {
+            return "pause".equals(value) ? PAUSE : DROP_OLDEST;
+        }
+    }
+
+    public interface Sink {
+        /** Returns false when the client is gone; it is then detached. */
+        boolean output(String type, byte[] chunk);
+
+        void exit(int exitCode);
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+    public static final int SEND_WINDOW = 256 * 1024;
+    private static final int MIN_CAPACITY = 2 * StreamHandler.MAX_BATCH_BYTES;
+
+    private final int capacity;
+    private final Overflow overflow;
+    // Sent to the current client, kept for replay.
+    private final ArrayDeque<Segment> retained = new ArrayDeque<>();
+    // Not yet sent.
+    private final ArrayDeque<Segment> pending = new ArrayDeque<>();
+    private int size;
+    private int inFlight;
+    private Sink sink;
+    private Integer exitCode;
+    private boolean exitSent;
+    private boolean closed;
+    private boolean draining;
+    private boolean redrain;
+    // A chunk was refused; the pump is told once there may be room.
+    private boolean refused;
+
+    public OutputBuffer(int capacity, Overflow overflow) {
+        this.capacity = capacity <= 0 ? DEFAULT_CAPACITY : Math.max(capacity, MIN_CAPACITY);
+        this.overflow = overflow;
+    }
+
+    /**
+     * Called by the pump. Returns false when paused on a full buffer; the
+     * chunk should be offered again later.
+     */
+    public boolean offer(String type, byte[] chunk) {
+        synchronized (this) {
+            if (closed) return true;
+            trim(chunk.length);
+            if (size + chunk.length > capacity) {
+                refused = true;
+                return false;
+            }
+            pending.add(new Segment(type, chunk));
+            size += chunk.length;
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Makes sink the only client. With replay, everything still retained is
+     * sent again first.
+     */
+    public void attach(Sink sink, boolean replay) {
+        synchronized (this) {
+            this.sink = sink;
+            inFlight = 0;
+            if (replay) {
+                while (!retained.isEmpty()) pending.addFirst(retained.pollLast());
+            }
+        }
+        drain();
+        resumePump();
+    }
+
+    public synchronized void detach(Sink sink) {
+        if (this.sink == sink) this.sink = null;
+    }
+
+    /** The client has consumed this many bytes. */
+    public void ack(int bytes) {
+        synchronized (this) {
+            inFlight = Math.max(0, inFlight - bytes);
+        }
+        drain();
+        resumePump();
+    }
+
+    /** Sends the exit code once all output before it has gone out. */
+    public void finish(int exitCode) {
+        synchronized (this) {
+            this.exitCode = exitCode;
+        }
+        drain();
+    }
+
+    /** Drops everything; later output and the exit code go nowhere. */
+    public synchronized void close() {
+        closed = true;
+        retained.clear();
+        pending.clear();
+        size = 0;
+    }
+
+    private void resumePump() {
+        synchronized (this) {
+            if (!refused) return;
+            refused = false;
+        }
+        ProcessPump.get().wake();
+    }
+
+    private void trim(int incoming) {
+        while (size + incoming > capacity && !retained.isEmpty()) {
+            size -= retained.poll().bytes.length;
+        }
+        if (overflow == Overflow.DROP_OLDEST) {
+            while (size + incoming > capacity && !pending.isEmpty()) {
+                size -= pending.poll().bytes.length;
+            }
+        }
+    }
+
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                redrain = true;
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Sink target;
+            Segment next = null;
+            Integer exit = null;
+            synchronized (this) {
+                target = sink;
+                if (target != null && !pending.isEmpty() && inFlight < SEND_WINDOW) {
+                    next = takeBatch();
+                    retained.add(next);
+                    inFlight += next.bytes.length;
+                } else if (target != null && pending.isEmpty() && exitCode != null && !exitSent && !closed) {
+                    exitSent = true;
+                    exit = exitCode;
+                } else if (redrain) {
+                    redrain = false;
+                    continue;
+                } else {
+                    draining = false;
+                    return;
+                }
+            }
+            if (exit != null) {
+                target.exit(exit);
+            } else if (!target.output(next.type, next.bytes)) {
+                detach(target);
+            }
+        }
+    }
+
+    /**
+     * Joins consecutive pending segments of one stream, so a replay or a
+     * client catching up gets a few large messages instead of many small ones.
+     */
+    private Segment takeBatch() {
+        Segment first = pending.poll();
+        Segment peek = pending.peek();
+        if (peek == null || !peek.type.equals(first.type)) return first;
+
+        int length = first.bytes.length;
+        int count = 1;
+        for (Segment segment : pending) {
+            if (!segment.type.equals(first.type)) break;
+            if (length + segment.bytes.length > StreamHandler.MAX_BATCH_BYTES) break;
+            length += segment.bytes.length;
+            count++;
+        }
+        if (count == 1) return first;
+
+        byte[] joined = new byte[length];
+        System.arraycopy(first.bytes, 0, joined, 0, first.bytes.length);
+        int offset = first.bytes.length;
+        for (int i = 1; i < count; i++) {
+            byte[] bytes = pending.poll().bytes;
+            System.arraycopy(bytes, 0, joined, offset, bytes.length);
+            offset += bytes.length;
+        }
+        return new Segment(first.type, joined);
+    }
+
+    private static final class Segment {
+        final String type;
+        final byte[] bytes;
+
+        Segment(String type, byte[] bytes) {
+            this.type = type;
+            this.bytes = bytes;
+        }
+    }
+}
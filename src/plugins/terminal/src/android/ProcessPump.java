@@ -0,0 +1,309 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Moves the output of every running process on one shared thread, so the
+ * thread count stays the same however many processes are running. Pipes are
+ * only read as far as available() reports, which never blocks. Coalescing
+ * adapts per stream: output that follows a quiet stretch, like the echo of a
+ * keystroke, goes out as soon as the pipe is empty, while a steady stream is
+ * collected for StreamHandler.COALESCE_WINDOW_MS or until a batch is full, so
+ * heavy output travels in a few large batches. The same thread notices
+ * when a process exits and reports it once both of its streams are drained;
+ * output already read is never dropped, only a pipe a child still holds open
+ * stops being read. While nothing moves the thread backs off, up to
+ * MAX_IDLE_SLEEP_MS between scans, or INTERACTIVE_IDLE_SLEEP_MS while an
+ * interactive process is registered, since its output may come on its own
+ * rather than in answer to input; it relies on wake() for input and
+ * acknowledgements. A stream waiting to hand out a refused chunk is retried
+ * every HELD_RETRY_MS. With no process registered it sleeps outright.
+ */
+final class ProcessPump {
+
+    interface Output {
+        /**
+         * Returns false to pause the stream: the same chunk is offered again
+         * on a later scan and the pipe is not read meanwhile.
+         */
+        boolean onChunk(byte[] chunk);
+    }
+
+    interface ExitListener {
+        void onExit(int exitCode);
+    }
+
+    private static final long MIN_IDLE_SLEEP_MS = 1;
+    private static final long MAX_IDLE_SLEEP_MS = 200;
+    private static final long INTERACTIVE_IDLE_SLEEP_MS = 20;
+    private static final long HELD_RETRY_MS = 10;
+    private static final long EXIT_CHECK_INTERVAL_MS = 100;
+    // Output still in the pipe when the process exits shows up within this.
+    private static final long EXIT_GRACE_MS = 50;
+    // A child that inherited the pipes may keep them open after the exit.
+    private static final long EXIT_DRAIN_TIMEOUT_MS = 1000;
+
+    private static ProcessPump instance;
+
+    private final List<Watch> watches = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private boolean woken;
+
+    static synchronized ProcessPump get() {
+        if (instance == null) {
+            instance = new ProcessPump();
+            Thread thread = new Thread(instance::run, "ProcessPump");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    private ProcessPump() {}
+
+    /**
+     * Pumps the process's streams until it exits, then calls onExit.
+     *
+     * @param stderr null when the error stream is redirected to stdout
+     */
+    void start(Process process, Output stdout, Output stderr, ExitListener onExit) {
+        start(process, stdout, stderr, onExit, false);
+    }
+
+    /**
+     * @param interactive whether someone is watching the output as it comes,
+     * which keeps idle scans at most INTERACTIVE_IDLE_SLEEP_MS apart
+     */
+    void start(Process process, Output stdout, Output stderr, ExitListener onExit,
+            boolean interactive) {
+        Stream[] streams = stderr == null
+            ? new Stream[] { new Stream(process.getInputStream(), stdout) }
+            : new Stream[] {
+                new Stream(process.getInputStream(), stdout),
+                new Stream(process.getErrorStream(), stderr)
+            };
+        watches.add(new Watch(process, streams, onExit, interactive));
+        wake();
+    }
+
+    /**
+     * Scans again right away; called after input is written, since that
+     * usually makes the process answer, and when a paused output has room.
+     */
+    void wake() {
+        synchronized (lock) {
+            woken = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void run() {
+        long sleep = MIN_IDLE_SLEEP_MS;
+        while (true) {
+            boolean moved = false;
+            boolean holding = false;
+            boolean interactive = false;
+            long now = System.currentTimeMillis();
+            for (Watch watch : watches) {
+                try {
+                    moved |= watch.pump(now);
+                    holding |= watch.holding();
+                    interactive |= watch.interactive;
+                } catch (RuntimeException e) {
+                    // A failing listener must not take the other processes down.
+                    watches.remove(watch);
+                    watch.endAll();
+                }
+            }
+            long maxSleep = holding ? HELD_RETRY_MS
+                : interactive ? INTERACTIVE_IDLE_SLEEP_MS
+                : MAX_IDLE_SLEEP_MS;
+            sleep = moved ? MIN_IDLE_SLEEP_MS : Math.min(sleep * 2, maxSleep);
+
+            synchronized (lock) {
+                try {
+                    if (!woken) {
+                        if (watches.isEmpty()) {
+                            lock.wait();
+                        } else {
+                            lock.wait(sleep);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (woken) sleep = MIN_IDLE_SLEEP_MS;
+                woken = false;
+            }
+        }
+    }
+
+    private final class Watch {
+        final Process process;
+        final Stream[] streams;
+        final ExitListener onExit;
+        final boolean interactive;
+        long exitCheckedAt;
+        long exitedAt = -1;
+
+        Watch(Process process, Stream[] streams, ExitListener onExit,
+                boolean interactive) {
+            this.process = process;
+            this.streams = streams;
+            this.onExit = onExit;
+            this.interactive = interactive;
+        }
+
+        boolean pump(long now) {
+            boolean moved = false;
+            boolean ended = true;
+            for (Stream stream : streams) {
+                if (!stream.ended) moved |= stream.pump(now);
+                ended &= stream.ended;
+            }
+
+            if (exitedAt < 0 && (ended || now - exitCheckedAt >= EXIT_CHECK_INTERVAL_MS)) {
+                exitCheckedAt = now;
+                if (!ProcessUtils.isAlive(process)) exitedAt = now;
+            }
+            if (exitedAt < 0) return moved;
+
+            long sinceExit = now - exitedAt;
+            for (Stream stream : streams) {
+                if (stream.ended) continue;
+                // The timeout only cuts the pipe short; what was read still
+                // goes out, so a paused stream keeps the exit waiting.
+                if (!stream.eof && (sinceExit >= EXIT_DRAIN_TIMEOUT_MS ||
+                        (sinceExit >= EXIT_GRACE_MS && stream.idle()))) {
+                    stream.stopReading();
+                    moved |= stream.pump(now);
+                }
+                ended &= stream.ended;
+            }
+            if (ended) {
+                watches.remove(this);
+                onExit.onExit(process.exitValue());
+            }
+            return moved;
+        }
+
+        boolean holding() {
+            for (Stream stream : streams) {
+                if (stream.held != null) return true;
+            }
+            return false;
+        }
+
+        void endAll() {
+            for (Stream stream : streams) stream.end();
+        }
+    }
+
+    private static final class Stream {
+        final InputStream in;
+        final Output output;
+        final byte[] batch = new byte[StreamHandler.MAX_BATCH_BYTES];
+        int filled;
+        long firstReadAt;
+        long lastSentAt;
+        // The current batch began after the stream had been quiet.
+        boolean quietStart;
+        byte[] held;
+        // The pipe is finished; ended once everything read has been handed out.
+        boolean eof;
+        boolean ended;
+
+        Stream(InputStream in, Output output) {
+            this.in = in;
+            this.output = output;
+        }
+
+        /** Reads what is available and hands out batches; true if anything moved. */
+        boolean pump(long now) {
+            boolean moved = false;
+            if (held != null) {
+                if (!output.onChunk(held)) return false;
+                held = null;
+                moved = true;
+            }
+
+            boolean pipeEmpty = true;
+            if (!eof) {
+                try {
+                    int available = in.available();
+                    while (available > 0 && filled < batch.length) {
+                        int read = in.read(batch, filled, Math.min(available, batch.length - filled));
+                        if (read == -1) {
+                            eof = true;
+                            break;
+                        }
+                        if (filled == 0) {
+                            firstReadAt = now;
+                            quietStart = now - lastSentAt >= StreamHandler.COALESCE_WINDOW_MS;
+                        }
+                        filled += read;
+                        moved = true;
+                        available = in.available();
+                    }
+                    pipeEmpty = available == 0;
+                } catch (IOException e) {
+                    // Closed, usually because the process was stopped.
+                    eof = true;
+                }
+            }
+
+            if (filled == batch.length || (filled > 0 && (eof ||
+                    (quietStart && pipeEmpty) ||
+                    now - firstReadAt >= StreamHandler.COALESCE_WINDOW_MS))) {
+                byte[] chunk = Arrays.copyOf(batch, filled);
+                filled = 0;
+                lastSentAt = now;
+                if (!output.onChunk(chunk)) held = chunk;
+            }
+            if (eof && held == null) {
+                ended = true;
+                close();
+            }
+            return moved;
+        }
+
+        boolean idle() {
+            if (held != null || filled > 0) return false;
+            try {
+                return in.available() == 0;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        /** Stops reading the pipe; what was already read still goes out. */
+        void stopReading() {
+            eof = true;
+            close();
+        }
+
+        /** Hands out whatever is still batched and stops reading. */
+        void end() {
+            if (filled > 0 && held == null) {
+                output.onChunk(Arrays.copyOf(batch, filled));
+            }
+            filled = 0;
+            held = null;
+            eof = true;
+            ended = true;
+            close();
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package com.foxdebug.acode.rk.exec.terminal;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 class ProcessServer extends WebSocketServer {
@@ -18,9 +21,22 @@ class ProcessServer extends WebSocketServer {
     private final CountDownLatch readyLatch = new CountDownLatch(1);
     private final AtomicReference<Exception> startError = new AtomicReference<>();
 
+    // Outbound bytes queued in the socket at which reading stdout pauses, and
+    // below which it resumes.
+    private static final long HIGH_WATER_BYTES = 1024 * 1024;
+    private static final long LOW_WATER_BYTES  = 256 * 1024;
+    // After the exit the socket gets this long to send what is queued before
+    // it is closed regardless, for a client that stopped reading.
+    private static final long CLOSE_DRAIN_TIMEOUT_MS = 30000;
+    private static final long CLOSE_DRAIN_POLL_MS    = 10;
+
+    // One thread for every server's drain checks, started on the first exit.
+    private static ScheduledExecutorService closer;
+
     private static final class ConnState {
         final Process process;
         final OutputStream stdin;
+        boolean paused;
 
         ConnState(Process process, OutputStream stdin) {
             this.process = process;
@@ -29,7 +45,9 @@ class ProcessServer extends WebSocketServer {
     }
 
     ProcessServer(int port, String[] cmd) {
-        super(new InetSocketAddress("127.0.0.1", port));
+        // One connection per server, so one decoder thread is plenty; the
+        // default starts one per CPU core for every spawned process.
+        super(new InetSocketAddress("127.0.0.1", port), 1);
         this.cmd = cmd;
     }
 
@@ -60,33 +78,93 @@ class ProcessServer extends WebSocketServer {
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         try {
             Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
-            InputStream  stdout = process.getInputStream();
             OutputStream stdin  = process.getOutputStream();
 
-            conn.setAttachment(new ConnState(process, stdin));
+            ConnState state = new ConnState(process, stdin);
+            conn.setAttachment(state);
 
-            new Thread(() -> {
+            ProcessPump.get().start(process, chunk -> {
+                if (!conn.isOpen()) return true; // nobody left to read it
+                if (congested(conn, state)) return false;
                 try {
-                    byte[] buf = new byte[8192];
-                    int len;
-                    while ((len = stdout.read(buf)) != -1) {
-                        conn.send(ByteBuffer.wrap(buf, 0, len));
-                    }
+                    conn.send(ByteBuffer.wrap(chunk));
                 } catch (Exception ignored) {}
-                conn.close(1000, "process exited");
-            }).start();
+                return true;
+            }, null, exitCode -> closeWhenDrained(conn), true);
 
         } catch (Exception e) {
             conn.close(1011, "Failed to start process: " + e.getMessage());
         }
     }
 
+    /**
+     * Whether stdout should stay unread for now. Pausing at the high-water
+     * mark leaves the rest in the pipe, so a flood like `yes` blocks on its
+     * own pipe instead of growing the socket's send queue without bound.
+     */
+    private static boolean congested(WebSocket conn, ConnState state) {
+        long queued = queuedBytes(conn);
+        state.paused = queued >= (state.paused ? LOW_WATER_BYTES : HIGH_WATER_BYTES);
+        return state.paused;
+    }
+
+    /**
+     * Closes once everything queued has gone out. The pump reports the exit
+     * only after its last chunk was accepted, but that chunk may still sit in
+     * the send queue, and closing straight away would cut the tail off.
+     */
+    private static void closeWhenDrained(WebSocket conn) {
+        long deadline = System.currentTimeMillis() + CLOSE_DRAIN_TIMEOUT_MS;
+        closer().execute(() -> closeIfDrained(conn, deadline));
+    }
+
+    private static void closeIfDrained(WebSocket conn, long deadline) {
+        if (conn.isOpen() && queuedBytes(conn) > 0 &&
+                System.currentTimeMillis() < deadline) {
+            closer().schedule(() -> closeIfDrained(conn, deadline),
+                    CLOSE_DRAIN_POLL_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        conn.close(1000, "process exited");
+    }
+
+    private static synchronized ScheduledExecutorService closer() {
+        if (closer == null) {
+            closer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "ProcessServer-close");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return closer;
+    }
+
+    private static long queuedBytes(WebSocket conn) {
+        if (!(conn instanceof WebSocketImpl)) {
+            return conn.hasBufferedData() ? HIGH_WATER_BYTES : 0;
+        }
+        long queued = 0;
+        for (ByteBuffer frame : ((WebSocketImpl) conn).outQueue) {
+            queued += frame.remaining();
+        }
+        return queued;
+    }
+
     @Override
     public void onMessage(WebSocket conn, ByteBuffer msg) {
         try {
             ConnState state = conn.getAttachment();
-            state.stdin.write(msg.array(), msg.position(), msg.remaining());
+            // A whole frame goes to the pipe in one write, whatever kind of
+            // buffer the decoder handed over.
+            if (msg.hasArray()) {
+                state.stdin.write(msg.array(), msg.arrayOffset() + msg.position(), msg.remaining());
+            } else {
+                byte[] bytes = new byte[msg.remaining()];
+                msg.get(bytes);
+                state.stdin.write(bytes);
+            }
             state.stdin.flush();
+            ProcessPump.get().wake();
         } catch (Exception ignored) {}
     }
 
@@ -96,6 +174,7 @@ class ProcessServer extends WebSocketServer {
             ConnState state = conn.getAttachment();
             state.stdin.write(message.getBytes(StandardCharsets.UTF_8));
             state.stdin.flush();
+            ProcessPump.get().wake();
         } catch (Exception ignored) {}
     }
 
@@ -1,31 +1,35 @@
 package com.foxdebug.acode.rk.exec.terminal;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.cordova.PluginResult;
 import com.foxdebug.acode.rk.exec.terminal.*;
 public class StreamHandler {
-    
-    public interface OutputListener {
-        void onLine(String line);
-    }
-    
+
+    /** Largest batch handed to a listener; stays well below the binder limit. */
+    public static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    /** How long a batch of steady output collects further reads before it is sent. */
+    public static final long COALESCE_WINDOW_MS = 8;
+
     /**
-     * Streams output from an InputStream to a listener
+     * A batch of output for the JS side: the stream name and its bytes as a
+     * multipart result, so the bytes cross the bridge as an ArrayBuffer.
      */
-    public static void streamOutput(InputStream inputStream, OutputListener listener) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                listener.onLine(line);
-            }
-        } catch (IOException ignored) {
-        }
+    public static PluginResult outputResult(String type, byte[] chunk) {
+        List<PluginResult> parts = new ArrayList<>(2);
+        parts.add(new PluginResult(PluginResult.Status.OK, type));
+        parts.add(new PluginResult(PluginResult.Status.OK, chunk));
+        return new PluginResult(PluginResult.Status.OK, parts);
     }
-    
+
     /**
      * Writes input to an OutputStream
      */
     public static void writeToStream(OutputStream outputStream, String input) throws IOException {
-        outputStream.write((input + "\n").getBytes());
+        outputStream.write((input + "\n").getBytes(StandardCharsets.UTF_8));
         outputStream.flush();
     }
-}
\ No newline at end of file
+}
@@ -35,6 +35,8 @@ public class TerminalService extends Service {
     public static final int MSG_IS_RUNNING = 4;
     public static final int MSG_EXEC = 5;
     public static final int MSG_LIST_PROCESSES = 6;
+    public static final int MSG_ATTACH = 7;
+    public static final int MSG_ACK_OUTPUT = 8;
 
     public static final String CHANNEL_ID = "terminal_exec_channel";
     
@@ -48,6 +50,7 @@ public class TerminalService extends Service {
     private final Map<String, OutputStream> processInputs = new ConcurrentHashMap<>();
     private final Map<String, Messenger> clientMessengers = new ConcurrentHashMap<>();
     private final Map<String, ProcessDetails> processDetails = new ConcurrentHashMap<>();
+    private final Map<String, OutputBuffer> outputs = new ConcurrentHashMap<>();
     private final java.util.concurrent.ExecutorService threadPool = Executors.newCachedThreadPool();
 
     private final Messenger serviceMessenger = new Messenger(new ServiceHandler());
@@ -105,7 +108,10 @@ public class TerminalService extends Service {
                     String cmd = bundle.getString("cmd");
                     String alpine = bundle.getString("alpine");
                     clientMessengers.put(id, clientMessenger);
-                    startProcess(id, cmd, "true".equals(alpine));
+                    OutputBuffer output = new OutputBuffer(
+                        bundle.getInt("bufferSize", OutputBuffer.DEFAULT_CAPACITY),
+                        OutputBuffer.Overflow.parse(bundle.getString("overflow")));
+                    startProcess(id, cmd, "true".equals(alpine), output);
                     break;
                 case MSG_WRITE_TO_PROCESS:
                     String input = bundle.getString("input");
@@ -126,6 +132,13 @@ public class TerminalService extends Service {
                 case MSG_LIST_PROCESSES:
                     listProcesses(id, clientMessenger);
                     break;
+                case MSG_ATTACH:
+                    attach(id, clientMessenger);
+                    break;
+                case MSG_ACK_OUTPUT:
+                    OutputBuffer acked = outputs.get(id);
+                    if (acked != null) acked.ack(bundle.getInt("bytes"));
+                    break;
             }
         }
     }
@@ -158,7 +171,7 @@ public class TerminalService extends Service {
         }
     }
 
-    private void startProcess(String pid, String cmd, boolean useAlpine) {
+    private void startProcess(String pid, String cmd, boolean useAlpine, OutputBuffer output) {
         threadPool.execute(() -> {
             try {
                 ProcessBuilder builder = processManager.createProcessBuilder(cmd, useAlpine);
@@ -168,29 +181,15 @@ public class TerminalService extends Service {
                 processes.put(pid, process);
                 processInputs.put(pid, process.getOutputStream());
                 processDetails.put(pid, new ProcessDetails(cmd, useAlpine, pidVal));
+                outputs.put(pid, output);
+                output.attach(new MessengerSink(pid, clientMessengers.get(pid)), false);
                 
-                // Stream stdout
-                threadPool.execute(() -> 
-                    StreamHandler.streamOutput(process.getInputStream(), 
-                        line -> sendMessageToClient(pid, "stdout", line))
-                );
-                
-                // Stream stderr
-                threadPool.execute(() -> 
-                    StreamHandler.streamOutput(process.getErrorStream(), 
-                        line -> sendMessageToClient(pid, "stderr", line))
-                );
-                
-                // Wait for process completion
-                threadPool.execute(() -> {
-                    try {
-                        int exitCode = process.waitFor();
-                        sendMessageToClient(pid, "exit", String.valueOf(exitCode));
-                        cleanup(pid);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                });
+                // The exit code goes out, and the process is forgotten, once
+                // the client has been given all output before it.
+                ProcessPump.get().start(process,
+                    chunk -> output.offer("stdout", chunk),
+                    chunk -> output.offer("stderr", chunk),
+                    output::finish);
             } catch (IOException e) {
                 e.printStackTrace();
                 sendMessageToClient(pid, "stderr", "Failed to start process: " + e.getMessage());
@@ -236,6 +235,66 @@ public class TerminalService extends Service {
         }
     }
 
+    /**
+     * Replaces the client of a running process and replays the output it
+     * still retains.
+     */
+    private void attach(String pid, Messenger clientMessenger) {
+        OutputBuffer output = outputs.get(pid);
+        if (output == null) {
+            try {
+                Message reply = Message.obtain();
+                Bundle bundle = new Bundle();
+                bundle.putString("id", pid);
+                bundle.putString("action", "error");
+                bundle.putString("data", "No such process");
+                reply.setData(bundle);
+                clientMessenger.send(reply);
+            } catch (RemoteException ignored) {
+                // The requesting WebView is no longer available.
+            }
+            return;
+        }
+        clientMessengers.put(pid, clientMessenger);
+        sendMessageToClient(pid, "attached", pid);
+        output.attach(new MessengerSink(pid, clientMessenger), true);
+    }
+
+    /** Delivers a process's buffered output to one client messenger. */
+    private class MessengerSink implements OutputBuffer.Sink {
+        private final String pid;
+        private final Messenger messenger;
+
+        MessengerSink(String pid, Messenger messenger) {
+            this.pid = pid;
+            this.messenger = messenger;
+        }
+
+        @Override
+        public boolean output(String type, byte[] chunk) {
+            if (messenger == null) return false;
+            try {
+                Message msg = Message.obtain();
+                Bundle bundle = new Bundle();
+                bundle.putString("id", pid);
+                bundle.putString("action", type);
+                bundle.putByteArray("bytes", chunk);
+                msg.setData(bundle);
+                messenger.send(msg);
+                return true;
+            } catch (RemoteException e) {
+                // Keep the output for a client that attaches later.
+                return false;
+            }
+        }
+
+        @Override
+        public void exit(int exitCode) {
+            sendMessageToClient(pid, "exit", String.valueOf(exitCode));
+            cleanup(pid);
+        }
+    }
+
     private void sendExecResultToClient(String id, boolean isSuccess, String data) {
         Messenger clientMessenger = clientMessengers.get(id);
         if (clientMessenger != null) {
@@ -259,6 +318,7 @@ public class TerminalService extends Service {
             OutputStream os = processInputs.get(pid);
             if (os != null) {
                 StreamHandler.writeToStream(os, input);
+                ProcessPump.get().wake();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -334,6 +394,8 @@ public class TerminalService extends Service {
         processInputs.remove(id);
         clientMessengers.remove(id);
         processDetails.remove(id);
+        OutputBuffer output = outputs.remove(id);
+        if (output != null) output.close();
     }
 
     private static class ProcessDetails {
@@ -406,6 +468,10 @@ public class TerminalService extends Service {
         processInputs.clear();
         clientMessengers.clear();
         processDetails.clear();
+        for (OutputBuffer output : outputs.values()) {
+            output.close();
+        }
+        outputs.clear();
         threadPool.shutdown();
     }
 
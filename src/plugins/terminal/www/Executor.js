@@ -8,6 +8,87 @@
 
 const exec = require('cordova/exec');
 
+// Acknowledge consumed output in steps well below the native send window.
+const ACK_BYTES = 64 * 1024;
+// In line mode a partial line waits for the rest of it, but no longer than
+// this once the stream goes quiet (a prompt waiting for input).
+const PARTIAL_LINE_MS = 100;
+
+function streamProcess(executorType, action, args, onData, options) {
+  return new Promise((resolve, reject) => {
+    let first = true;
+    let uuid = null;
+    let unacked = 0;
+    const decoders = {};
+    const partials = {};
+    const partialTimers = {};
+    const flushPartial = (type) => {
+      clearTimeout(partialTimers[type]);
+      delete partialTimers[type];
+      const line = partials[type];
+      partials[type] = "";
+      if (line) onData(type, line);
+    };
+    const deliver = (type, text) => {
+      if (!text) return;
+      if (options.raw) {
+        onData(type, text);
+        return;
+      }
+      // Batches split anywhere, so the last element is carried into the next one.
+      const lines = ((partials[type] || "") + text).split(/\r?\n/);
+      partials[type] = lines.pop();
+      lines.forEach((line) => onData(type, line));
+      clearTimeout(partialTimers[type]);
+      if (partials[type]) {
+        partialTimers[type] = setTimeout(() => flushPartial(type), PARTIAL_LINE_MS);
+      }
+    };
+    exec(
+      async (message, bytes) => {
+        //console.log(message);
+        if (first) {
+          first = false;
+          uuid = message;
+          await new Promise(resolve => setTimeout(resolve, 100));
+          // First message is always the process UUID
+          resolve(message);
+        } else if (Array.isArray(message) || bytes instanceof ArrayBuffer) {
+          // Batched output: [type, bytes], spread or as one array
+          const [type, data] = Array.isArray(message) ? message : [message, bytes];
+          if (!decoders[type]) decoders[type] = new TextDecoder("utf-8");
+          deliver(type, decoders[type].decode(new Uint8Array(data), { stream: true }));
+          unacked += data.byteLength;
+          if (unacked >= ACK_BYTES) {
+            exec(null, null, executorType, "ack", [uuid, unacked]);
+            unacked = 0;
+          }
+        } else {
+          const match = message.match(/^([^:]+):(.*)$/s);
+          if (match) {
+            const prefix = match[1];         // e.g. "stdout"
+            const content = match[2]; // output
+            if (prefix === "exit") {
+              // Flush whatever a decoder still holds of an incomplete character.
+              Object.keys(decoders).forEach((type) => {
+                deliver(type, decoders[type].decode());
+                flushPartial(type);
+              });
+            }
+            onData(prefix, content);
+          } else {
+            onData("unknown", message);
+          }
+        }
+      },
+      reject,
+      executorType,
+      action,
+      args
+    );
+  });
+}
+
 class Executor {
   constructor(BackgroundExecutor = false) {
     this.ExecutorType = BackgroundExecutor ? "BackgroundExecutor" : "Executor";
@@ -40,12 +121,24 @@ class Executor {
   /**
    * Starts a shell process and enables real-time streaming of stdout, stderr, and exit status.
    *
+   * Output arrives from the native side in batches of raw bytes, which are decoded as
+   * UTF-8 streams so a character split between two batches comes out whole.
+   *
    * @param {string} command - The shell command to run (e.g., `"sh"`, `"ls -al"`).
    * @param {(type: 'stdout' | 'stderr' | 'exit', data: string) => void} onData - Callback that receives real-time output:
    *   - `"stdout"`: Standard output line.
    *   - `"stderr"`: Standard error line.
    *   - `"exit"`: Exit code of the process.
    * @param {boolean} [alpine=false] - Whether to run the command inside the Alpine sandbox environment (`true`) or on Android directly (`false`).
+   * @param {{raw?: boolean, bufferSize?: number, overflow?: 'drop' | 'pause'}} [options]
+   *   - `raw`: `onData` receives each decoded batch as-is, newlines included, instead of one call
+   *     per line. Without it, a line split between batches is joined back together, and a
+   *     trailing partial line (a prompt, a progress bar) is delivered once the process has been
+   *     quiet for 100 ms or exits.
+   *   - `bufferSize`: Bytes of output retained for a slow or detached client and replayed by
+   *     {@link Executor#attach} (default 1 MB).
+   *   - `overflow`: When the buffer is full, `"drop"` discards the oldest output (default) and
+   *     `"pause"` stops reading the process until the client catches up.
    * @returns {Promise<string>} Resolves with a unique process ID (UUID) used for future references like `write()` or `stop()`.
    *
    * @example
@@ -57,34 +150,29 @@ class Executor {
    *   executor.stop(uuid);
    * });
    */
-  start(command, onData, alpine = false) {
-    return new Promise((resolve, reject) => {
-      let first = true;
-      exec(
-        async (message) => {
-          //console.log(message);
-          if (first) {
-            first = false;
-            await new Promise(resolve => setTimeout(resolve, 100));
-            // First message is always the process UUID
-            resolve(message);
-          } else {
-            const match = message.match(/^([^:]+):(.*)$/);
-            if (match) {
-              const prefix = match[1];         // e.g. "stdout"
-              const content = match[2]; // output
-              onData(prefix, content);
-            } else {
-              onData("unknown", message);
-            }
-          }
-        },
-        reject,
-        this.ExecutorType,
-        "start",
-        [command, String(alpine)]
-      );
-    });
+  start(command, onData, alpine = false, options = {}) {
+    const { raw, ...bufferOptions } = options;
+    return streamProcess(
+      this.ExecutorType,
+      "start",
+      [command, String(alpine), bufferOptions],
+      onData,
+      options,
+    );
+  }
+
+  /**
+   * Attaches to a process that is still running, for example after the page was reloaded.
+   * The output the process still retains is replayed first, then live output follows.
+   * The process's previous callback stops receiving output.
+   *
+   * @param {string} uuid - The process ID returned by {@link Executor#start}.
+   * @param {(type: 'stdout' | 'stderr' | 'exit', data: string) => void} onData - Same as for {@link Executor#start}.
+   * @param {{raw?: boolean}} [options] - Same as for {@link Executor#start}.
+   * @returns {Promise<string>} Resolves with the process ID once attached; rejects if the process is gone.
+   */
+  attach(uuid, onData, options = {}) {
+    return streamProcess(this.ExecutorType, "attach", [uuid], onData, options);
   }
 
   /**
@@ -1,5 +1,6 @@
 import "./styles.scss";
 import fsOperation from "fileSystem";
+import Sftp from "fileSystem/sftp";
 import { EditorView } from "@codemirror/view";
 import autosize from "autosize";
 import { getDocText } from "cm/editorUtils";
@@ -14,6 +15,7 @@ import openFile from "lib/openFile";
 import { addedFolder } from "lib/openFolder";
 import settings from "lib/settings";
 import helpers from "utils/helpers";
+import Url from "utils/Url";
 import { createSearchResultView } from "./cmResultView";
 
 // Local highlight sources
@@ -123,6 +125,7 @@ let nativeResultCursor = 0;
 let nativeResultFrame = 0;
 let pendingNativeSearchFinishVersion = null;
 let nativeSearchId = null;
+let remoteSearches = [];
 let activeSearchTasks = 0;
 let activeReplaceTasks = 0;
 
@@ -590,6 +593,7 @@ function onInput(e) {
 
 	terminateWorker();
 	cancelNativeSearch();
+	cancelRemoteSearches();
 	$indexStatus.value = "";
 	searchVersion += 1;
 	searching = false;
@@ -637,7 +641,15 @@ async function searchAll() {
 	await waitForFileListIfReady();
 	if (version !== searchVersion) return;
 
-	const allFiles = files().filter((file) => !helpers.isBinary(file));
+	// SFTP folders are searched on the server, so their files are not read here.
+	const remoteRoots = addedFolder.filter(
+		({ listFiles, url }) => listFiles && Sftp.test(url),
+	);
+	const isRemote = (url) =>
+		remoteRoots.some((root) => url.startsWith(Url.join(root.url, "")));
+	const allFiles = files().filter(
+		(file) => !helpers.isBinary(file) && !isRemote(file.url),
+	);
 	const nativeRoots = addedFolder
 		.filter(({ listFiles }) => listFiles)
 		.map(({ url }) => url)
@@ -657,7 +669,12 @@ async function searchAll() {
 
 	const filesToSearch = allFiles;
 
-	if (!filesToSearch.length && !nativeRoots.length && !nativeOpenFiles.length) {
+	if (
+		!filesToSearch.length &&
+		!nativeRoots.length &&
+		!nativeOpenFiles.length &&
+		!remoteRoots.length
+	) {
 		searchResult.setGhostText(strings["no result"], { row: 0, column: 0 });
 		$progress.value = 100;
 		return;
@@ -687,6 +704,40 @@ async function searchAll() {
 		activeSearchTasks += 1;
 		sendMessage("search-files", workerFiles, regex, options);
 	}
+	remoteRoots.forEach((root) => {
+		activeSearchTasks += 1;
+		sendRemoteSearch(root, search, options);
+	});
+}
+
+function sendRemoteSearch(root, search, options) {
+	const id = `search-${Date.now()}-${Math.random().toString(36).slice(2)}`;
+	const version = searchVersion;
+	const fs = Sftp.fromUrl(root.url);
+	const task = { id, fs };
+	remoteSearches.push(task);
+	fs.search({ id, search, options }, (event) => {
+		if (version !== searchVersion || event?.type !== "search-result") return;
+		const { data } = event;
+		data.file.path = Url.join(root.title, data.file.path);
+		appendSearchResult(data);
+	})
+		.catch((error) => {
+			if (version !== searchVersion) return;
+			console.error(error);
+			$error.value = error?.message || String(error);
+		})
+		.finally(() => {
+			remoteSearches = remoteSearches.filter((item) => item !== task);
+			void finishSearchTask(version);
+		});
+}
+
+function cancelRemoteSearches() {
+	remoteSearches.forEach(({ id, fs }) => {
+		fs.cancelSearch(id);
+	});
+	remoteSearches = [];
 }
 
 async function readSearchFileContent(uri) {
@@ -0,0 +1,122 @@
+import fs from "node:fs";
+import { fileURLToPath } from "node:url";
+import { afterEach, beforeEach, describe, expect, it, vi } from "vitest";
+
+const executorPath = fileURLToPath(
+	new URL("../../src/plugins/terminal/www/Executor.js", import.meta.url),
+);
+
+// Executor.js is a Cordova module: it is evaluated with a require that hands it
+// the mocked exec instead of being imported.
+function loadExecutor(exec) {
+	const module = { exports: {} };
+	const require = (id) => {
+		if (id === "cordova/exec") return exec;
+		throw new Error(`Unexpected require: ${id}`);
+	};
+	new Function(
+		"require",
+		"module",
+		"exports",
+		fs.readFileSync(executorPath, "utf8"),
+	)(require, module, module.exports);
+	return module.exports;
+}
+
+function bytes(...parts) {
+	const encoder = new TextEncoder();
+	const chunks = parts.map((part) =>
+		typeof part === "string" ? encoder.encode(part) : Uint8Array.from(part),
+	);
+	const result = new Uint8Array(
+		chunks.reduce((sum, chunk) => sum + chunk.length, 0),
+	);
+	let offset = 0;
+	for (const chunk of chunks) {
+		result.set(chunk, offset);
+		offset += chunk.length;
+	}
+	return result.buffer;
+}
+
+describe("Executor output batches", () => {
+	let native;
+	let received;
+
+	beforeEach(async () => {
+		vi.useFakeTimers();
+		native = null;
+		received = [];
+		const exec = vi.fn((onSuccess, onFail, service, action) => {
+			if (action === "start") native = onSuccess;
+		});
+		const executor = loadExecutor(exec);
+		const started = executor.start("sh", (type, data) =>
+			received.push([type, data]),
+		);
+		native("process-id");
+		await vi.advanceTimersByTimeAsync(100);
+		await expect(started).resolves.toBe("process-id");
+	});
+
+	afterEach(() => {
+		vi.useRealTimers();
+	});
+
+	const send = (...parts) => native(["stdout", bytes(...parts)]);
+
+	it("joins a line split across batches", () => {
+		send("hel");
+		send("lo\nwor");
+		send("ld\n");
+
+		expect(received).toEqual([
+			["stdout", "hello"],
+			["stdout", "world"],
+		]);
+	});
+
+	it("joins a multibyte character split across batches", () => {
+		send("caf", [0xc3]);
+		send([0xa9], "\n");
+
+		expect(received).toEqual([["stdout", "café"]]);
+	});
+
+	it("treats a CRLF split across batches as one line break", () => {
+		send("one\r");
+		send("\ntwo\r\n");
+
+		expect(received).toEqual([
+			["stdout", "one"],
+			["stdout", "two"],
+		]);
+	});
+
+	it("delivers a trailing prompt once the stream has been quiet", () => {
+		send("line\n$ ");
+		expect(received).toEqual([["stdout", "line"]]);
+
+		vi.advanceTimersByTime(99);
+		expect(received).toEqual([["stdout", "line"]]);
+
+		vi.advanceTimersByTime(1);
+		expect(received).toEqual([
+			["stdout", "line"],
+			["stdout", "$ "],
+		]);
+	});
+
+	it("flushes held output before reporting the exit", () => {
+		send("no newline", [0xc3]);
+		native("exit:0");
+
+		expect(received).toEqual([
+			["stdout", "no newline\uFFFD"],
+			["exit", "0"],
+		]);
+
+		vi.advanceTimersByTime(1000);
+		expect(received).toHaveLength(2);
+	});
+});